@@ -0,0 +1,278 @@
+package com.gyt.collaborativeFiltering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @FileName: KernelBenchmark.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 相似度、相似用户top-K、推荐打分三个计算内核的JMH基准
+ *
+ * 在随机生成的 用户数×电影数 评分矩阵上运行，每个基准在独立的JVM中先预热再测量，结果为每秒操作数；
+ * 加 -prof gc 可同时得到每个操作分配的堆内存字节数。
+ *
+ * 基准：
+ * 	similarity：与LocalEngine的稠密模式相同，按块对调用SimilarityKernel.similarityTile计算一遍所有用户对（单线程），
+ * 		metric参数为各SimilarityMetric
+ * 	topK：TopKHeap 从一个用户的相似度行中选出K个相似用户
+ * 	scoring：累加K个相似用户的评分×相似度，再用 CollaborativeFilteringByUser.selectRecommendations 选出前N部电影
+ *
+ * 由 mvn -Pjmh package 编译打包，例如：
+ * 	java -jar target/benchmarks.jar KernelBenchmark.similarity -p users=1000 -p movies=300 -p metric=COSINE
+ * 	java -jar target/benchmarks.jar KernelBenchmark.scoring -p k=50 -p n=10 -prof gc
+ *
+ * @Date: 2026年10月18日
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KernelBenchmark {
+
+	/**
+	 *
+	 * <p>
+	 * Title: Matrix
+	 * </p>
+	 * <p>
+	 * Description: 评分矩阵与相似度矩阵，各基准共用
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	@State(Scope.Benchmark)
+	public static class Matrix {
+		@Param("500")
+		public int users;
+		@Param("200")
+		public int movies;
+		@Param("0.3")
+		public double density;
+		@Param("1")
+		public long seed;
+
+		// 行主序评分矩阵
+		float[] ratings;
+		// legacy相似度矩阵，topK、scoring使用
+		double[] similarity;
+
+		@Setup
+		public void setUp() {
+			ratings = ratings(users, movies, density, seed);
+			similarity = similarityMatrix(ratings, users, movies);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Similarity
+	 * </p>
+	 * <p>
+	 * Description: 相似度基准的方法与块对结果的缓冲区
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	@State(Scope.Thread)
+	public static class Similarity {
+		@Param({ "LEGACY", "COSINE", "PEARSON", "ADJUSTED_COSINE", "JACCARD" })
+		public SimilarityMetric metric;
+
+		// 每块的用户数
+		int block;
+		double[] tile;
+
+		@Setup
+		public void setUp(Matrix matrix) {
+			block = SimilarityKernel.tileUsers(matrix.movies);
+			tile = new double[block * block];
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Neighbours
+	 * </p>
+	 * <p>
+	 * Description: top-K与推荐打分的参数、预先选好的相似用户与复用的缓冲区，每次调用轮换到下一个用户
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	@State(Scope.Thread)
+	public static class Neighbours {
+		// 相似用户数，小于0时为用户数的1/4
+		@Param("-1")
+		public int k;
+		@Param("10")
+		public int n;
+
+		TopKHeap topK;
+		int[][] neighbourIds;
+		double[][] neighbourSimilarities;
+		double[] movieRecommendScore;
+		boolean[] rated;
+		TopKHeap topN;
+		// 上一次调用的用户
+		private int user = -1;
+
+		@Setup
+		public void setUp(Matrix matrix) {
+			int userCounts = matrix.users;
+			topK = new TopKHeap(k < 0 ? userCounts / 4 : k);
+			neighbourIds = new int[userCounts][];
+			neighbourSimilarities = new double[userCounts][];
+			for (int u = 0; u < userCounts; u++) {
+				selectNeighbours(matrix, u, topK);
+				neighbourIds[u] = new int[topK.size()];
+				neighbourSimilarities[u] = new double[topK.size()];
+				for (int i = 0; i < topK.size(); i++) {
+					neighbourIds[u][i] = topK.id(i);
+					neighbourSimilarities[u][i] = topK.value(i);
+				}
+			}
+			movieRecommendScore = new double[matrix.movies];
+			rated = new boolean[matrix.movies];
+			topN = new TopKHeap(Math.min(n, matrix.movies));
+		}
+
+		// 轮换到下一个用户
+		int nextUser(int userCounts) {
+			user = user + 1 == userCounts ? 0 : user + 1;
+			return user;
+		}
+	}
+
+	@Benchmark
+	public double[] similarity(Matrix matrix, Similarity state) {
+		int userCounts = matrix.users;
+		int block = state.block;
+		for (int rowFrom = 0; rowFrom < userCounts; rowFrom += block) {
+			int rowTo = Math.min(userCounts, rowFrom + block);
+			for (int columnFrom = rowFrom; columnFrom < userCounts; columnFrom += block) {
+				int columnTo = Math.min(userCounts, columnFrom + block);
+				SimilarityKernel.similarityTile(state.metric, matrix.ratings, matrix.movies, rowFrom, rowTo, columnFrom,
+						columnTo, state.tile);
+			}
+		}
+		return state.tile;
+	}
+
+	@Benchmark
+	public double topK(Matrix matrix, Neighbours state) {
+		selectNeighbours(matrix, state.nextUser(matrix.users), state.topK);
+		return state.topK.size() == 0 ? 0.0 : state.topK.value(0);
+	}
+
+	@Benchmark
+	public double scoring(Matrix matrix, Neighbours state) {
+		int user = state.nextUser(matrix.users);
+		int movieCounts = matrix.movies;
+		int row = user * movieCounts;
+		double[] movieRecommendScore = state.movieRecommendScore;
+		Arrays.fill(movieRecommendScore, 0.0);
+		for (int m = 0; m < movieCounts; m++) {
+			state.rated[m] = matrix.ratings[row + m] != 0.0f;
+		}
+		double recommendSum = 0.0;
+		int[] neighbourIds = state.neighbourIds[user];
+		double[] neighbourSimilarities = state.neighbourSimilarities[user];
+		for (int i = 0; i < neighbourIds.length; i++) {
+			int neighbourRow = neighbourIds[i] * movieCounts;
+			double weight = neighbourSimilarities[i];
+			for (int m = 0; m < movieCounts; m++) {
+				double score = matrix.ratings[neighbourRow + m] * weight;
+				movieRecommendScore[m] += score;
+				recommendSum += score;
+			}
+		}
+		CollaborativeFilteringByUser.selectRecommendations(movieRecommendScore, state.rated, recommendSum,
+				movieCounts, state.topN);
+		return state.topN.size() == 0 ? 0.0 : state.topN.value(0);
+	}
+
+	// 从legacy相似度矩阵的一行中选出K个相似用户，按相似度从高到低
+	private static void selectNeighbours(Matrix matrix, int user, TopKHeap topK) {
+		int row = user * matrix.users;
+		topK.clear();
+		for (int v = 0; v < matrix.users; v++) {
+			if (v != user) {
+				topK.offer(v, matrix.similarity[row + v]);
+			}
+		}
+		topK.sortDescending();
+	}
+
+	/**
+	 *
+	 * @Title：similarityMatrix
+	 * @Description: 用similarityTile按块对计算legacy相似度，再写成完整的行主序矩阵，对角线为0，供topK、scoring使用
+	 * @Param: @param ratings
+	 * @Param: @param userCounts
+	 * @Param: @param movieCounts
+	 * @Return: double[]
+	 */
+	static double[] similarityMatrix(float[] ratings, int userCounts, int movieCounts) {
+		double[] similarity = new double[userCounts * userCounts];
+		int block = SimilarityKernel.tileUsers(movieCounts);
+		double[] tile = new double[block * block];
+		for (int rowFrom = 0; rowFrom < userCounts; rowFrom += block) {
+			int rowTo = Math.min(userCounts, rowFrom + block);
+			for (int columnFrom = rowFrom; columnFrom < userCounts; columnFrom += block) {
+				int columnTo = Math.min(userCounts, columnFrom + block);
+				int width = columnTo - columnFrom;
+				SimilarityKernel.similarityTile(SimilarityMetric.LEGACY, ratings, movieCounts, rowFrom, rowTo, columnFrom,
+						columnTo, tile);
+				for (int i = rowFrom; i < rowTo; i++) {
+					for (int j = Math.max(columnFrom, i + 1); j < columnTo; j++) {
+						double value = tile[(i - rowFrom) * width + (j - columnFrom)];
+						similarity[i * userCounts + j] = value;
+						similarity[j * userCounts + i] = value;
+					}
+				}
+			}
+		}
+		return similarity;
+	}
+
+	/**
+	 *
+	 * @Title：ratings
+	 * @Description: 生成行主序评分矩阵，每个评分以density的概率为1.0~5.0（一位小数），否则为0.0
+	 * @Param: @param userCounts
+	 * @Param: @param movieCounts
+	 * @Param: @param density
+	 * @Param: @param seed
+	 * @Return: float[]
+	 */
+	static float[] ratings(int userCounts, int movieCounts, double density, long seed) {
+		Random random = new Random(seed);
+		float[] ratings = new float[userCounts * movieCounts];
+		for (int i = 0; i < ratings.length; i++) {
+			if (random.nextDouble() < density) {
+				ratings[i] = (10 + random.nextInt(41)) / 10.0f;
+			}
+		}
+		return ratings;
+	}
+}
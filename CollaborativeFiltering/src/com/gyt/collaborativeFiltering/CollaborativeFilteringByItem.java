@@ -0,0 +1,541 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.DecimalFormat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.DictionaryCombiner;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.DictionaryCounter;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.DictionaryMapper;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.DictionaryReducer;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.NeighbourReducer;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.RatingVectorMapper;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.RatingVectorReducer;
+
+/**
+ * @FileName: CollaborativeFilteringByItem.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 使用协同过滤推荐算法，基于电影，实现电影推荐
+ *
+ ********************************************************************************************************************
+ * 代码分析：
+ * 	用户数远多于电影数时，电影之间的相似度比用户之间的相似度更稳定，也更适合预先计算。
+ * 	本类先一次性算出每部电影最相似的K部电影（近邻表），再为每个用户打分：
+ * 	打分只访问该用户评价过的电影的近邻，不需要遍历用户相似度矩阵。
+ * 	源数据格式与 CollaborativeFilteringByUser 相同（colfilter.input.format），字典、评分向量两个作业直接复用其Mapper、Reducer。
+ *
+ * 	startMapReduce(inputOutputPath)
+ * 		中间目录位于inputOutputPath[2]下：
+ * 		0) 字典 dictionary、1) 评分向量 ratings
+ * 			同 CollaborativeFilteringByUser
+ *
+ * 		2) 电影模长 norms (ItemNormMapper、SquareSumReducer)
+ * 			输入：评分向量
+ * 			输出：只有一个reduce任务，文本格式，每行 电影ID	评分平方和，通过分布式缓存分发给电影相似度作业
+ *
+ * 		3) 电影相似度 similarity (ItemPairMapper、PairSumCombiner、ItemSimilarityReducer)
+ * 			输入：评分向量
+ * 			map输出：每个用户评价过（评分不为0.0）的电影两两组成电影对，key=电影ID对，value=两个评分之积
+ * 			输出：余弦相似度 = 评分之积的和 / (电影1的模长×电影2的模长)，按两个方向各输出一次：
+ * 				key=电影1，value=(电影2, 相似度)；key=电影2，value=(电影1, 相似度)
+ *
+ * 		4) 相似电影 neighbours (NeighbourReducer)
+ * 			输入：电影相似度
+ * 			输出：每部电影最相似的K部电影（colfilter.neighbours.k，本类默认20），即近邻表
+ * 			只有一个reduce任务，近邻表为一个SequenceFile，通过分布式缓存分发给推荐作业
+ *
+ * 		5) 推荐 output (ItemRecommendMapper)
+ * 			输入：评分向量；只有map任务
+ * 			内部功能：
+ * 				电影j对用户的推荐值 = Σ(用户对电影i的评分×电影i与j的相似度) / Σ|电影i与j的相似度|
+ * 					其中i为用户评价过、且近邻表中包含j的电影
+ * 				用户未评价过的电影按推荐值从高到低取前N个输出（colfilter.recommend.n，默认全部）
+ * 			输出：key=用户名	value=推荐电影列表
+ *
+ ***********************************************************************************************************************
+ * @Date: 2026年10月18日
+ */
+public class CollaborativeFilteringByItem {
+	// 属性
+	// 未配置colfilter.neighbours.k时，每部电影保留的相似电影数
+	public static final int DEFAULT_NEIGHBOURS = 20;
+
+	// 中间目录
+	public static final String NORMS_DIR = "norms";
+
+	// 分布式缓存中电影模长文件、近邻表的链接名
+	public static final String NORMS_FILE = "item.norms";
+	public static final String NEIGHBOURS_FILE = "item.neighbours";
+
+	/**
+	 *
+	 * @Title：main
+	 * @Description: 主函数，源数据需已由 CollaborativeFilteringByUser 生成并上传到HDFS
+	 * @Param: @param args
+	 * @Return: void
+	 */
+	public static void main(String[] args) {
+		System.out.println("start mapreduce");
+		// 输入输出路径、中间结果路径
+		String[] inputOutputPath = { "hdfs://master:9000/data/colFilter", "hdfs://master:9000/output/colFilterByItem",
+				"hdfs://master:9000/tmp/colFilterByItem" };
+		startMapReduce(inputOutputPath);
+	}
+
+	/**
+	 *
+	 * @Title：startMapReduce
+	 * @Description: 依次启动字典、评分向量、电影模长、电影相似度、相似电影、推荐六个作业
+	 * @Param: inputOutputPath [0]输入目录 [1]输出目录 [2]中间结果目录
+	 * @Return: void
+	 */
+	private static void startMapReduce(String[] inputOutputPath) {
+		// Hadoop配置
+		Configuration configuration = new Configuration();
+		if (configuration.get(CollaborativeFilteringByUser.CONF_NEIGHBOURS) == null) {
+			configuration.setInt(CollaborativeFilteringByUser.CONF_NEIGHBOURS, DEFAULT_NEIGHBOURS);
+		}
+
+		Path input = new Path(inputOutputPath[0]);
+		Path output = new Path(inputOutputPath[1]);
+		Path dictionary = new Path(inputOutputPath[2], CollaborativeFilteringByUser.DICTIONARY_DIR);
+		Path ratings = new Path(inputOutputPath[2], CollaborativeFilteringByUser.RATINGS_DIR);
+		Path norms = new Path(inputOutputPath[2], NORMS_DIR);
+		Path similarity = new Path(inputOutputPath[2], CollaborativeFilteringByUser.SIMILARITY_DIR);
+		Path neighbours = new Path(inputOutputPath[2], CollaborativeFilteringByUser.NEIGHBOURS_DIR);
+
+		try {
+			// 0. 字典
+			Job job = CollaborativeFilteringByUser.createJob(configuration, "itemFilter-dictionary", dictionary);
+			job.setMapperClass(DictionaryMapper.class);
+			job.setCombinerClass(DictionaryCombiner.class);
+			job.setReducerClass(DictionaryReducer.class);
+			job.setNumReduceTasks(1);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(NullWritable.class);
+			LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+			MultipleOutputs.addNamedOutput(job, CollaborativeFilteringByUser.USERS_OUTPUT, TextOutputFormat.class,
+					IntWritable.class, Text.class);
+			MultipleOutputs.addNamedOutput(job, CollaborativeFilteringByUser.MOVIES_OUTPUT, TextOutputFormat.class,
+					IntWritable.class, Text.class);
+			RatingFormat.get(configuration).addInputPath(job, input);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return;
+			}
+			configuration.setLong(CollaborativeFilteringByUser.CONF_USER_COUNTS,
+					job.getCounters().findCounter(DictionaryCounter.USERS).getValue());
+			configuration.setLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS,
+					job.getCounters().findCounter(DictionaryCounter.MOVIES).getValue());
+
+			// 1. 评分向量
+			job = CollaborativeFilteringByUser.createJob(configuration, "itemFilter-ratings", ratings);
+			CollaborativeFilteringByUser.addDictionaries(job, dictionary);
+			job.setMapperClass(RatingVectorMapper.class);
+			job.setReducerClass(RatingVectorReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(RatingVectorWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(RatingVectorWritable.class);
+			RatingFormat.get(configuration).addInputPath(job, input);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return;
+			}
+
+			// 2. 电影模长：电影数很少，只用一个reduce任务，输出一个文本文件
+			job = CollaborativeFilteringByUser.createJob(configuration, "itemFilter-norms", norms);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(ItemNormMapper.class);
+			job.setCombinerClass(SquareSumReducer.class);
+			job.setReducerClass(SquareSumReducer.class);
+			job.setNumReduceTasks(1);
+			job.setOutputFormatClass(TextOutputFormat.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(DoubleWritable.class);
+			FileInputFormat.addInputPath(job, ratings);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return;
+			}
+
+			// 3. 电影相似度
+			job = CollaborativeFilteringByUser.createJob(configuration, "itemFilter-similarity", similarity);
+			job.addCacheFile(new URI(new Path(norms, "part-r-00000").toUri() + "#" + NORMS_FILE));
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(ItemPairMapper.class);
+			job.setCombinerClass(PairSumCombiner.class);
+			job.setReducerClass(ItemSimilarityReducer.class);
+			job.setMapOutputKeyClass(LongWritable.class);
+			job.setMapOutputValueClass(DoubleWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(NeighbourWritable.class);
+			FileInputFormat.addInputPath(job, ratings);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return;
+			}
+
+			// 4. 相似电影：只用一个reduce任务，近邻表为一个文件
+			job = CollaborativeFilteringByUser.createJob(configuration, "itemFilter-neighbours", neighbours);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(Mapper.class);
+			job.setReducerClass(NeighbourReducer.class);
+			job.setNumReduceTasks(1);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(NeighbourWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(NeighbourWritable.class);
+			FileInputFormat.addInputPath(job, similarity);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return;
+			}
+
+			// 5. 推荐：只有map任务，每个用户的打分只查近邻表
+			job = CollaborativeFilteringByUser.createJob(configuration, "itemFilter-recommend", output);
+			CollaborativeFilteringByUser.addDictionaries(job, dictionary);
+			job.addCacheFile(new URI(new Path(neighbours, "part-r-00000").toUri() + "#" + NEIGHBOURS_FILE));
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setOutputFormatClass(TextOutputFormat.class);
+			job.setMapperClass(ItemRecommendMapper.class);
+			job.setNumReduceTasks(0);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(Text.class);
+			FileInputFormat.addInputPath(job, ratings);
+			if (CollaborativeFilteringByUser.runJob(job)) {
+				System.out.println("Job success!");
+			}
+			StageMetrics.driver().write(configuration);
+		} catch (IOException | ClassNotFoundException | InterruptedException | URISyntaxException e1) {
+			// TODO Auto-generated catch block
+			e1.printStackTrace();
+		}
+	}
+
+	/**
+	 *
+	 * @Title：loadNorms
+	 * @Description: 读取电影模长文件（每行 电影ID	评分平方和），返回下标为电影ID的模长数组
+	 * @Param: @param file
+	 * @Param: @param movieCounts
+	 * @Return: double[]
+	 */
+	static double[] loadNorms(File file, int movieCounts) throws IOException {
+		double[] norms = new double[movieCounts];
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+			String strLine = null;
+			while ((strLine = reader.readLine()) != null) {
+				int index = strLine.indexOf("\t");
+				if (index < 0) {
+					continue;
+				}
+				norms[Integer.parseInt(strLine.substring(0, index))] = Math
+						.sqrt(Double.parseDouble(strLine.substring(index + 1)));
+			}
+		}
+		return norms;
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: ItemNormMapper
+	 * </p>
+	 * <p>
+	 * Description: 电影模长作业Mapper类，输出 (电影ID, 评分的平方)
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class ItemNormMapper extends Mapper<IntWritable, RatingVectorWritable, IntWritable, DoubleWritable> {
+
+		// 输出对象复用
+		private final IntWritable movieKey = new IntWritable();
+		private final DoubleWritable square = new DoubleWritable();
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			for (int i = 0; i < value.size(); i++) {
+				float score = value.score(i);
+				if (score == 0.0f) { // 未评分
+					continue;
+				}
+				movieKey.set(value.movieId(i));
+				square.set((double) score * score);
+				context.write(movieKey, square);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: SquareSumReducer
+	 * </p>
+	 * <p>
+	 * Description: 电影模长作业Combiner、Reducer类，对同一电影的评分平方求和
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class SquareSumReducer extends Reducer<IntWritable, DoubleWritable, IntWritable, DoubleWritable> {
+
+		// 输出对象复用
+		private final DoubleWritable sum = new DoubleWritable();
+
+		@Override
+		protected void reduce(IntWritable key, Iterable<DoubleWritable> values, Context context)
+				throws IOException, InterruptedException {
+			double squareSum = 0.0;
+			for (DoubleWritable value : values) {
+				squareSum += value.get();
+			}
+			sum.set(squareSum);
+			context.write(key, sum);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: ItemPairMapper
+	 * </p>
+	 * <p>
+	 * Description: 电影相似度作业Mapper类，将用户评价过的电影两两组成电影对，输出 (电影ID对, 两个评分之积)
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class ItemPairMapper extends Mapper<IntWritable, RatingVectorWritable, LongWritable, DoubleWritable> {
+
+		// 用户评价过的电影，在各用户之间复用
+		private final RatingVectorWritable rated = new RatingVectorWritable();
+		// 输出对象复用
+		private final LongWritable pairKey = new LongWritable();
+		private final DoubleWritable product = new DoubleWritable();
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			rated.clear(key.get());
+			for (int i = 0; i < value.size(); i++) {
+				if (value.score(i) != 0.0f) {
+					rated.add(value.movieId(i), value.score(i));
+				}
+			}
+			for (int i = 0; i < rated.size(); i++) {
+				for (int j = i + 1; j < rated.size(); j++) {
+					pairKey.set(CollaborativeFilteringByUser.pairId(rated.movieId(i), rated.movieId(j)));
+					product.set((double) rated.score(i) * rated.score(j));
+					context.write(pairKey, product);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: PairSumCombiner
+	 * </p>
+	 * <p>
+	 * Description: 电影相似度作业Combiner类，在map端预先对同一电影对的评分之积求和
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class PairSumCombiner extends Reducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+
+		// 输出对象复用
+		private final DoubleWritable sum = new DoubleWritable();
+
+		@Override
+		protected void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
+				throws IOException, InterruptedException {
+			double productSum = 0.0;
+			for (DoubleWritable value : values) {
+				productSum += value.get();
+			}
+			sum.set(productSum);
+			context.write(key, sum);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: ItemSimilarityReducer
+	 * </p>
+	 * <p>
+	 * Description: 电影相似度作业Reducer类，计算电影对的余弦相似度并按两个方向输出
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class ItemSimilarityReducer
+			extends Reducer<LongWritable, DoubleWritable, IntWritable, NeighbourWritable> {
+
+		// 电影模长，下标为电影ID
+		private double[] norms;
+		// 输出对象复用
+		private final IntWritable movieKey = new IntWritable();
+		private final NeighbourWritable neighbour = new NeighbourWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			int movieCounts = (int) context.getConfiguration().getLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS,
+					0);
+			norms = loadNorms(new File(NORMS_FILE), movieCounts);
+		}
+
+		@Override
+		protected void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
+				throws IOException, InterruptedException {
+			double dot = 0.0;
+			for (DoubleWritable value : values) {
+				dot += value.get();
+			}
+			int movie1 = CollaborativeFilteringByUser.pairFirst(key.get());
+			int movie2 = CollaborativeFilteringByUser.pairSecond(key.get());
+			// 有共同评分的电影，模长均大于0
+			double similarity = dot / (norms[movie1] * norms[movie2]);
+
+			movieKey.set(movie1);
+			neighbour.set(movie2, similarity);
+			context.write(movieKey, neighbour);
+			movieKey.set(movie2);
+			neighbour.set(movie1, similarity);
+			context.write(movieKey, neighbour);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: ItemRecommendMapper
+	 * </p>
+	 * <p>
+	 * Description: 推荐作业Mapper类，按近邻表为用户未评价过的电影打分，输出推荐值最高的N部电影
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class ItemRecommendMapper extends Mapper<IntWritable, RatingVectorWritable, Text, Text> {
+
+		private NameDictionary users;
+		private NameDictionary movies;
+		private ItemNeighbourhood neighbourhood;
+		// 加权评分之和、相似度绝对值之和，下标为电影ID，各用户之间复用
+		private double[] weightedScores;
+		private double[] weights;
+		// 用户是否已评分，下标为电影ID
+		private boolean[] rated;
+		// 本用户打过分的候选电影，只清理这些下标
+		private int[] candidates;
+		private int candidateCounts = 0;
+		// 推荐值最高的N部电影
+		private TopKHeap topN;
+		// 格式化保留两位小数
+		private final DecimalFormat df = new DecimalFormat("#.00");
+		// 输出对象复用
+		private final StringBuilder recommendMovies = new StringBuilder();
+		private final Text userName = new Text();
+		private final Text recommendText = new Text();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			int movieCounts = (int) conf.getLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS, 0);
+			users = NameDictionary.load(new File(CollaborativeFilteringByUser.USERS_DICT));
+			movies = NameDictionary.load(new File(CollaborativeFilteringByUser.MOVIES_DICT));
+			neighbourhood = ItemNeighbourhood.load(conf, new File(NEIGHBOURS_FILE), movieCounts);
+			weightedScores = new double[movieCounts];
+			weights = new double[movieCounts];
+			rated = new boolean[movieCounts];
+			candidates = new int[movieCounts];
+			int recommendCounts = conf.getInt(CollaborativeFilteringByUser.CONF_RECOMMENDATIONS, -1);
+			topN = new TopKHeap(recommendCounts < 0 ? movieCounts : Math.min(recommendCounts, movieCounts));
+		}
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			for (int i = 0; i < value.size(); i++) {
+				if (value.score(i) != 0.0f) {
+					rated[value.movieId(i)] = true;
+				}
+			}
+
+			// 只访问用户评价过的电影的近邻
+			for (int i = 0; i < value.size(); i++) {
+				float score = value.score(i);
+				if (score == 0.0f) {
+					continue;
+				}
+				int movieId = value.movieId(i);
+				for (int n = neighbourhood.start(movieId); n < neighbourhood.end(movieId); n++) {
+					int candidate = neighbourhood.neighbour(n);
+					double similarity = neighbourhood.similarity(n);
+					// 相似度为0的近邻对推荐值没有影响
+					if (rated[candidate] || similarity == 0.0) {
+						continue;
+					}
+					if (weights[candidate] == 0.0) {
+						candidates[candidateCounts++] = candidate;
+					}
+					weightedScores[candidate] += score * similarity;
+					weights[candidate] += Math.abs(similarity);
+				}
+			}
+
+			topN.clear();
+			for (int i = 0; i < candidateCounts; i++) {
+				int candidate = candidates[i];
+				topN.offer(candidate, weightedScores[candidate] / weights[candidate]);
+				weightedScores[candidate] = 0.0;
+				weights[candidate] = 0.0;
+			}
+			candidateCounts = 0;
+			for (int i = 0; i < value.size(); i++) {
+				rated[value.movieId(i)] = false;
+			}
+			topN.sortDescending();
+
+			// 格式：电影名[推荐值]
+			recommendMovies.setLength(0);
+			for (int i = 0; i < topN.size(); i++) {
+				recommendMovies.append(movies.name(topN.id(i))).append('[').append(df.format(topN.value(i)))
+						.append("]; ");
+			}
+			userName.set(users.name(key.get()) + "\t");
+			recommendText.set(recommendMovies.toString());
+			context.write(userName, recommendText);
+		}
+	}
+}
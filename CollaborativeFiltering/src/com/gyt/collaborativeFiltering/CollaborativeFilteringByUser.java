@@ -2,34 +2,43 @@ package com.gyt.collaborativeFiltering;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
-import java.util.StringTokenizer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.log4j.Logger;
+
+import com.gyt.collaborativeFiltering.RatingFormat.RatingRecord;
+import com.gyt.collaborativeFiltering.StageMetrics.Sampler;
+import com.gyt.collaborativeFiltering.StageMetrics.StageCounter;
 
 /**
  * @FileName: CollaborativeFilteringByUser.java
@@ -47,46 +56,77 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
  * 	2. putFile2HDFS(locaFilePath)
  * 		将generateSourceData函数写入本地的磁盘文件上传到 HDFS 
  * 
- * 	3. startMapReduce(inputOutputPath)
- * 		启动MapReduce，为用户推荐电影
- * 		MapReduce程序共分为：ColFilterMapper、ColFilterCombiner、ColFilterReducer
- * 		1) ColFilterMapper
- * 			执行次数：行数
- * 			输入：读取HDFS文件，每次按行读入
- * 			输出：key=电影名，value=用户1$评分;用户2$评分.....
- * 			内部功能：
- * 				1. 按照读取的顺序，将用户名赋值给users一维数组，其下标作为用户ID
- * 				2. 将用户的对所有电影的评分写入usersInfo变量（key=用户名，value=map类型，map类型中：key=电影名，value=评分）
+ * 	3. startMapReduce(configuration, inputOutputPath)
+ * 		依次启动多个MapReduce作业，为用户推荐电影
+ * 		各作业之间不共享任何静态变量，中间结果全部经由shuffle或HDFS上的中间目录传递，
+ * 		因此可以在集群上以任意数量的map、reduce任务运行。中间目录位于inputOutputPath[2]下，中间结果均为SequenceFile：
+ * 		源数据格式由colfilter.input.format选择（见RatingFormat）：
+ * 			lines 每行 用户	电影1$评分;电影2$评分;...（默认）；triples 每行 用户,电影,评分；binary 定长12字节的评分记录
+ * 		0) 字典 dictionary (DictionaryMapper、DictionaryCombiner、DictionaryReducer)
+ * 			输入：源数据
+ * 			输出：users-r-00000、movies-r-00000 两个字典文件，每行 ID	名称，ID从0开始连续分配
+ * 			只有一个reduce任务；字典文件通过分布式缓存分发给需要编码、解码的任务，用户数、电影数通过计数器传给后续作业
+ * 			之后各作业只处理int类型的ID，名称只在最后写出推荐结果时解码
  * 
+ * 		1) 评分向量 ratings (RatingVectorMapper、RatingVectorReducer)
+ * 			输入：源数据
+ * 			输出：key=用户ID，value=RatingVectorWritable 电影ID、评分数组（同一用户分散在多行、多条评分时合并为一个向量）
  * 
- * 		2) ColFilterCombiner
- * 			执行次数：Mapper输出的不同key值数量（相同key将合并）
- * 			输入：Mapper的输出
- * 			输出：key=ID&用户 value=电影$评分;电影$评分;...（value值这里并没有实际意义，因为在Reducer并没有使用到)
- * 			内部功能：
- * 				1. 将输入数据的key值即电影名，赋值到一维数组movies
- * 				2. 将各用户对同一部电影的评分做差值，并将 5-该差值 作为用户与用户之间的相似度并写入二维数组（维度：用户数×用户数），
- * 					并且二维数组的下标与用户ID一一对应。该值越大，用户越相似。按照key=电影名，value=各用户之间的
- * 					相似度二维数组的格式put到 userSimilarityMap变量。
- * 				3. 按照用户数量输出（因为如果输出有重复，Reducer最后写入文件会出现重复）
+ * 		2) 共同评分用户对 pairs (CoRatingPairMapper、CoRatingPairReducer)
+ * 			输入：评分向量
+ * 			map输出：key=MovieBlockKey（电影ID、块1、块2、用户ID，定长12字节），value=评分
+ * 				评分数超过colfilter.skew.block.users（默认4096）的热门电影按 用户ID%块数 把用户分块，
+ * 				每对块（含块与自身）为一个子任务，按 电影、块1、块2 分区、分组，同一分组内按用户ID二次排序，
+ * 				热门电影的用户对分散到多个reduce任务，不再由一个reduce任务计算；其他电影仍按电影分组
+ * 				稀疏模式下各电影的评分数由之前的电影评分人数作业 popularity (MoviePopularityMapper、MoviePopularityReducer) 统计
+ * 				配置colfilter.pairs.cap时，评分数超过该值的电影按 (种子, 电影ID, 用户ID) 的哈希值可重复地抽样约cap个用户，
+ * 				用户对数与shuffle量的上限为每部电影cap²/2，去掉的评分数记为计数器CAPPED_RATINGS；用户统计量不抽样
+ * 				配置colfilter.pairs.iuf=true时，各电影下的用户对统计量乘以 log(用户总数/评分人数)，热门电影的权重较小；
+ * 				用户统计量中各电影的部分乘以同样的权重，cosine等得到加权后的相似度，取值范围不变
+ * 				所选的相似度计算方法（colfilter.similarity.metric）需要用户统计量时（如cosine的评分平方和），
+ * 				map端同时输出 userstats-m-xxxxx：key=用户ID，value=PairStatsWritable 该用户的统计量
+ * 			输出：key=用户ID对（两个int拼成的long），value=PairStatsWritable 该电影下二者的相似度统计量
+ * 				默认legacy方法下为 5-评分差值的绝对值，越大越相似
+ * 			稀疏模式（colfilter.pairs.sparse=true）下只输出同时评价过该电影（评分不为0.0）的用户对，
+ * 				内存与shuffle量随共同评分数增长，而不是随用户数的平方增长；legacy以外的方法总是只统计共同评分的电影
  * 
- *
- * 		3) ColFilterReducer
- * 			输入：Combier的输出：key=ID&用户 value=电影$评分;电影$评分;...
+ * 		3) 用户相似度 similarity (PairStatsCombiner、SimilarityReducer)
+ * 			输入：共同评分用户对
+ * 			输出：将同一用户对在所有电影下的统计量求和，结合两个用户的统计量得到总相似度，按两个方向各输出一次：
+ * 				key=用户1，value=(用户2, 总相似度)；key=用户2，value=(用户1, 总相似度)
+ * 				统计量之和另外保存为 pairstats-r-xxxxx，供增量更新（IncrementalUpdate）在此基础上只加上评分的变化
+ * 		2、3) 配置colfilter.lsh时由LshCandidates的一个作业代替：用局部敏感哈希选出候选用户对，只计算候选用户对的相似度，
+ * 			输出格式相同；colfilter.lsh.recall=true时另外精确计算一次并输出召回率。
+ * 			LSH不做抽样与IUF加权，与colfilter.pairs.cap、colfilter.pairs.iuf同时配置时不启动任何作业
+ * 
+ * 		4) 相似用户 neighbours (NeighbourReducer)
+ * 			输入：用户相似度
+ * 			输出：每个用户最相似的K个用户，每个相似用户一条：key=用户ID，value=(相似用户ID, 总相似度)
+ * 			K由colfilter.neighbours.k配置，默认 用户总数/4；用定长小顶堆选出，总相似度相等时用户ID小的优先
+ * 			作业完成后另存为定长二进制的相似用户模型 neighbours.model（NeighbourModel），
+ * 				服务进程用FileChannel.map映射后直接按用户ID读取，不需要反序列化
+ * 			评分向量同时另存为堆外评分文件 ratings.store（RatingStore），同样映射后按用户ID读取
+ * 
+ * 		5) 评分关联 contributions (NeighbourJoinMapper、RatingJoinMapper、ScoringJoinReducer)
+ * 			输入：相似用户、评分向量
+ * 			输出：按相似用户关联其评分向量，key=目标用户ID，value=相似用户的评分×总相似度
+ * 
+ * 		6) 推荐 output (RecommendReducer)
+ * 			输入：评分关联、评分向量
  * 			输出：key=用户名	value=推荐电影列表
  * 			内部功能：
- * 				1. userSimilarityMap变量记录了不同电影下用户与用户之间的相似度值，将其求和，即将userSimilarityMap变量
- * 					的所有value值（二维数组）对应位置求和。得到总的用户相似度二维数组 userSimilarityAll（维度：用户数×用户数）
- * 				2. userSimilarityAll二维数组中记录了用户与用户之间的总相似度，其值越高越相似。根据Combiner传过来的key=ID&用户，
- * 					按照key值中的ID确定userSimilarityAll数组中的行，然后遍历该行，找出相似度值最大的3个用户（修改变量值即可确定
- * 					寻找前几个最相似的用户），符合条件的用户所在位置的列下标值即为用户的ID。根据此ID可通过users一维数组确定用户名。
- * 					根据用户名可通过usersInfo集合确定用户对所有电影的评分。获取到最相似的3各用户的所有评分后，
- * 						按照：电影推荐度 = 用户1对该电影评分×用户与目标用户的总相似度值 
- * 						+ 用户2对该电影评分×用户与目标用户的总相似度值
- * 						+ 用户3对该电影评分×用户与目标用户的总相似度值。
- * 					最后按照以下条件，确定某电影是否推荐给目标用户：
- * 						1) 目标用户对该电影评分为0.0，即为看过该电影
- * 						2) 该电影的推荐值大于所有电影对该用户的推荐度的平均值
+ * 				电影推荐度 = 用户1对该电影评分×用户与目标用户的总相似度值 
+ * 					+ 用户2对该电影评分×用户与目标用户的总相似度值
+ * 					+ ......
+ * 				最后按照以下条件，确定某电影是否推荐给目标用户：
+ * 					1) 目标用户对该电影评分为0.0，即为看过该电影
+ * 					2) 该电影的推荐值大于所有电影对该用户的推荐度的平均值
+ * 				符合条件的电影按推荐值从高到低取前N个输出（colfilter.recommend.n，默认全部），推荐值相等时电影ID小的优先
+ * 		各作业的记录数、共同评分用户对数、相似度计算次数、选出相似用户与推荐的耗时记为计数器（StageMetrics.StageCounter），
+ * 			每个作业完成后与map输出、shuffle字节数一起输出一行摘要；配置colfilter.metrics.file时另外写成指标文件
+ * 		5、6) 配置colfilter.scoring.mapside=true时由一个只有map的作业代替 (MapSideRecommendMapper)：
+ * 			每个任务映射分布式缓存中的ratings.store、neighbours.model，直接为输入分片中的用户计算推荐，没有shuffle；
+ * 			结果与推荐作业相同，输出文件为part-m-xxxxx，用户顺序与评分向量文件相同
  * 
  ***********************************************************************************************************************
  * @Date: 2018年12月18日 下午5:11:33
@@ -94,33 +134,72 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 public class CollaborativeFilteringByUser {
 	// 属性
-	// 用户下标变量 mapper中使用
-	public static int userIndex = 0;
-	// 用户下标变量 combiner中使用
-	public static int userIndex2 = 0;
-	// 电影下标变量 combiner中使用
-	public static int movieIndex = 0;
-	// 用户总数
-	public static int userCounts = 0;
-	// 电影总数
-	public static int movieCounts = 0;
-
-	// 用户名
-	public static String[] users = null;
+	// 配置项：用户总数，由字典作业统计后写入
+	public static final String CONF_USER_COUNTS = "colfilter.user.counts";
+	// 配置项：电影总数，由字典作业统计后写入
+	public static final String CONF_MOVIE_COUNTS = "colfilter.movie.counts";
+	// 配置项：是否只输出同时评价过同一电影的用户对，默认false即与原算法一致，未评分的0.0也参与计算
+	public static final String CONF_SPARSE_PAIRS = "colfilter.pairs.sparse";
+	// 配置项：相似度计算方法 legacy、cosine、pearson、adjusted-cosine、jaccard，默认legacy，见SimilarityMetric
+	public static final String CONF_SIMILARITY_METRIC = "colfilter.similarity.metric";
+	// 配置项：每个用户取最相似的用户数K，未配置时为原算法的 用户总数/4
+	public static final String CONF_NEIGHBOURS = "colfilter.neighbours.k";
+	// 配置项：每个用户最多输出的推荐电影数N，未配置时与原算法一致，输出全部符合推荐标准的电影
+	public static final String CONF_RECOMMENDATIONS = "colfilter.recommend.n";
+	// 配置项：源数据格式 lines、triples、binary，默认lines即每行一个用户，见RatingFormat
+	public static final String CONF_INPUT_FORMAT = "colfilter.input.format";
+	// 配置项：用户统计量文件的路径（可含通配符），由作业流程设置，相似度作业读取
+	public static final String CONF_USER_STATS = "colfilter.user.stats";
+	// 配置项：是否由map端映射评分文件、相似用户模型直接计算推荐，代替评分关联、推荐两个作业，默认false
+	public static final String CONF_MAP_SIDE_SCORING = "colfilter.scoring.mapside";
+	// 配置项：热门电影每块的用户数，评分数超过该值的电影按用户分块计算共同评分用户对，默认4096，0表示不分块
+	public static final String CONF_BLOCK_USERS = "colfilter.skew.block.users";
+	public static final int DEFAULT_BLOCK_USERS = 4096;
+	// 配置项：每部电影最多的分块数，默认64，即最多 64×65/2 个子任务
+	public static final String CONF_MAX_BLOCKS = "colfilter.skew.max.blocks";
+	public static final int DEFAULT_MAX_BLOCKS = 64;
+	// 配置项：每部电影参与共同评分用户对计算的最多用户数，评分数超过该值时按哈希可重复地抽样，默认0即不限制
+	public static final String CONF_PAIR_CAP = "colfilter.pairs.cap";
+	// 配置项：抽样的种子，换一个种子得到另一组样本，默认0
+	public static final String CONF_PAIR_CAP_SEED = "colfilter.pairs.cap.seed";
+	// 配置项：是否按电影的逆用户频率 log(用户总数/评分人数) 加权各电影下的用户对统计量，默认false
+	public static final String CONF_IUF = "colfilter.pairs.iuf";
+	// 配置项：电影评分人数文件的路径（可含通配符），由作业流程设置，共同评分用户对作业读取
+	public static final String CONF_MOVIE_POPULARITY = "colfilter.movie.popularity";
 
-	// 电影名
-	public static String[] movies = null;
+	// 中间目录
+	public static final String DICTIONARY_DIR = "dictionary";
+	public static final String RATINGS_DIR = "ratings";
+	public static final String PAIRS_DIR = "pairs";
+	public static final String POPULARITY_DIR = "popularity";
+	public static final String SIMILARITY_DIR = "similarity";
+	public static final String NEIGHBOURS_DIR = "neighbours";
+	public static final String CONTRIBUTIONS_DIR = "contributions";
+	// 相似用户模型文件，位于中间目录下，见NeighbourModel
+	public static final String MODEL_FILE = "neighbours.model";
+	// 堆外评分文件，位于中间目录下，见RatingStore
+	public static final String RATINGS_FILE = "ratings.store";
 
-	// 用户相似度集合, key=电影名, value=各用户相似度
-	public static Map<String, Double[][]> userSimilarityMap = new HashMap<>();;
+	// 字典作业的输出名，以及分布式缓存中字典文件的链接名
+	public static final String USERS_OUTPUT = "users";
+	public static final String MOVIES_OUTPUT = "movies";
+	public static final String USERS_DICT = "users.dict";
+	public static final String MOVIES_DICT = "movies.dict";
+	// 共同评分用户对作业输出的用户统计量、相似度作业输出的用户对统计量之和
+	public static final String USER_STATS_OUTPUT = "userstats";
+	public static final String PAIR_STATS_OUTPUT = "pairstats";
+	// 各作业主输出文件，与同目录下的命名输出区分
+	public static final String PARTS = "part-*";
+	// 字典作业中区分用户名、电影名的前缀
+	public static final char USER_PREFIX = 'U';
+	public static final char MOVIE_PREFIX = 'M';
 
-	// 用户信息，外层map：key=用户名 values = 电影-评分 , key = 电影 value = 评分
-	public static Map<String, Map<String, String>> usersInfo = new HashMap<>();
+	// 字典作业计数器：用户数、电影数
+	public static enum DictionaryCounter {
+		USERS, MOVIES
+	}
 
-	// 第一次执行reducer
-	public static int firstRun = 0;
-	// 用户之间的总相似度
-	public static Double[][] userSimilarityAll = null;
+	private static final Logger LOG = Logger.getLogger(CollaborativeFilteringByUser.class);
 
 
 	/**
@@ -143,9 +222,10 @@ public class CollaborativeFilteringByUser {
 
 		System.out.println("start mapreduce");
 		// 配置并启动Hadoop
-		// 输入输出路径
-		String[] inputOutputPath = { "hdfs://master:9000/data/colFilter", "hdfs://master:9000/output/colFileter" };
-		startMapReduce(inputOutputPath);
+		// 输入输出路径、中间结果路径
+		String[] inputOutputPath = { "hdfs://master:9000/data/colFilter", "hdfs://master:9000/output/colFileter",
+				"hdfs://master:9000/tmp/colFilter" };
+		startMapReduce(new Configuration(), inputOutputPath);
 	}
 
 	/**
@@ -171,67 +251,13 @@ public class CollaborativeFilteringByUser {
 		// 读取电影文件内容到moviesname列表
 		getInfoFromLocalFile(moviesname, moviesPath);
 
-		// 获取用户数，电影数
-		userCounts = usersname.size();
-		movieCounts = moviesname.size();
-
-		// 初始化
-		users = new String[userCounts];
-		// 初始化
-		movies = new String[movieCounts];
-
-		// 生成电影评分
-		// 行-用户; 列-每部电影评分
-		Double[][] score2Movie = new Double[userCounts][movieCounts];
-		// 初始化
-		for (int i = 0; i < userCounts; i++) {
-			for (int j = 0; j < movieCounts; j++) {
-				score2Movie[i][j] = 0.0;
-			}
-		}
-		// 生成各用户对各电影的评分
-		generateScore(score2Movie, userCounts, movieCounts);
-		// 格式化写入本地文件
-		formatWrite2LocalFile(usersname, moviesname, score2Movie, outputFilePath);
-
-	}
-	
-	/**
-	 * 
-	 * @Title：formatWrite2LocalFile
-	 * @Description: 格式化写入本地文件
-	 * @Param: @param usersname
-	 * @Param: @param moviesname
-	 * @Param: @param score2Movie
-	 * @Param: @param outputFilePath
-	 * @Return: void
-	 * @Date: 2018年12月20日
-	 */
-	private static void formatWrite2LocalFile(ArrayList<String> usersname, ArrayList<String> moviesname,
-			Double[][] score2Movie, String outputFilePath) {
-		// 按照 用户(Tab)电影1$评分;电影2$评分;电影3$评分;...... 格式写入本地磁盘
+		// 生成各用户对各电影的评分，逐行写入本地文件
+		// 评分为 1-5, 0代表未看过该电影--即为可能推荐的电影之一；假设每位用户看过的电影数为电影总数的4/5
+		RatingGenerator generator = new RatingGenerator(usersname, moviesname);
+		generator.setDensity(0.8);
+		generator.setDense(true);
 		try {
-			File file = new File(outputFilePath);
-			if (file.exists()) { // 存在则先删除
-				file.delete();
-			}
-			file.createNewFile();
-
-			// 字节流写入磁盘
-			@SuppressWarnings("resource")
-			FileOutputStream oStream = new FileOutputStream(file);
-
-			for (int i = 0; i < userCounts; i++) {
-				String content = usersname.get(i) + "\t";
-				for (int j = 0; j < movieCounts; j++) {
-					// 拼接为：用户(Tab)电影1$评分;电影2$评分;电影3$评分;......
-					content += moviesname.get(j) + "$" + score2Movie[i][j] + ";";
-				}
-				content += "\r\n";
-				byte[] buffer = content.getBytes();
-				// 写入磁盘
-				oStream.write(buffer, 0, buffer.length);
-			}
+			generator.generate(new File(outputFilePath), 1, 1);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -246,7 +272,7 @@ public class CollaborativeFilteringByUser {
 	 * @Return: void
 	 * @Date: 2018年12月20日
 	 */
-	private static void getInfoFromLocalFile(ArrayList<String> list, String filePath) {
+	static void getInfoFromLocalFile(ArrayList<String> list, String filePath) {
 		try {
 			// 向列表加入值，共8
 			File usersFile = new File(filePath);
@@ -270,43 +296,6 @@ public class CollaborativeFilteringByUser {
 		}
 	}
 
-	/**
-	 * 
-	 * @Title：generateScore
-	 * @Description: 随机生成电影评分
-	 * @Param: @param score2Movie
-	 * @Return: void
-	 * @Date: 2018年12月18日
-	 */
-	private static void generateScore(Double[][] score2Movie, int userCounts, int moviesCounts) {
-		// 评分为 1-5, 0代表未看过该电影--即为可能推荐的电影之一
-		int alreadyWatchCounts = (moviesCounts*4)/5; // 假设每位用户看过的电影数为电影总数的4/5
-		int indexOfAlreadyWatch = 0;
-
-		// 实例化随机类
-		Random random = new Random();
-
-		for (int i = 0; i < userCounts; i++) { // i 用户
-			for (int j = 0; j < alreadyWatchCounts; j++) { // j 假设一看电影数
-				// 随机看过的电影下标
-				indexOfAlreadyWatch = random.nextInt(moviesCounts);
-				// 已评分则跳过
-				if (score2Movie[i][indexOfAlreadyWatch] != 0.0) {
-					j--;
-					continue;
-				}
-
-				// 随机浮点型评分, 取一位小数
-				DecimalFormat df = new DecimalFormat("#.0");
-				Double score = Double.parseDouble(df.format(random.nextDouble() * 4 + 1));
-
-				// 为假设已看电影写入评分
-				score2Movie[i][indexOfAlreadyWatch] = score;
-			}
-		}
-
-	}
-
 	/**
 	 * 
 	 * @Title：putFile2HDFS
@@ -342,418 +331,1694 @@ public class CollaborativeFilteringByUser {
 	/**
 	 * 
 	 * @Title：startMapReduce
-	 * @Description: 启动MapReduce
-	 * @Param:
-	 * @Return: void
+	 * @Description: 依次启动字典、评分向量、共同评分用户对、用户相似度、相似用户、评分关联、推荐七个作业
+	 * @Param: configuration Hadoop配置
+	 * @Param: inputOutputPath [0]输入目录 [1]输出目录 [2]中间结果目录
+	 * @Return: boolean 是否全部成功
 	 * @Date: 2018年12月19日
 	 */
-	private static void startMapReduce(String[] inputOutputPath) {
-		// Hadoop配置
-		Configuration configuration = new Configuration();
+	static boolean startMapReduce(Configuration configuration, String[] inputOutputPath) {
+		if (LshCandidates.enabled(configuration) && (configuration.getInt(CONF_PAIR_CAP, 0) > 0
+				|| configuration.getBoolean(CONF_IUF, false))) {
+			// LSH的桶内直接计算候选用户对，不经过抽样与IUF加权，结果会与配置不符
+			System.out.println("colfilter.lsh does not support colfilter.pairs.cap or colfilter.pairs.iuf, "
+					+ "remove one of them");
+			return false;
+		}
+
+		Path input = new Path(inputOutputPath[0]);
+		Path output = new Path(inputOutputPath[1]);
+		Path dictionary = new Path(inputOutputPath[2], DICTIONARY_DIR);
+		Path ratings = new Path(inputOutputPath[2], RATINGS_DIR);
+		Path pairs = new Path(inputOutputPath[2], PAIRS_DIR);
+		Path similarity = new Path(inputOutputPath[2], SIMILARITY_DIR);
+		Path neighbours = new Path(inputOutputPath[2], NEIGHBOURS_DIR);
+		Path contributions = new Path(inputOutputPath[2], CONTRIBUTIONS_DIR);
 
-		Job job;
 		try {
-			// 如果存在输出目录，则删除
-			FileSystem fileSystem = new Path(inputOutputPath[1]).getFileSystem(configuration);
-			if (fileSystem.exists(new Path(inputOutputPath[1]))) {
-				fileSystem.delete(new Path(inputOutputPath[1]), true);
+			// 0. 字典：为用户名、电影名分配连续的ID，只用一个reduce任务保证ID连续
+			Job job = createJob(configuration, "colFilter-dictionary", dictionary);
+			job.setMapperClass(DictionaryMapper.class);
+			job.setCombinerClass(DictionaryCombiner.class);
+			job.setReducerClass(DictionaryReducer.class);
+			job.setNumReduceTasks(1);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(NullWritable.class);
+			LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+			MultipleOutputs.addNamedOutput(job, USERS_OUTPUT, TextOutputFormat.class, IntWritable.class, Text.class);
+			MultipleOutputs.addNamedOutput(job, MOVIES_OUTPUT, TextOutputFormat.class, IntWritable.class, Text.class);
+			RatingFormat.get(configuration).addInputPath(job, input);
+			if (!runJob(job)) {
+				return false;
 			}
+			configuration.setLong(CONF_USER_COUNTS, job.getCounters().findCounter(DictionaryCounter.USERS).getValue());
+			configuration.setLong(CONF_MOVIE_COUNTS, job.getCounters().findCounter(DictionaryCounter.MOVIES).getValue());
 
-			job = Job.getInstance(configuration);
-			// 设置类
-			job.setJarByClass(CollaborativeFilteringByUser.class);
-			job.setMapperClass(ColFilterMapper.class);
-			job.setCombinerClass(ColFilterCombiner.class); // Combiner
-			job.setReducerClass(ColFilterReducer.class);
+			// 1. 评分向量
+			job = createJob(configuration, "colFilter-ratings", ratings);
+			addDictionaries(job, dictionary);
+			job.setMapperClass(RatingVectorMapper.class);
+			job.setReducerClass(RatingVectorReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(RatingVectorWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(RatingVectorWritable.class);
+			RatingFormat.get(configuration).addInputPath(job, input);
+			if (!runJob(job)) {
+				return false;
+			}
 
-			// maper输出格式
-			job.setMapOutputKeyClass(Text.class);
-			job.setMapOutputValueClass(Text.class);
-			// reducer输出格式
-			job.setOutputKeyClass(Text.class);
-			job.setOutputValueClass(Text.class);
+			// 2、3. 共同评分用户对、用户相似度；启用LSH时只计算候选用户对
+			if (LshCandidates.enabled(configuration)) {
+				if (!LshCandidates.startCandidates(configuration, ratings, similarity)) {
+					return false;
+				}
+			} else if (!startSimilarity(configuration, ratings, pairs, similarity)) {
+				return false;
+			}
 
-			// 输入输出路径
-			FileInputFormat.addInputPath(job, new Path(inputOutputPath[0]));
-			FileOutputFormat.setOutputPath(job, new Path(inputOutputPath[1]));
+			// 4. 相似用户
+			if (!startNeighbours(configuration, similarity, neighbours)) {
+				return false;
+			}
+			if (LshCandidates.enabled(configuration) && configuration.getBoolean(LshCandidates.CONF_LSH_RECALL, false)
+					&& !LshCandidates.reportRecall(configuration, new Path(inputOutputPath[2]), ratings, neighbours)) {
+				return false;
+			}
+			Path model = new Path(inputOutputPath[2], MODEL_FILE);
+			Path store = new Path(inputOutputPath[2], RATINGS_FILE);
+			writeModel(configuration, neighbours, model);
+			writeRatingStore(configuration, ratings, store);
 
-			// 判断
-			if (job.waitForCompletion(true)) {
+			// 5、6. 评分关联、推荐
+			boolean success = configuration.getBoolean(CONF_MAP_SIDE_SCORING, false)
+					? startMapSideScoring(configuration, dictionary, ratings, store, model, output)
+					: startScoring(configuration, dictionary, ratings, neighbours, contributions, output);
+			if (success) {
 				System.out.println("Job success!");
-			} else {
-				System.out.println("Job failed!");
 			}
-		} catch (IOException | ClassNotFoundException | InterruptedException e1) {
+			StageMetrics.driver().write(configuration);
+			return success;
+		} catch (IOException | ClassNotFoundException | InterruptedException | URISyntaxException e1) {
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * 
+	 * @Title：startSimilarity
+	 * @Description: 依次启动共同评分用户对、用户相似度两个作业，精确计算所有有共同评分（非稀疏模式下为所有）用户对的相似度
+	 * @Param: @param configuration 设置colfilter.user.stats为共同评分用户对作业输出的用户统计量
+	 * @Param: @param ratings 评分向量目录
+	 * @Param: @param pairs 共同评分用户对目录
+	 * @Param: @param similarity 用户相似度目录
+	 * @Return: boolean 作业是否全部成功
+	 */
+	static boolean startSimilarity(Configuration configuration, Path ratings, Path pairs, Path similarity)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		// 2. 共同评分用户对；需要时先统计各电影的评分人数，供热门电影分块、抽样与IUF加权使用
+		Job job;
+		if (needsPopularity(configuration)) {
+			Path popularity = new Path(pairs.getParent(), POPULARITY_DIR);
+			job = createJob(configuration, "colFilter-popularity", popularity);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(MoviePopularityMapper.class);
+			job.setReducerClass(MoviePopularityReducer.class);
+			job.setNumReduceTasks(1);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(IntWritable.class);
+			FileInputFormat.addInputPath(job, ratings);
+			if (!runJob(job)) {
+				return false;
+			}
+			configuration.set(CONF_MOVIE_POPULARITY, new Path(popularity, PARTS).toString());
+		}
+		job = createJob(configuration, "colFilter-pairs", pairs);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(CoRatingPairMapper.class);
+		job.setReducerClass(CoRatingPairReducer.class);
+		job.setMapOutputKeyClass(MovieBlockKey.class);
+		job.setMapOutputValueClass(FloatWritable.class);
+		// 按 电影、块1、块2 分区、分组，按用户ID二次排序
+		job.setPartitionerClass(MovieBlockKey.BlockPartitioner.class);
+		job.setSortComparatorClass(MovieBlockKey.Comparator.class);
+		job.setGroupingComparatorClass(MovieBlockKey.GroupComparator.class);
+		job.setOutputKeyClass(LongWritable.class);
+		job.setOutputValueClass(PairStatsWritable.class);
+		MultipleOutputs.addNamedOutput(job, USER_STATS_OUTPUT, SequenceFileOutputFormat.class, IntWritable.class,
+				PairStatsWritable.class);
+		FileInputFormat.addInputPath(job, ratings);
+		if (!runJob(job)) {
+			return false;
+		}
+		configuration.set(CONF_USER_STATS, new Path(pairs, USER_STATS_OUTPUT + "-m-*").toString());
+
+		// 3. 用户相似度
+		job = createJob(configuration, "colFilter-similarity", similarity);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(Mapper.class);
+		job.setCombinerClass(PairStatsCombiner.class);
+		job.setReducerClass(SimilarityReducer.class);
+		job.setMapOutputKeyClass(LongWritable.class);
+		job.setMapOutputValueClass(PairStatsWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(NeighbourWritable.class);
+		MultipleOutputs.addNamedOutput(job, PAIR_STATS_OUTPUT, SequenceFileOutputFormat.class, LongWritable.class,
+				PairStatsWritable.class);
+		FileInputFormat.addInputPath(job, new Path(pairs, PARTS));
+		return runJob(job);
+	}
+
+	/**
+	 * 
+	 * @Title：needsPopularity
+	 * @Description: 共同评分用户对作业是否需要电影评分人数：IUF加权总是需要；
+	 *               稀疏模式下热门电影分块、抽样需要（非稀疏模式下每部电影都输出全部用户，人数即用户总数）
+	 * @Param: @param conf
+	 * @Return: boolean
+	 */
+	static boolean needsPopularity(Configuration conf) {
+		if (conf.getBoolean(CONF_IUF, false)) {
+			return true;
+		}
+		boolean sparse = SimilarityMetric.get(conf).ratedOnly() || conf.getBoolean(CONF_SPARSE_PAIRS, false);
+		return sparse && (conf.getInt(CONF_BLOCK_USERS, DEFAULT_BLOCK_USERS) > 0 || conf.getInt(CONF_PAIR_CAP, 0) > 0);
+	}
+
+	/**
+	 * 
+	 * @Title：sampleHash
+	 * @Description: 抽样用的哈希值，只取决于种子、电影ID、用户ID，重新运行时抽到同样的用户
+	 * @Param: @param seed
+	 * @Param: @param movieId
+	 * @Param: @param userId
+	 * @Return: double [0, 1)之间均匀分布
+	 */
+	static double sampleHash(long seed, int movieId, int userId) {
+		long hash = seed * 0x9E3779B97F4A7C15L + (((long) movieId << 32) | (userId & 0xFFFFFFFFL));
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return (hash >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * 
+	 * @Title：iufWeights
+	 * @Description: 各电影的逆用户频率 log(用户总数/评分人数)，评分人数为0时按1计算；
+	 *               所有用户都评价过的电影权重为0，不参与任何用户对与用户统计量，
+	 *               只评价过这类电影的用户与其他用户的相似度为0
+	 * @Param: @param popularity 各电影的评分人数
+	 * @Param: @param userCounts 用户总数
+	 * @Return: double[] 下标为电影ID
+	 */
+	static double[] iufWeights(int[] popularity, int userCounts) {
+		double[] weights = new double[popularity.length];
+		for (int movieId = 0; movieId < popularity.length; movieId++) {
+			weights[movieId] = Math.log((double) userCounts / Math.max(1, popularity[movieId]));
+		}
+		return weights;
+	}
+
+	/**
+	 * 
+	 * @Title：startNeighbours
+	 * @Description: 启动相似用户作业
+	 * @Param: @param configuration
+	 * @Param: @param similarity 用户相似度目录
+	 * @Param: @param neighbours 相似用户目录
+	 * @Return: boolean 作业是否成功
+	 */
+	static boolean startNeighbours(Configuration configuration, Path similarity, Path neighbours)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		// 4. 相似用户
+		Job job = createJob(configuration, "colFilter-neighbours", neighbours);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(Mapper.class);
+		job.setReducerClass(NeighbourReducer.class);
+		job.setMapOutputKeyClass(IntWritable.class);
+		job.setMapOutputValueClass(NeighbourWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(NeighbourWritable.class);
+		FileInputFormat.addInputPath(job, new Path(similarity, PARTS));
+		return runJob(job);
+	}
+
+	/**
+	 * 
+	 * @Title：writeModel
+	 * @Description: 将相似用户作业的输出另存为相似用户模型
+	 * @Param: @param configuration
+	 * @Param: @param neighbours 相似用户目录
+	 * @Param: @param model 模型文件
+	 * @Return: void
+	 */
+	static void writeModel(Configuration configuration, Path neighbours, Path model) throws IOException {
+		System.out.println("write " + model);
+		long start = System.currentTimeMillis();
+		NeighbourModel.write(configuration, new Path(neighbours, PARTS),
+				(int) configuration.getLong(CONF_USER_COUNTS, 0), neighbourCounts(configuration), model);
+		StageMetrics.driver().add("write-" + MODEL_FILE, StageMetrics.MILLIS, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 
+	 * @Title：writeRatingStore
+	 * @Description: 将评分向量作业的输出另存为堆外评分文件
+	 * @Param: @param configuration
+	 * @Param: @param ratings 评分向量目录
+	 * @Param: @param store 评分文件
+	 * @Return: void
+	 */
+	static void writeRatingStore(Configuration configuration, Path ratings, Path store) throws IOException {
+		System.out.println("write " + store);
+		long start = System.currentTimeMillis();
+		RatingStore.write(configuration, new Path(ratings, PARTS), (int) configuration.getLong(CONF_USER_COUNTS, 0),
+				(int) configuration.getLong(CONF_MOVIE_COUNTS, 0), store);
+		StageMetrics.driver().add("write-" + RATINGS_FILE, StageMetrics.MILLIS, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 
+	 * @Title：startScoring
+	 * @Description: 依次启动评分关联、推荐两个作业，增量更新后也由此重新生成推荐结果
+	 * @Param: @param configuration
+	 * @Param: @param dictionary 字典目录
+	 * @Param: @param ratings 评分向量目录
+	 * @Param: @param neighbours 相似用户目录
+	 * @Param: @param contributions 评分关联的输出目录
+	 * @Param: @param output 推荐结果目录
+	 * @Return: boolean 作业是否全部成功
+	 */
+	static boolean startScoring(Configuration configuration, Path dictionary, Path ratings, Path neighbours,
+			Path contributions, Path output)
+			throws IOException, InterruptedException, ClassNotFoundException, URISyntaxException {
+		// 5. 评分关联
+		Job job = createJob(configuration, "colFilter-contributions", contributions);
+		job.setReducerClass(ScoringJoinReducer.class);
+		job.setMapOutputKeyClass(IntWritable.class);
+		job.setMapOutputValueClass(JoinWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(RatingVectorWritable.class);
+		MultipleInputs.addInputPath(job, neighbours, SequenceFileInputFormat.class, NeighbourJoinMapper.class);
+		MultipleInputs.addInputPath(job, ratings, SequenceFileInputFormat.class, RatingJoinMapper.class);
+		if (!runJob(job)) {
+			return false;
+		}
+
+		// 6. 推荐：用户名、电影名只在这里写出结果时才解码
+		job = createJob(configuration, "colFilter-recommend", output);
+		addDictionaries(job, dictionary);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(Mapper.class);
+		job.setReducerClass(RecommendReducer.class);
+		job.setMapOutputKeyClass(IntWritable.class);
+		job.setMapOutputValueClass(RatingVectorWritable.class);
+		job.setOutputFormatClass(TextOutputFormat.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+		FileInputFormat.addInputPath(job, contributions);
+		FileInputFormat.addInputPath(job, ratings);
+		return runJob(job);
+	}
+
+	/**
+	 * 
+	 * @Title：startMapSideScoring
+	 * @Description: 启动只有map的推荐作业，代替评分关联、推荐两个作业
+	 * @Param: @param configuration
+	 * @Param: @param dictionary 字典目录
+	 * @Param: @param ratings 评分向量目录，只用于按用户划分输入分片
+	 * @Param: @param store 评分文件
+	 * @Param: @param model 相似用户模型文件
+	 * @Param: @param output 推荐结果目录
+	 * @Return: boolean 作业是否成功
+	 */
+	static boolean startMapSideScoring(Configuration configuration, Path dictionary, Path ratings, Path store,
+			Path model, Path output)
+			throws IOException, InterruptedException, ClassNotFoundException, URISyntaxException {
+		Job job = createJob(configuration, "colFilter-recommend-mapside", output);
+		addDictionaries(job, dictionary);
+		job.addCacheFile(new URI(store.toUri() + "#" + RATINGS_FILE));
+		job.addCacheFile(new URI(model.toUri() + "#" + MODEL_FILE));
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(MapSideRecommendMapper.class);
+		job.setNumReduceTasks(0);
+		job.setOutputFormatClass(TextOutputFormat.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+		FileInputFormat.addInputPath(job, new Path(ratings, PARTS));
+		return runJob(job);
+	}
+
+	/**
+	 * 
+	 * @Title：createJob
+	 * @Description: 创建作业，默认输出为SequenceFile，若输出目录已存在则先删除
+	 * @Param: @param configuration
+	 * @Param: @param jobName
+	 * @Param: @param outputPath 本作业的输出目录
+	 * @Return: Job
+	 */
+	static Job createJob(Configuration configuration, String jobName, Path outputPath) throws IOException {
+		// 如果存在输出目录，则删除
+		FileSystem fileSystem = outputPath.getFileSystem(configuration);
+		if (fileSystem.exists(outputPath)) {
+			fileSystem.delete(outputPath, true);
+		}
+
+		Job job = Job.getInstance(configuration, jobName);
+		// 设置类
+		job.setJarByClass(CollaborativeFilteringByUser.class);
+
+		// 中间结果均为二进制格式
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileOutputFormat.setOutputPath(job, outputPath);
+		return job;
+	}
+
+	/**
+	 * 
+	 * @Title：addDictionaries
+	 * @Description: 将字典作业生成的用户、电影字典加入分布式缓存，任务中以USERS_DICT、MOVIES_DICT为文件名读取
+	 * @Param: @param job
+	 * @Param: @param dictionary 字典作业的输出目录
+	 * @Return: void
+	 */
+	static void addDictionaries(Job job, Path dictionary) throws URISyntaxException {
+		job.addCacheFile(new URI(new Path(dictionary, USERS_OUTPUT + "-r-00000").toUri() + "#" + USERS_DICT));
+		job.addCacheFile(new URI(new Path(dictionary, MOVIES_OUTPUT + "-r-00000").toUri() + "#" + MOVIES_DICT));
+	}
+
+	/**
+	 * 
+	 * @Title：runJob
+	 * @Description: 提交作业并等待完成，成功时将耗时与计数器记入StageMetrics.driver()
+	 * @Param: @param job
+	 * @Return: boolean 作业是否成功
+	 */
+	static boolean runJob(Job job) throws IOException, InterruptedException, ClassNotFoundException {
+		System.out.println("start " + job.getJobName());
+		long start = System.currentTimeMillis();
+		// 判断
+		if (job.waitForCompletion(true)) {
+			StageMetrics.driver().record(job, System.currentTimeMillis() - start);
+			return true;
 		}
+		System.out.println("Job failed: " + job.getJobName());
+		return false;
 	}
 
 	/**
 	 * 
 	 * <p>
-	 * Title: ColFilterMapper
+	 * Title: DictionaryMapper
 	 * </p>
 	 * <p>
-	 * Description: Mapper类
+	 * Description: 字典作业Mapper类，输出源数据中出现的用户名、电影名
 	 * </p>
 	 * 
 	 * @author Gu Yongtao
-	 * @date 2018年12月18日
+	 * @date 2026年10月18日
 	 */
-	public static class ColFilterMapper extends Mapper<LongWritable, Text, Text, Text> {
+	public static class DictionaryMapper extends Mapper<LongWritable, Writable, Text, NullWritable> {
+
+		// 源数据格式
+		private RatingFormat format;
+		private final RatingRecord record = new RatingRecord();
+		// 本任务已输出过的用户、电影，lines格式每行都会列出全部电影，triples、binary格式每条评分都有用户名，避免重复输出
+		private final Set<String> usersSeen = new HashSet<>();
+		private final Set<String> moviesSeen = new HashSet<>();
+		// 解析的记录数、空行数、格式错误的记录数，cleanup时计入计数器
+		private long parsed = 0;
+		private long empty = 0;
+		private long bad = 0;
+		// 输出对象复用
+		private final Text name = new Text();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			format = RatingFormat.get(context.getConfiguration());
+		}
 
 		@Override
-		protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
-			System.out.println("Start Mapper:");
+		protected void map(LongWritable key, Writable value, Context context) throws IOException, InterruptedException {
 			/*
-			 * context的输出格式为 key=电影 value=用户$评分;用户$评分;...... (Mapper自带将相同key聚合的功能)
+			 * context的输出格式为 key=U用户名 或 M电影名
 			 */
-			// 分割数据
-			StringTokenizer sTokenizer = new StringTokenizer(value.toString());
-			// 用户
-			String username = sTokenizer.nextToken();
-			users[userIndex++] = username; // 将用户名赋值给用户数组
+			if (!format.parse(value, record)) { // 空行或格式错误的行
+				if (record.isMalformed()) {
+					bad++;
+				} else {
+					empty++;
+				}
+				return;
+			}
+			parsed++;
+			if (usersSeen.add(record.user())) {
+				name.set(USER_PREFIX + record.user());
+				context.write(name, NullWritable.get());
+			}
+			for (int i = 0; i < record.size(); i++) {
+				String movie = record.movie(i);
+				if (moviesSeen.add(movie)) {
+					name.set(MOVIE_PREFIX + movie);
+					context.write(name, NullWritable.get());
+				}
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(StageCounter.RECORDS_PARSED).increment(parsed);
+			context.getCounter(StageCounter.EMPTY_RECORDS).increment(empty);
+			context.getCounter(StageCounter.BAD_RECORDS).increment(bad);
+		}
+
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: DictionaryCombiner
+	 * </p>
+	 * <p>
+	 * Description: 字典作业Combiner类，在map端去重
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class DictionaryCombiner extends Reducer<Text, NullWritable, Text, NullWritable> {
+
+		@Override
+		protected void reduce(Text key, Iterable<NullWritable> values, Context context)
+				throws IOException, InterruptedException {
+			context.write(key, NullWritable.get());
+		}
+	}
 
-			// 电影$评分;电影$评分;
-			String movieAndScores = sTokenizer.nextToken();
+	/**
+	 * 
+	 * <p>
+	 * Title: DictionaryReducer
+	 * </p>
+	 * <p>
+	 * Description: 字典作业Reducer类，按排序后的顺序为用户、电影分别分配从0开始的连续ID
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class DictionaryReducer extends Reducer<Text, NullWritable, IntWritable, Text> {
 
-			// 分割电影$评分
-			sTokenizer = new StringTokenizer(movieAndScores, ";");
+		private MultipleOutputs<IntWritable, Text> outputs;
+		// 下一个分配的用户ID、电影ID
+		private int userId = 0;
+		private int movieId = 0;
+		// 输出对象复用
+		private final IntWritable id = new IntWritable();
+		private final Text name = new Text();
 
-			// 记录用户信息
-			Map<String, String> movieScore = new HashMap<>();
-			while (sTokenizer.hasMoreTokens()) {
-				// 获得电影名和评分
-				String string = sTokenizer.nextToken();
-				// $的下标
-				int index = string.indexOf("$");
-				String movie = string.substring(0, index);
-				String score = string.substring(index + 1);
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			outputs = new MultipleOutputs<>(context);
+		}
 
-				// 按 key=电影名， value=评分写入集合
-				movieScore.put(movie, score);
-				
-				// key = 电影 value=用户$评分用户$评分....
-				context.write(new Text(movie), new Text(username + "$" + score));
+		@Override
+		protected void reduce(Text key, Iterable<NullWritable> values, Context context)
+				throws IOException, InterruptedException {
+			String string = key.toString();
+			name.set(string.substring(1));
+			if (string.charAt(0) == USER_PREFIX) {
+				id.set(userId++);
+				outputs.write(USERS_OUTPUT, id, name);
+				context.getCounter(DictionaryCounter.USERS).increment(1);
+			} else {
+				id.set(movieId++);
+				outputs.write(MOVIES_OUTPUT, id, name);
+				context.getCounter(DictionaryCounter.MOVIES).increment(1);
 			}
-			// 按照 key=用户名 value=map，map中 key=电影名， value=评分写入集合
-			usersInfo.put(username, movieScore);
 		}
 
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			outputs.close();
+		}
 	}
 
 	/**
 	 * 
 	 * <p>
-	 * Title: ColFilterCombiner
+	 * Title: RatingVectorMapper
 	 * </p>
 	 * <p>
-	 * Description: Combiner类
+	 * Description: 评分向量作业Mapper类，按字典将用户名、电影名编码为ID，按用户ID输出其评分向量
+	 * 		同一用户连续的多条输入（triples、binary格式通常按用户排列）合并为一个向量后再输出，shuffle量与评分数成正比
 	 * </p>
 	 * 
 	 * @author Gu Yongtao
-	 * @date 2018年12月18日
+	 * @date 2026年10月18日
 	 */
-	public static class ColFilterCombiner extends Reducer<Text, Text, Text, Text> {
+	public static class RatingVectorMapper extends Mapper<LongWritable, Writable, IntWritable, RatingVectorWritable> {
+
+		// 源数据格式
+		private RatingFormat format;
+		private final RatingRecord record = new RatingRecord();
+		private NameDictionary users;
+		private NameDictionary movies;
+		// 正在合并的用户ID，-1表示没有
+		private int currentUser = -1;
+		// 解析的记录数、空行数、格式错误的记录数、评分数，cleanup时计入计数器
+		private long parsed = 0;
+		private long empty = 0;
+		private long bad = 0;
+		private long ratings = 0;
+		private Sampler sampler;
+		// 输出对象复用
+		private final IntWritable userKey = new IntWritable();
+		private final RatingVectorWritable vector = new RatingVectorWritable();
 
 		@Override
-		protected void reduce(Text key, Iterable<Text> values, Context context)
-				throws IOException, InterruptedException {
-			System.out.println("Start Combiner:");
-			/**
-			 * context的输出格式为 users的下标+用户 电影$评分;电影$评分;.... 
-			 */
-			// 计算用户相似度
-			// 在同一部电影中计算用户与用户之间的评分差值，作为标准
-			// 记录电影名
-			movies[movieIndex++] = key.toString();
-
-			// 将该电影的所有用户评分写到数组
-			String[] usersScoreData = new String[userCounts];
-			int num = 0;
-			for (Text userScore : values) {
-				System.out.print(userScore.toString() + "  ");
-				usersScoreData[num++] = userScore.toString();
-			}
-			System.out.println("");
-			// 计算用户与用户之间的评分差值 组成usrCounts * userCounts的数组
-			Double[][] userSimilarity = new Double[userCounts][userCounts];
-
-			for (int i = 0; i < userCounts; i++) {
-				// 分割，i为行
-				String userScore1 = usersScoreData[i];
-				int index1 = userScore1.indexOf("$");
-
-				//System.out.println(user1);	// 如果输出的顺序与 users的顺序相同则正确
-				String score1 = userScore1.substring(index1 + 1);
-
-				for (int j = 0; j < userCounts; j++) {
-					// 分割，j为列
-					String userScore2 = usersScoreData[j];
-
-					/**
-					 *  同一用户相似度赋值为5-电影评分差值
-					 *  因为用户评分差值越小，则二则越相似
-					 *  用5来减，是因为 两个用户评分的差值最大不超过5
-					 */
-					if (userScore2.equals(userScore1)) {
-						userSimilarity[i][j] = 0.0;
-						continue;
-					}
-					// 分割
-					int index2 = userScore2.indexOf("$");
-					String score2 = userScore2.substring(index2 + 1);
+		protected void setup(Context context) throws IOException, InterruptedException {
+			format = RatingFormat.get(context.getConfiguration());
+			users = NameDictionary.load(new File(USERS_DICT));
+			movies = NameDictionary.load(new File(MOVIES_DICT));
+			sampler = new Sampler(context.getConfiguration(), LOG);
+		}
 
-					// 5 - 两个不同用户评分之差的绝对值 = 该电影下用户与用户之间的相似度
-					userSimilarity[i][j] = 5 - Math.abs(Double.parseDouble(score1) - Double.parseDouble(score2));
-				}
-			}
-			
-			// 写入map集合 key=电影  value=各用户在该电影中的评分相似度
-			userSimilarityMap.put(key.toString(), userSimilarity);
-			
+		@Override
+		protected void map(LongWritable key, Writable value, Context context) throws IOException, InterruptedException {
 			/*
-			 * 使用判断是为了避免context重复写入
-			 * 因为程序：combiner会执行movieCounts次，
-			 * reducer会执行userCounts次，若不加判断最后会重复输出
+			 * context的输出格式为 key=用户ID value=(电影ID, 评分)...
 			 */
-			if (userIndex2 < userCounts) {	// 其实这里的value没有实际意义，因为在reducer中并没有使用
-				context.write(new Text(userIndex2 + "&" + users[userIndex2]), new Text("" + userIndex2));
-				userIndex2++;
+			if (!format.parse(value, record)) { // 空行或格式错误的行
+				if (record.isMalformed()) {
+					bad++;
+				} else {
+					empty++;
+				}
+				return;
+			}
+			parsed++;
+			ratings += record.size();
+			if (sampler.sample()) {
+				LOG.debug("ratings record " + parsed + ": user " + record.user() + ", " + record.size() + " ratings");
+			}
+			// 用户
+			int userId = users.id(record.user());
+			if (userId != currentUser) {
+				flush(context);
+				vector.clear(userId);
+				currentUser = userId;
+			}
+			for (int i = 0; i < record.size(); i++) {
+				vector.add(movies.id(record.movie(i)), record.score(i));
 			}
 		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			flush(context);
+			context.getCounter(StageCounter.RECORDS_PARSED).increment(parsed);
+			context.getCounter(StageCounter.EMPTY_RECORDS).increment(empty);
+			context.getCounter(StageCounter.BAD_RECORDS).increment(bad);
+			context.getCounter(StageCounter.RATINGS).increment(ratings);
+		}
+
+		// 输出正在合并的用户的评分向量
+		private void flush(Context context) throws IOException, InterruptedException {
+			if (currentUser < 0) {
+				return;
+			}
+			userKey.set(currentUser);
+			context.write(userKey, vector);
+		}
+
 	}
 
 	/**
 	 * 
 	 * <p>
-	 * Title: ColFilterReducer
+	 * Title: RatingVectorReducer
 	 * </p>
 	 * <p>
-	 * Description: Reducer类
+	 * Description: 评分向量作业Reducer类，将同一用户分散在多行的评分合并为一个向量
 	 * </p>
 	 * 
 	 * @author Gu Yongtao
-	 * @date 2018年12月18日
+	 * @date 2026年10月18日
 	 */
-	public static class ColFilterReducer extends Reducer<Text, Text, Text, Text> {
+	public static class RatingVectorReducer
+			extends Reducer<IntWritable, RatingVectorWritable, IntWritable, RatingVectorWritable> {
+
+		// 输出对象复用
+		private final RatingVectorWritable vector = new RatingVectorWritable();
 
 		@Override
-		protected void reduce(Text key, Iterable<Text> values, Context context)
+		protected void reduce(IntWritable key, Iterable<RatingVectorWritable> values, Context context)
 				throws IOException, InterruptedException {
-			System.out.println("----- Start Reducer -----");
-			/**
-			 * context输出，输出每位用户的推荐电影
-			 */
-			// 根据userSimilarityMap计算总的相似度
-			if (firstRun++ == 0) {
-				System.out.println("Calculate all similarity:");
-				calculateUserSimilarityAll();
-				printfArray(userSimilarityAll);
-			}
-
-			// 通过key用户名，查找总的相似度二维数组，通过找出两个最相似的用户（相似度值最小），推荐其电影
-			// 分割key为 ：用户下标 用户名
-			String idUser = key.toString();
-			int index = idUser.indexOf("&");
-			int id = Integer.parseInt(idUser.substring(0, index));
-			String user = idUser.substring(index + 1);
-
-			// 查找相似用户数
-			int similarityCounts = (userCounts*1)/4;	// 用户总数的1/4
-			// 第一行表示用户ID，第二行表示用户姓名
-			String[][] similarityUsers = new String[2][similarityCounts];
-			for (int i = 0; i < similarityCounts; i++) {
-				Double temp = 0.0;
-				// 获取相似用户下标，并通过下标获取用户名
-				for (int j = 0; j < userCounts; j++) {
-					// 因为userSimilarityAll的行列顺序与users相对应, 所以 j = users中的用户ID
-					// 第一个用户
-					if (i == 0) {
-						if (userSimilarityAll[id][j] >= temp) {
-							// 第一行用户ID
-							similarityUsers[0][i] = "" + j;
-							// 第二行用户姓名
-							similarityUsers[1][i] = getSimilarityUserName(j);
-							temp = userSimilarityAll[id][j];
-						}
-					}
-					// 第二个及以后的用户
-					/*
-					 * 判断条件是为了避免多种状况
-					 * 条件1,2是避免出现相同最小值但没有取到
-					 * 条件3是避免出现相同值时取到同一用户
-					 */
-					else if (userSimilarityAll[id][j] >= temp
-							&& userSimilarityAll[id][j] <= userSimilarityAll[id][Integer.parseInt(similarityUsers[0][i-1])]
-							&& j != Integer.parseInt(similarityUsers[0][i-1])) {
-						// 第一行用户ID
-						similarityUsers[0][i] = "" + j;
-						// 第二行用户姓名
-						similarityUsers[1][i] = getSimilarityUserName(j);
-						temp = userSimilarityAll[id][j];
-					}
-				}
+			vector.clear(key.get());
+			for (RatingVectorWritable value : values) {
+				vector.addAll(value);
 			}
-			// 控制台输出信息
-			System.out.print("User:  " + user + "  <===>  Similarity user: ");
-			// 获取相似用户对所有电影的评分
-			// key=用户ID，value=mape类型的电影名，评分
-			Map<Integer, Map<String, String>> simiUserMovieScoreList = new HashMap<Integer, Map<String,String>>();
-			Map<String, String> userMovieScoreMap = null;
-			// 便利相似用户数组，获取其对所有电影的评分
-			for (int i = 0; i < similarityCounts; i++) {
-				System.out.print(similarityUsers[1][i] +", ");	// 控制台输出
-				userMovieScoreMap = usersInfo.get(similarityUsers[1][i]);	// 电影-评分
-				simiUserMovieScoreList.put(Integer.parseInt(similarityUsers[0][i]), userMovieScoreMap);	// key=用户ID，value=电影-评分
-			}
-			System.out.println("");
-			
+			context.write(key, vector);
+		}
+	}
 
-			// 根据相似用户，将其电影评分信息计算，计算出推荐电影
-			// 按电影名计算推荐值
-			// 电影推荐值一位数组
-			Double[] movieRecommendScore = new Double[movieCounts];
-			// 初始化
-			for (int i = 0; i < movieCounts; i++) {
-				movieRecommendScore[i] = 0.0;
-			}
-			// 所有电影对该用户的电影推荐总值
-			Double recommendSum = 0.0;
+	/**
+	 * 
+	 * <p>
+	 * Title: MoviePopularityMapper
+	 * </p>
+	 * <p>
+	 * Description: 电影评分人数作业Mapper类，在任务内按电影ID累加评分（不为0.0）的人数，cleanup时输出
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class MoviePopularityMapper
+			extends Mapper<IntWritable, RatingVectorWritable, IntWritable, IntWritable> {
 
-			for (int i = 0; i < movieCounts; i++) {
-				// 该电影推荐值= 最相似用户的电影评分*与该用户的总相似度 + 第二相似用户的电影评分*与该用户的总相似度 + ......
-				for (Integer oneOfSimilarityID : simiUserMovieScoreList.keySet()) {
-					movieRecommendScore[i] += (Double.parseDouble(simiUserMovieScoreList.get(oneOfSimilarityID).get(movies[i]))
-							* userSimilarityAll[id][oneOfSimilarityID]);
-				}
-				// 所有电影对该用户的推荐总值
-				recommendSum += movieRecommendScore[i];
-			}
-			
-			// 所有电影推荐度平均值
-			Double aveRecommendScore = recommendSum / movieCounts;
-
-			// 属于推荐电影的字符串
-			String recommendMovies = "";
-			// 遍历电影列表，并判断是否属于推荐电影
-			DecimalFormat df = new DecimalFormat("#.00");	// 格式化保留两位小数
-			// 推荐电影 key=电影, value=推荐值
-			Map<String, String> movieRecomm = new HashMap<>();
-			for (int i = 0; i < movieCounts; i++) {
-				// 推荐标准：1 推荐度大于平均值； 2 该用户并未看过该电影（即评分为0.0）
-				if (movieRecommendScore[i] >= aveRecommendScore && usersInfo.get(user).get(movies[i]).equals("0.0")) {
-					// 符合推荐标准
-					movieRecomm.put(movies[i], df.format(movieRecommendScore[i]));
-				}
-			}
-			movieRecomm = sortByValueDescending(movieRecomm);
-			// 格式：电影名[推荐值]
-			for (Entry<String, String> mr : movieRecomm.entrySet()) {
-				recommendMovies += mr.getKey() +"[" + mr.getValue() + "]" + "; ";
-			}
-			// 安照 key=用户，推荐电影：电影1; 电影2; ...输出
-			System.out.println("Recommend movie: " + recommendMovies);
-			context.write(new Text(user + "\t"), new Text(recommendMovies));
-			System.out.println("-------------------------");
-		}
-
-		/**
-		 * 
-		 * @Title：getSimilarityUserName
-		 * @Description: 通过用户下标获取用户名
-		 * @Param: @param similarityUserId1
-		 * @Return: void
-		 * @Date: 2018年12月19日
-		 */
-		private String getSimilarityUserName(int userId) {
-			return users[userId];
-		}
-		
-		/**
-		 * 
-		 * @Title：calculateUserSimilarityAll
-		 * @Description: 计算用户的总相似度：将对各电影的评分的差值（5-差值-越大表示二者越相似）之和
-		 * @Param: 
-		 * @Return: void
-		 */
-		public void calculateUserSimilarityAll() {
-			// 总相似度值越小，二者越相似
-			// 总相似度赋值1000
-			// 计算总
-			userSimilarityAll = new Double[userCounts][userCounts];
-			for (String movie : userSimilarityMap.keySet()) {
-				// 创建每部电影各用户之间的相似度二维数组，并初始化
-				initArray(userSimilarityAll, 0.0);
-				// 计算
-				for (int i = 0; i < userCounts; i++) {
-					for (int j = 0; j < userCounts; j++) {
-						userSimilarityAll[i][j] += userSimilarityMap.get(movie)[i][j];
-					}
+		// 下标为电影ID
+		private int[] counts;
+		// 输出对象复用
+		private final IntWritable movieKey = new IntWritable();
+		private final IntWritable count = new IntWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			counts = new int[(int) context.getConfiguration().getLong(CONF_MOVIE_COUNTS, 0)];
+		}
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			for (int i = 0; i < value.size(); i++) {
+				if (value.score(i) != 0.0f) {
+					counts[value.movieId(i)]++;
 				}
 			}
 		}
-		
-		/**
-		 * 
-		 * @Title：sortByValueDescending
-		 * @Description: 按照Map的value值，对其降序排序
-		 * @Param: @param map
-		 * @Param: @return
-		 * @Return: Map<K,V>
-		 */
-	    public static <K, V extends Comparable<? super V>> Map<K, V> sortByValueDescending(Map<K, V> map)
-	    {
-	        List<Map.Entry<K, V>> list = new LinkedList<Map.Entry<K, V>>(map.entrySet());
-	        Collections.sort(list, new Comparator<Map.Entry<K, V>>()
-	        {
-	            @Override
-	            public int compare(Map.Entry<K, V> o1, Map.Entry<K, V> o2)
-	            {
-	                int compare = (o1.getValue()).compareTo(o2.getValue());
-	                return -compare;
-	            }
-	        });
-
-	        Map<K, V> result = new LinkedHashMap<K, V>();
-	        for (Map.Entry<K, V> entry : list) {
-	            result.put(entry.getKey(), entry.getValue());
-	        }
-	        return result;
-	    }
-	}
-
-	/**
-	 * 
-	 * @Title：initArray
-	 * @Description: 初始化二维数组
-	 * @Param: @param similarity
-	 * @Return: void
-	 * @Date: 2018年12月19日
-	 */
-	public static void initArray(Double[][] similarity, Double initNum) {
-		for (int i = 0; i < userCounts; i++) {
-			for (int j = 0; j < userCounts; j++) {
-				similarity[i][j] = initNum;
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			for (int movieId = 0; movieId < counts.length; movieId++) {
+				if (counts[movieId] > 0) {
+					movieKey.set(movieId);
+					count.set(counts[movieId]);
+					context.write(movieKey, count);
+				}
 			}
 		}
 	}
-	
+
 	/**
 	 * 
-	 * @Title：printfArray
-	 * @Description: 输出二位数组的值
-	 * @Param: @param userSimilarityAll
-	 * @Return: void
-	 */
-	private static void printfArray(Double[][] userSimilarityAll) {
-		for (int i = 0; i < userCounts; i++) {
-			for (int j = 0; j < userCounts; j++) {
-				System.out.print(userSimilarityAll[i][j] + "    ");
+	 * <p>
+	 * Title: MoviePopularityReducer
+	 * </p>
+	 * <p>
+	 * Description: 电影评分人数作业Reducer类，对各map任务的人数求和
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class MoviePopularityReducer extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+		// 输出对象复用
+		private final IntWritable sum = new IntWritable();
+
+		@Override
+		protected void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
+				throws IOException, InterruptedException {
+			int total = 0;
+			for (IntWritable value : values) {
+				total += value.get();
+			}
+			sum.set(total);
+			context.write(key, sum);
+		}
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: CoRatingPairMapper
+	 * </p>
+	 * <p>
+	 * Description: 共同评分用户对作业Mapper类，按电影ID输出各用户的评分，热门电影按用户分块后输出到各子任务
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class CoRatingPairMapper
+			extends Mapper<IntWritable, RatingVectorWritable, MovieBlockKey, FloatWritable> {
+
+		// 是否跳过未评分（0.0）的电影
+		private boolean sparse = false;
+		// 电影总数
+		private int movieCounts = 0;
+		// 相似度计算方法
+		private SimilarityMetric metric;
+		// 每块的用户数、每部电影最多的块数，见blocks
+		private int blockUsers = 0;
+		private int maxBlocks = 1;
+		// 各电影的评分人数（电影评分人数作业的结果），不需要时为null
+		private int[] popularity;
+		private int userCounts = 0;
+		// 每部电影最多抽样的用户数，0表示不限制；抽样的种子；抽样去掉的评分数，cleanup时计入计数器
+		private int cap = 0;
+		private long seed = 0;
+		private long capped = 0;
+		// 非稀疏模式下按电影ID排列的评分，各用户之间复用
+		private float[] scores = new float[16];
+		// 用户统计量，userStatistics()不为0时以USER_STATS_OUTPUT输出；IUF加权时各电影的权重，与CoRatingPairReducer相同
+		private MultipleOutputs<MovieBlockKey, FloatWritable> outputs;
+		private double[] weights;
+		private final PairStatsWritable userStats = new PairStatsWritable();
+		// 输出对象复用
+		private final MovieBlockKey movieKey = new MovieBlockKey();
+		private final FloatWritable score = new FloatWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			metric = SimilarityMetric.get(conf);
+			sparse = metric.ratedOnly() || conf.getBoolean(CONF_SPARSE_PAIRS, false);
+			movieCounts = (int) conf.getLong(CONF_MOVIE_COUNTS, 0);
+			userCounts = (int) conf.getLong(CONF_USER_COUNTS, 0);
+			blockUsers = conf.getInt(CONF_BLOCK_USERS, DEFAULT_BLOCK_USERS);
+			maxBlocks = Math.max(1, Math.min(conf.getInt(CONF_MAX_BLOCKS, DEFAULT_MAX_BLOCKS), Short.MAX_VALUE));
+			cap = conf.getInt(CONF_PAIR_CAP, 0);
+			seed = conf.getLong(CONF_PAIR_CAP_SEED, 0);
+			if (conf.get(CONF_MOVIE_POPULARITY) != null) {
+				popularity = loadMovieCounts(conf, new Path(conf.get(CONF_MOVIE_POPULARITY)), movieCounts);
+			}
+			if (metric.userStatistics() > 0) {
+				outputs = new MultipleOutputs<>(context);
+				if (conf.getBoolean(CONF_IUF, false)) {
+					weights = iufWeights(popularity, userCounts);
+				}
+			}
+		}
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			/*
+			 * context的输出格式为 key=(电影ID, 块1, 块2, 一侧, 用户ID) value=评分
+			 */
+			int userId = key.get();
+			if (outputs != null) {
+				accumulateUser(metric, value, weights, userStats);
+				outputs.write(USER_STATS_OUTPUT, key, userStats);
+			}
+			if (!sparse) {
+				mapAllMovies(userId, value, context);
+				return;
+			}
+			for (int i = 0; i < value.size(); i++) {
+				// 稀疏模式下未评分的电影不参与计算
+				if (value.score(i) == 0.0f) {
+					continue;
+				}
+				write(value.movieId(i), userId, value.score(i), context);
+			}
+		}
+
+		// 非稀疏模式下按电影ID输出全部电影，评分向量中没有列出的电影（稀疏格式的源数据）按0.0输出
+		private void mapAllMovies(int userId, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			if (scores.length < movieCounts) {
+				scores = new float[movieCounts];
+			}
+			Arrays.fill(scores, 0, movieCounts, 0.0f);
+			for (int i = 0; i < value.size(); i++) {
+				scores[value.movieId(i)] = value.score(i);
+			}
+			for (int movieId = 0; movieId < movieCounts; movieId++) {
+				write(movieId, userId, scores[movieId], context);
+			}
+		}
+
+		// 该电影输出的评分数（抽样前）：稀疏模式下为评分人数，非稀疏模式下为用户总数
+		private int count(int movieId) {
+			if (!sparse) {
+				return userCounts;
+			}
+			return popularity == null ? 0 : popularity[movieId];
+		}
+
+		// 该电影的用户分块数：（抽样后的）评分数超过blockUsers时为 评分数/blockUsers 向上取整，不超过maxBlocks
+		private int blocks(int count) {
+			if (blockUsers <= 0 || count <= blockUsers) {
+				return 1;
+			}
+			return Math.min(maxBlocks, (count - 1) / blockUsers + 1);
+		}
+
+		// 输出一条评分：评分数超过cap时只保留哈希值小于 cap/评分数 的用户，期望保留cap个；
+		// 用户所在块为 用户ID%块数，该块与每一块组成一个子任务（含与自身），共输出 块数 次
+		private void write(int movieId, int userId, float value, Context context)
+				throws IOException, InterruptedException {
+			int count = count(movieId);
+			if (cap > 0 && count > cap) {
+				if (sampleHash(seed, movieId, userId) >= (double) cap / count) {
+					capped++;
+					return;
+				}
+				count = cap;
+			}
+			score.set(value);
+			int blocks = blocks(count);
+			if (blocks == 1) {
+				movieKey.set(movieId, 0, 0, false, userId);
+				context.write(movieKey, score);
+				return;
+			}
+			int block = userId % blocks;
+			for (int other = 0; other < blocks; other++) {
+				if (other < block) {
+					movieKey.set(movieId, other, block, true, userId);
+				} else {
+					movieKey.set(movieId, block, other, false, userId);
+				}
+				context.write(movieKey, score);
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(StageCounter.CAPPED_RATINGS).increment(capped);
+			if (outputs != null) {
+				outputs.close();
+			}
+		}
+
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: CoRatingPairReducer
+	 * </p>
+	 * <p>
+	 * Description: 共同评分用户对作业Reducer类，计算同一部电影（热门电影的一个子任务）下两两用户之间的相似度统计量
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class CoRatingPairReducer
+			extends Reducer<MovieBlockKey, FloatWritable, LongWritable, PairStatsWritable> {
+
+		// 相似度计算方法
+		private SimilarityMetric metric;
+		// 该分组中块1一侧用户评分的缓冲区，在不同分组之间复用
+		private final SimilarityKernel kernel = new SimilarityKernel();
+		// IUF加权时各电影的权重，不加权时为null；当前分组所属电影的权重
+		private double[] weights;
+		private double weight = 1.0;
+		// 输出的用户对统计量数，cleanup时计入计数器
+		private long pairs = 0;
+		private Sampler sampler;
+		// 输出对象复用
+		private final LongWritable pairKey = new LongWritable();
+		private final PairStatsWritable stats = new PairStatsWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			metric = SimilarityMetric.get(conf);
+			sampler = new Sampler(conf, LOG);
+			if (conf.getBoolean(CONF_IUF, false)) {
+				int movieCounts = (int) conf.getLong(CONF_MOVIE_COUNTS, 0);
+				weights = iufWeights(loadMovieCounts(conf, new Path(conf.get(CONF_MOVIE_POPULARITY)), movieCounts),
+						(int) conf.getLong(CONF_USER_COUNTS, 0));
+			}
+		}
+
+		@Override
+		protected void reduce(MovieBlockKey key, Iterable<FloatWritable> values, Context context)
+				throws IOException, InterruptedException {
+			/**
+			 * context的输出格式为 用户ID对 该电影下的相似度统计量
+			 */
+			// 评分按（一侧、用户ID）排序，遍历时Hadoop更新key中的用户ID；value对象被复用，需要取出评分保存
+			kernel.clear();
+			if (weights != null) {
+				weight = weights[key.getMovieId()];
+			}
+			if (key.isDiagonal()) {
+				// 块内：缓存全部评分后两两计算
+				for (FloatWritable score : values) {
+					kernel.add(key.getUserId(), score.get());
+				}
+				int num = kernel.size();
+				for (int i = 0; i < num; i++) {
+					for (int j = i + 1; j < num; j++) {
+						write(kernel.userId(i), kernel.score(i), kernel.userId(j), kernel.score(j), context);
+					}
+				}
+			} else {
+				// 块之间：只缓存块1一侧，块2一侧的评分逐条与之计算
+				for (FloatWritable score : values) {
+					if (!key.isSecondSide()) {
+						kernel.add(key.getUserId(), score.get());
+						continue;
+					}
+					int user2 = key.getUserId();
+					float score2 = score.get();
+					for (int i = 0; i < kernel.size(); i++) {
+						write(kernel.userId(i), kernel.score(i), user2, score2, context);
+					}
+				}
+			}
+			if (sampler.sample()) {
+				LOG.debug("pairs movie " + key.getMovieId() + " blocks " + key.getFirstBlock() + "-"
+						+ key.getSecondBlock() + ": " + pairs + " pairs so far");
+			}
+		}
+
+		// 输出一个用户对在该电影下的统计量
+		private void write(int user1, float score1, int user2, float score2, Context context)
+				throws IOException, InterruptedException {
+			if (user1 == user2) { // 同一用户不计算相似度
+				return;
+			}
+			pairKey.set(pairId(user1, user2));
+			stats.clear(metric.statistics());
+			// 统计量中的评分顺序与用户对中的用户顺序一致（ID较小的在前）
+			if (user1 < user2) {
+				metric.accumulate(stats.get(), score1, score2);
+			} else {
+				metric.accumulate(stats.get(), score2, score1);
+			}
+			if (weights != null) {
+				double[] values = stats.get();
+				for (int i = 0; i < metric.statistics(); i++) {
+					values[i] *= weight;
+				}
+			}
+			context.write(pairKey, stats);
+			pairs++;
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(StageCounter.CO_RATING_PAIRS).increment(pairs);
+		}
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: PairStatsCombiner
+	 * </p>
+	 * <p>
+	 * Description: 用户相似度作业Combiner类，在map端预先对同一用户对的统计量逐项求和
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class PairStatsCombiner
+			extends Reducer<LongWritable, PairStatsWritable, LongWritable, PairStatsWritable> {
+
+		// 输出对象复用
+		private final PairStatsWritable sum = new PairStatsWritable();
+
+		@Override
+		protected void reduce(LongWritable key, Iterable<PairStatsWritable> values, Context context)
+				throws IOException, InterruptedException {
+			boolean first = true;
+			for (PairStatsWritable value : values) {
+				if (first) {
+					sum.clear(value.size());
+					first = false;
+				}
+				sum.add(value);
+			}
+			context.write(key, sum);
+		}
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: SimilarityReducer
+	 * </p>
+	 * <p>
+	 * Description: 用户相似度作业Reducer类，计算用户对的总相似度并按两个方向输出
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class SimilarityReducer
+			extends Reducer<LongWritable, PairStatsWritable, IntWritable, NeighbourWritable> {
+
+		// 相似度计算方法
+		private SimilarityMetric metric;
+		// 各用户的统计量，下标为 用户ID×userStatistics()，不需要时为null
+		private double[] usersStats;
+		private double[] user1Stats;
+		private double[] user2Stats;
+		// 用户对统计量之和以PAIR_STATS_OUTPUT输出，供增量更新使用
+		protected MultipleOutputs<IntWritable, NeighbourWritable> outputs;
+		// 各电影统计量之和
+		private final PairStatsWritable sum = new PairStatsWritable();
+		// 计算的用户对相似度数，cleanup时计入计数器
+		private long similarities = 0;
+		// 输出对象复用
+		private final IntWritable userKey = new IntWritable();
+		private final NeighbourWritable neighbour = new NeighbourWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			metric = SimilarityMetric.get(conf);
+			int size = metric.userStatistics();
+			if (size > 0) {
+				usersStats = loadUserStats(conf, new Path(conf.get(CONF_USER_STATS)),
+						(int) conf.getLong(CONF_USER_COUNTS, 0), size);
+				user1Stats = new double[size];
+				user2Stats = new double[size];
+			}
+			outputs = new MultipleOutputs<>(context);
+		}
+
+		@Override
+		protected void reduce(LongWritable key, Iterable<PairStatsWritable> values, Context context)
+				throws IOException, InterruptedException {
+			// 总相似度：legacy方法下为对各电影的评分的差值（5-差值-越大表示二者越相似）之和
+			sum.clear(metric.statistics());
+			for (PairStatsWritable value : values) {
+				sum.add(value);
+			}
+			outputs.write(PAIR_STATS_OUTPUT, key, sum);
+
+			int user1 = pairFirst(key.get());
+			int user2 = pairSecond(key.get());
+			if (usersStats != null) {
+				System.arraycopy(usersStats, user1 * user1Stats.length, user1Stats, 0, user1Stats.length);
+				System.arraycopy(usersStats, user2 * user2Stats.length, user2Stats, 0, user2Stats.length);
+			}
+			double similarityAll = metric.finish(sum.get(), user1Stats, user2Stats);
+			similarities++;
+
+			userKey.set(user1);
+			neighbour.set(user2, similarityAll);
+			context.write(userKey, neighbour);
+			userKey.set(user2);
+			neighbour.set(user1, similarityAll);
+			context.write(userKey, neighbour);
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			outputs.close();
+			context.getCounter(StageCounter.SIMILARITY_OPS).increment(similarities);
+		}
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: NeighbourReducer
+	 * </p>
+	 * <p>
+	 * Description: 相似用户作业Reducer类，找出与用户最相似的K个用户
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class NeighbourReducer extends Reducer<IntWritable, NeighbourWritable, IntWritable, NeighbourWritable> {
+
+		// 最相似的K个用户，在各key之间复用
+		private TopKHeap topK;
+		// 下标为相似用户ID，值为最近一次出现该相似用户的用户ID，用于去重
+		private int[] lastUser = new int[0];
+		// 用户数与选出相似用户的耗时，cleanup时计入计数器
+		private long users = 0;
+		private long nanos = 0;
+		// 输出对象复用
+		private final NeighbourWritable neighbour = new NeighbourWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			topK = new TopKHeap(neighbourCounts(context.getConfiguration()));
+			lastUser = new int[(int) context.getConfiguration().getLong(CONF_USER_COUNTS, 0)];
+			Arrays.fill(lastUser, -1);
+		}
+
+		@Override
+		protected void reduce(IntWritable key, Iterable<NeighbourWritable> values, Context context)
+				throws IOException, InterruptedException {
+			// 精确计算时每个用户对只输出一次；LSH中同一用户对在多个桶中同桶时重复输出（相似度相同），只取第一条
+			long start = System.nanoTime();
+			topK.clear();
+			for (NeighbourWritable value : values) {
+				int neighbourId = value.getUserId();
+				if (neighbourId >= lastUser.length) {
+					int length = lastUser.length;
+					lastUser = Arrays.copyOf(lastUser, Math.max(neighbourId + 1, length * 2));
+					Arrays.fill(lastUser, length, lastUser.length, -1);
+				}
+				if (lastUser[neighbourId] == key.get()) {
+					continue;
+				}
+				lastUser[neighbourId] = key.get();
+				topK.offer(neighbourId, value.getSimilarity());
+			}
+			topK.sortDescending();
+			nanos += System.nanoTime() - start;
+			users++;
+
+			// 每个相似用户输出一条：key=用户ID，value=(相似用户ID, 总相似度)
+			for (int i = 0; i < topK.size(); i++) {
+				neighbour.set(topK.id(i), topK.value(i));
+				context.write(key, neighbour);
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(StageCounter.TOP_K_USERS).increment(users);
+			context.getCounter(StageCounter.TOP_K_MILLIS).increment(nanos / 1000000);
+		}
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: NeighbourJoinMapper
+	 * </p>
+	 * <p>
+	 * Description: 评分关联作业Mapper类，按相似用户输出 (目标用户ID, 总相似度)
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class NeighbourJoinMapper extends Mapper<IntWritable, NeighbourWritable, IntWritable, JoinWritable> {
+
+		// 输出对象复用
+		private final IntWritable userKey = new IntWritable();
+		private final NeighbourWritable target = new NeighbourWritable();
+		private final JoinWritable join = new JoinWritable(target);
+
+		@Override
+		protected void map(IntWritable key, NeighbourWritable value, Context context)
+				throws IOException, InterruptedException {
+			// key=相似用户ID value=(目标用户ID, 总相似度)
+			userKey.set(value.getUserId());
+			target.set(key.get(), value.getSimilarity());
+			context.write(userKey, join);
+		}
+
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: RatingJoinMapper
+	 * </p>
+	 * <p>
+	 * Description: 评分关联作业Mapper类，按用户ID输出其评分向量
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class RatingJoinMapper extends Mapper<IntWritable, RatingVectorWritable, IntWritable, JoinWritable> {
+
+		// 输出对象复用
+		private final JoinWritable join = new JoinWritable();
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			join.set(value);
+			context.write(key, join);
+		}
+
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: ScoringJoinReducer
+	 * </p>
+	 * <p>
+	 * Description: 评分关联作业Reducer类，将相似用户的评分乘以总相似度后发送给目标用户
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class ScoringJoinReducer extends Reducer<IntWritable, JoinWritable, IntWritable, RatingVectorWritable> {
+
+		// 相似用户的评分向量
+		private final RatingVectorWritable movieAndScores = new RatingVectorWritable();
+		// 加权后的评分向量，用户ID仍为相似用户，推荐作业据此区分目标用户自己的评分
+		private final RatingVectorWritable contribution = new RatingVectorWritable();
+		// 评分关联的耗时（含读取输入），cleanup时计入计数器
+		private long nanos = 0;
+		// 以该用户为相似用户的目标用户及总相似度，各key之间复用，容量不足时按2倍扩容
+		private int[] targetUsers = new int[16];
+		private double[] targetSimilarities = new double[16];
+		// 输出对象复用
+		private final IntWritable targetKey = new IntWritable();
+
+		@Override
+		protected void reduce(IntWritable key, Iterable<JoinWritable> values, Context context)
+				throws IOException, InterruptedException {
+			long start = System.nanoTime();
+			try {
+				join(key, values, context);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(StageCounter.SCORING_MILLIS).increment(nanos / 1000000);
+		}
+
+		// 按相似用户关联其评分向量，加权后发送给各目标用户
+		private void join(IntWritable key, Iterable<JoinWritable> values, Context context)
+				throws IOException, InterruptedException {
+			boolean hasRatings = false;
+			movieAndScores.clear(key.get());
+			int targetCounts = 0;
+			for (JoinWritable value : values) {
+				if (value.get() instanceof RatingVectorWritable) {
+					movieAndScores.addAll((RatingVectorWritable) value.get());
+					hasRatings = true;
+				} else {
+					NeighbourWritable target = (NeighbourWritable) value.get();
+					if (targetCounts == targetUsers.length) {
+						targetUsers = Arrays.copyOf(targetUsers, targetCounts * 2);
+						targetSimilarities = Arrays.copyOf(targetSimilarities, targetCounts * 2);
+					}
+					targetUsers[targetCounts] = target.getUserId();
+					targetSimilarities[targetCounts] = target.getSimilarity();
+					targetCounts++;
+				}
+			}
+			if (!hasRatings || targetCounts == 0) {
+				return;
+			}
+
+			for (int t = 0; t < targetCounts; t++) {
+				// 相似用户评分×总相似度
+				contribution.clear(key.get());
+				for (int i = 0; i < movieAndScores.size(); i++) {
+					contribution.add(movieAndScores.movieId(i),
+							(float) (movieAndScores.score(i) * targetSimilarities[t]));
+				}
+				targetKey.set(targetUsers[t]);
+				context.write(targetKey, contribution);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: RecommendReducer
+	 * </p>
+	 * <p>
+	 * Description: 推荐作业Reducer类
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class RecommendReducer extends Reducer<IntWritable, RatingVectorWritable, Text, Text> {
+
+		// 电影总数
+		private int movieCounts = 0;
+		private NameDictionary users;
+		private NameDictionary movies;
+		// 电影推荐值，下标为电影ID，各用户之间复用
+		private double[] movieRecommendScore;
+		// 目标用户是否已评分，下标为电影ID
+		private boolean[] rated;
+		// 推荐值最高的N部电影，各用户之间复用
+		private TopKHeap topN;
+		// 格式化保留两位小数
+		private final DecimalFormat df = new DecimalFormat("#.00");
+		// 推荐的用户数与耗时，cleanup时计入计数器
+		private long scored = 0;
+		private long nanos = 0;
+		private Sampler sampler;
+		// 输出对象复用
+		private final StringBuilder recommendMovies = new StringBuilder();
+		private final Text userName = new Text();
+		private final Text recommendText = new Text();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			sampler = new Sampler(context.getConfiguration(), LOG);
+			movieCounts = (int) context.getConfiguration().getLong(CONF_MOVIE_COUNTS, 0);
+			users = NameDictionary.load(new File(USERS_DICT));
+			movies = NameDictionary.load(new File(MOVIES_DICT));
+			movieRecommendScore = new double[movieCounts];
+			rated = new boolean[movieCounts];
+			int recommendCounts = context.getConfiguration().getInt(CONF_RECOMMENDATIONS, -1);
+			topN = new TopKHeap(recommendCounts < 0 ? movieCounts : Math.min(recommendCounts, movieCounts));
+		}
+
+		@Override
+		protected void reduce(IntWritable key, Iterable<RatingVectorWritable> values, Context context)
+				throws IOException, InterruptedException {
+			/**
+			 * context输出，输出每位用户的推荐电影
+			 */
+			if (movieCounts == 0) {
+				return;
+			}
+			long start = System.nanoTime();
+			int userId = key.get();
+			Arrays.fill(movieRecommendScore, 0.0);
+			Arrays.fill(rated, false);
+			// 所有电影对该用户的电影推荐总值
+			double recommendSum = 0.0;
+
+			for (RatingVectorWritable value : values) {
+				// 目标用户自己的评分
+				if (value.getUserId() == userId) {
+					for (int i = 0; i < value.size(); i++) {
+						if (value.score(i) != 0.0f) {
+							rated[value.movieId(i)] = true;
+						}
+					}
+					continue;
+				}
+				// 该电影推荐值= 最相似用户的电影评分*与该用户的总相似度 + 第二相似用户的电影评分*与该用户的总相似度 + ......
+				for (int i = 0; i < value.size(); i++) {
+					movieRecommendScore[value.movieId(i)] += value.score(i);
+					// 所有电影对该用户的推荐总值
+					recommendSum += value.score(i);
+				}
+			}
+
+			selectRecommendations(movieRecommendScore, rated, recommendSum, movieCounts, topN);
+			// 格式：电影名[推荐值]，只格式化输出的N部电影
+			recommendMovies.setLength(0);
+			for (int i = 0; i < topN.size(); i++) {
+				recommendMovies.append(movies.name(topN.id(i))).append('[').append(df.format(topN.value(i)))
+						.append("]; ");
+			}
+			// 安照 key=用户，推荐电影：电影1; 电影2; ...输出
+			if (sampler.sample()) {
+				LOG.debug("recommend " + users.name(userId) + ": " + recommendMovies);
+			}
+			userName.set(users.name(userId) + "\t");
+			recommendText.set(recommendMovies.toString());
+			context.write(userName, recommendText);
+			nanos += System.nanoTime() - start;
+			scored++;
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(StageCounter.SCORED_USERS).increment(scored);
+			context.getCounter(StageCounter.SCORING_MILLIS).increment(nanos / 1000000);
+		}
+	}
+
+	/**
+	 * 
+	 * <p>
+	 * Title: MapSideRecommendMapper
+	 * </p>
+	 * <p>
+	 * Description: map端推荐作业Mapper类，由映射的评分文件、相似用户模型为输入的每个用户计算推荐，输出与推荐作业相同；
+	 * 每BATCH_USERS个用户调用一次批量查询，共享相似用户的评分读取
+	 * </p>
+	 * 
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class MapSideRecommendMapper extends Mapper<IntWritable, RatingVectorWritable, Text, Text> {
+		// 每次批量查询的用户数
+		private static final int BATCH_USERS = 1024;
+
+		private RecommendEngine engine;
+		private NameDictionary users;
+		// 等待批量查询的用户ID，及复用的结果
+		private final int[] pending = new int[BATCH_USERS];
+		private int pendingCounts = 0;
+		private final RecommendEngine.Batch batch = new RecommendEngine.Batch();
+		// 推荐的用户数与耗时，cleanup时计入计数器
+		private long scored = 0;
+		private long nanos = 0;
+		private Sampler sampler;
+		// 输出对象复用
+		private final Text userName = new Text();
+		private final Text recommendText = new Text();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			sampler = new Sampler(context.getConfiguration(), LOG);
+			users = NameDictionary.load(new File(USERS_DICT));
+			// 同一节点上的任务映射同一份本地化的文件，共享页缓存
+			engine = new RecommendEngine(users, NameDictionary.load(new File(MOVIES_DICT)),
+					NeighbourModel.open(new File(MODEL_FILE)), RatingStore.open(new File(RATINGS_FILE)),
+					context.getConfiguration().getInt(CONF_RECOMMENDATIONS, -1));
+		}
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			if (engine.movieCounts() == 0) {
+				return;
+			}
+			pending[pendingCounts++] = key.get();
+			if (pendingCounts == BATCH_USERS) {
+				flush(context);
+			}
+		}
+
+		// 批量计算等待中的用户的推荐，按输入顺序输出
+		private void flush(Context context) throws IOException, InterruptedException {
+			long start = System.nanoTime();
+			engine.recommend(pending, 0, pendingCounts, -1, batch);
+			for (int i = 0; i < batch.size(); i++) {
+				String recommendMovies = engine.format(batch, i);
+				if (sampler.sample()) {
+					LOG.debug("recommend " + users.name(batch.userId(i)) + ": " + recommendMovies);
+				}
+				userName.set(users.name(batch.userId(i)) + "\t");
+				recommendText.set(recommendMovies);
+				context.write(userName, recommendText);
+			}
+			nanos += System.nanoTime() - start;
+			scored += pendingCounts;
+			pendingCounts = 0;
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			if (pendingCounts > 0) {
+				flush(context);
+			}
+			context.getCounter(StageCounter.SCORED_USERS).increment(scored);
+			context.getCounter(StageCounter.SCORING_MILLIS).increment(nanos / 1000000);
+		}
+	}
+
+	/**
+	 * 
+	 * @Title：selectRecommendations
+	 * @Description: 遍历电影列表，符合推荐标准的电影按推荐值选出前N个，只比较double，不做格式化
+	 * 		推荐标准：1 推荐度不小于所有电影推荐度的平均值； 2 该用户并未看过该电影（即评分为0.0）
+	 * @Param: @param movieRecommendScore 电影推荐值，下标为电影ID
+	 * @Param: @param rated 目标用户是否已评分，下标为电影ID
+	 * @Param: @param recommendSum 所有电影对该用户的推荐总值
+	 * @Param: @param movieCounts
+	 * @Param: @param topN 结果，按推荐值从高到低排列
+	 * @Return: void
+	 */
+	public static void selectRecommendations(double[] movieRecommendScore, boolean[] rated, double recommendSum,
+			int movieCounts, TopKHeap topN) {
+		// 所有电影推荐度平均值
+		double aveRecommendScore = recommendSum / movieCounts;
+		topN.clear();
+		for (int i = 0; i < movieCounts; i++) {
+			if (movieRecommendScore[i] >= aveRecommendScore && !rated[i]) {
+				// 符合推荐标准
+				topN.offer(i, movieRecommendScore[i]);
+			}
+		}
+		topN.sortDescending();
+	}
+
+	/**
+	 * 
+	 * @Title：pairId
+	 * @Description: 将两个用户ID拼成一个long作为用户对的key，较小的ID在高32位，与顺序无关
+	 * @Param: @param user1
+	 * @Param: @param user2
+	 * @Return: long
+	 */
+	public static long pairId(int user1, int user2) {
+		int first = Math.min(user1, user2);
+		int second = Math.max(user1, user2);
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * 
+	 * @Title：pairFirst
+	 * @Description: 用户对中较小的用户ID
+	 * @Param: @param pairId
+	 * @Return: int
+	 */
+	public static int pairFirst(long pairId) {
+		return (int) (pairId >>> 32);
+	}
+
+	/**
+	 * 
+	 * @Title：pairSecond
+	 * @Description: 用户对中较大的用户ID
+	 * @Param: @param pairId
+	 * @Return: int
+	 */
+	public static int pairSecond(long pairId) {
+		return (int) pairId;
+	}
+
+	/**
+	 * 
+	 * @Title：neighbourCounts
+	 * @Description: 每个用户取的相似用户数K：优先读取colfilter.neighbours.k，未配置时为 用户总数/4
+	 * @Param: @param conf
+	 * @Return: int
+	 */
+	public static int neighbourCounts(Configuration conf) {
+		int k = conf.getInt(CONF_NEIGHBOURS, -1);
+		if (k < 0) {
+			k = (int) (conf.getLong(CONF_USER_COUNTS, 0) / 4); // 用户总数的1/4
+		}
+		return k;
+	}
+
+	/**
+	 * 
+	 * @Title：accumulateUser
+	 * @Description: 用一个用户的完整评分向量计算其统计量，未评分（0.0）的电影不参与
+	 * @Param: @param metric
+	 * @Param: @param vector
+	 * @Param: @param stats 结果
+	 * @Return: void
+	 */
+	public static void accumulateUser(SimilarityMetric metric, RatingVectorWritable vector, PairStatsWritable stats) {
+		accumulateUser(metric, vector, null, stats);
+	}
+
+	/**
+	 * 
+	 * @Title：accumulateUser
+	 * @Description: 用一个用户的完整评分向量计算其统计量，每部电影的部分乘以该电影的权重（统计量都是各电影部分之和）
+	 * @Param: @param metric
+	 * @Param: @param vector
+	 * @Param: @param weights 下标为电影ID，为null时不加权
+	 * @Param: @param stats 结果
+	 * @Return: void
+	 */
+	static void accumulateUser(SimilarityMetric metric, RatingVectorWritable vector, double[] weights,
+			PairStatsWritable stats) {
+		int size = metric.userStatistics();
+		stats.clear(size);
+		double[] values = stats.get();
+		double[] movie = weights == null ? null : new double[size];
+		for (int i = 0; i < vector.size(); i++) {
+			if (vector.score(i) == 0.0f) {
+				continue;
+			}
+			if (movie == null) {
+				metric.accumulateUser(values, vector.score(i));
+				continue;
+			}
+			Arrays.fill(movie, 0.0);
+			metric.accumulateUser(movie, vector.score(i));
+			double weight = weights[vector.movieId(i)];
+			for (int k = 0; k < size; k++) {
+				values[k] += movie[k] * weight;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @Title：loadUserStats
+	 * @Description: 读取用户统计量（SequenceFile，key=用户ID，value=PairStatsWritable），没有评分的用户统计量为0
+	 * @Param: @param conf
+	 * @Param: @param pattern 文件路径，可以包含通配符，如 pairs/userstats-m-*
+	 * @Param: @param userCounts
+	 * @Param: @param size 每个用户的统计量个数
+	 * @Return: double[] 下标为 用户ID×size
+	 */
+	static double[] loadUserStats(Configuration conf, Path pattern, int userCounts, int size) throws IOException {
+		double[] stats = new double[userCounts * size];
+		FileSystem fileSystem = pattern.getFileSystem(conf);
+		FileStatus[] files = fileSystem.globStatus(pattern);
+		if (files == null) {
+			return stats;
+		}
+		IntWritable key = new IntWritable();
+		PairStatsWritable value = new PairStatsWritable();
+		for (FileStatus file : files) {
+			try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()))) {
+				while (reader.next(key, value)) {
+					System.arraycopy(value.get(), 0, stats, key.get() * size, size);
+				}
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * 
+	 * @Title：loadMovieCounts
+	 * @Description: 读取电影评分人数作业的输出，没有出现的电影为0
+	 * @Param: @param conf
+	 * @Param: @param pattern 文件路径，可含通配符
+	 * @Param: @param movieCounts 电影总数
+	 * @Return: int[] 下标为电影ID
+	 */
+	static int[] loadMovieCounts(Configuration conf, Path pattern, int movieCounts) throws IOException {
+		int[] counts = new int[movieCounts];
+		FileSystem fileSystem = pattern.getFileSystem(conf);
+		FileStatus[] files = fileSystem.globStatus(pattern);
+		if (files == null) {
+			return counts;
+		}
+		IntWritable key = new IntWritable();
+		IntWritable value = new IntWritable();
+		for (FileStatus file : files) {
+			try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()))) {
+				while (reader.next(key, value)) {
+					counts[key.get()] = value.get();
+				}
 			}
-			System.out.println("");
 		}
+		return counts;
 	}
 
 }
@@ -0,0 +1,1035 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.DictionaryCombiner;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.DictionaryCounter;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.DictionaryMapper;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.NeighbourReducer;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.PairStatsCombiner;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.RatingVectorMapper;
+import com.gyt.collaborativeFiltering.CollaborativeFilteringByUser.RatingVectorReducer;
+import com.gyt.collaborativeFiltering.StageMetrics.StageCounter;
+
+/**
+ * @FileName: IncrementalUpdate.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 基于用户的协同过滤的增量更新：只根据新增、修改的评分更新相似度与相似用户，不重新计算全部用户对
+ *
+ ********************************************************************************************************************
+ * 代码分析：
+ * 	CollaborativeFilteringByUser 在中间目录中保存了字典、评分向量、用户对统计量之和（similarity/pairstats-r-xxxxx）、相似用户。
+ * 	用户对统计量都是共同评分电影上原始评分的和（评分之积、共同评分数等），评分变化时只需加上变化的部分；
+ * 	需要用户统计量的方法（如cosine的模长）由更新后的评分向量重新求出，只是线性扫描。
+ * 	因此只在评分有变化的电影上生成用户对，代价与 变化的评分数×该电影的评价人数 成正比，而不是与用户数的平方成正比。
+ *
+ * 	只支持只统计共同评分电影的模式：legacy方法需要设置colfilter.pairs.sparse=true，其他方法总是满足。
+ * 	不支持共同评分用户对的抽样（colfilter.pairs.cap）与IUF加权（colfilter.pairs.iuf）；
+ * 	也不支持LSH（colfilter.lsh）：LSH只计算候选用户对，不输出用户对统计量之和，没有可以累加变化的基础。
+ * 	增量数据的格式与源数据相同（colfilter.input.format），每条为新增或修改后的评分；评分0.0的记录忽略，删除评分需要完整重新计算。
+ * 	新出现的用户、电影在原字典之后分配ID，因此相似度相等时的先后顺序可能与完整重新计算不同。
+ *
+ * 	startIncremental(configuration, inputOutputPath)
+ * 		中间目录与 CollaborativeFilteringByUser 相同，新结果先写入 xxx.next 目录，全部成功后替换原目录：
+ * 		0) 字典 dictionary.next (DictionaryMapper、DictionaryCombiner、DictionaryExtendReducer)
+ * 			原字典中已有的名称保持原ID，新名称依次分配新ID
+ * 		1) 增量评分向量 delta (RatingVectorMapper、RatingVectorReducer)
+ * 		2) 合并评分 ratings.next (DeltaVectorMapper、MergeRatingsReducer)
+ * 			输入：原评分向量、增量评分向量
+ * 			输出：合并后的评分向量；以及每个实际变化的评分 changes：key=电影ID，value=(用户ID, 原评分, 新评分)
+ * 		3) 用户对统计量的变化 deltapairs (ChangedMovieMapper、ChangeMapper、DeltaPairReducer)
+ * 			输入：合并后的评分向量中评分有变化的电影，以及变化的评分
+ * 			输出：每个包含评分变化用户的共同评分用户对，统计量的变化 = 新评分的统计量 - 原评分的统计量
+ * 				map端同时输出全部用户的新用户统计量 userstats-m-xxxxx
+ * 		4) 用户对统计量之和 similarity.next (PairStatsCombiner、PairStatsSumReducer)
+ * 			输入：原用户对统计量之和、统计量的变化，相加后得到新的统计量之和 pairstats-r-xxxxx，不计算相似度
+ * 			另外输出受影响的用户 affected：评分有变化的用户，以及与其组成用户对的用户
+ * 		5) 相似用户 neighbours.next (AffectedPairMapper、UnaffectedRowMapper、NeighbourReducer)
+ * 			只计算至少一方受影响的用户对的相似度，并只为受影响的用户重新选出K个相似用户，其他用户沿用原相似用户
+ * 		提交：先原子地写出提交标记 incremental.commit（记录用户数、电影数），再用各 xxx.next 目录替换原目录，
+ * 			重新写出相似用户模型 neighbours.model 与合并后的评分文件 ratings.store，最后删除提交标记。
+ * 			中途失败时标记仍在，下一次运行先按标记完成替换，不会留下新旧混合的中间目录
+ * 		6) 评分关联、推荐：同 CollaborativeFilteringByUser
+ *
+ ***********************************************************************************************************************
+ * @Date: 2026年10月18日
+ */
+public class IncrementalUpdate {
+	// 属性
+	// 配置项：评分变化文件的路径（可含通配符），由作业流程设置
+	public static final String CONF_CHANGES = "colfilter.incremental.changes";
+	// 配置项：受影响用户文件的路径（可含通配符），由作业流程设置
+	public static final String CONF_AFFECTED = "colfilter.incremental.affected";
+	// 配置项：是否所有用户都需要重新选出相似用户（如K随用户总数变化时），由作业流程设置
+	public static final String CONF_ALL_AFFECTED = "colfilter.incremental.all";
+
+	// 中间目录
+	public static final String DELTA_DIR = "delta";
+	public static final String CHANGES_DIR = "changes";
+	public static final String DELTA_PAIRS_DIR = "deltapairs";
+	// 新结果目录的后缀
+	public static final String NEXT_SUFFIX = ".next";
+	// 提交标记：存在时各 xxx.next 目录都已就绪，需要替换原目录
+	public static final String COMMIT_FILE = "incremental.commit";
+
+	// 合并评分作业输出的评分变化、相似度作业输出的受影响用户
+	public static final String CHANGES_OUTPUT = "changes";
+	public static final String AFFECTED_OUTPUT = "affected";
+
+	// 增量评分向量的用户ID，合并评分作业据此区分原评分向量与增量评分向量
+	public static final int DELTA_USER = -1;
+
+	// 增量更新计数器：新用户数、新电影数、变化的评分数、评分有变化的用户数
+	public static enum IncrementalCounter {
+		NEW_USERS, NEW_MOVIES, CHANGED_RATINGS, CHANGED_USERS
+	}
+
+	/**
+	 *
+	 * @Title：main
+	 * @Description: 主函数，中间目录中需已有 CollaborativeFilteringByUser 一次完整运行的结果
+	 * @Param: @param args
+	 * @Return: void
+	 */
+	public static void main(String[] args) {
+		System.out.println("start incremental mapreduce");
+		// 增量数据目录、输出路径、中间结果路径（与完整计算相同）
+		String[] inputOutputPath = { "hdfs://master:9000/data/colFilterDelta", "hdfs://master:9000/output/colFileter",
+				"hdfs://master:9000/tmp/colFilter" };
+		startIncremental(new Configuration(), inputOutputPath);
+	}
+
+	/**
+	 *
+	 * @Title：startIncremental
+	 * @Description: 依次启动字典、增量评分向量、合并评分、用户对统计量变化、用户相似度、相似用户、评分关联、推荐八个作业
+	 * @Param: configuration Hadoop配置
+	 * @Param: inputOutputPath [0]增量数据目录 [1]输出目录 [2]中间结果目录
+	 * @Return: boolean 是否全部成功
+	 */
+	static boolean startIncremental(Configuration configuration, String[] inputOutputPath) {
+		SimilarityMetric metric = SimilarityMetric.get(configuration);
+		if (!metric.ratedOnly() && !configuration.getBoolean(CollaborativeFilteringByUser.CONF_SPARSE_PAIRS, false)) {
+			System.out.println("incremental update needs colfilter.pairs.sparse=true for the legacy metric, "
+					+ "run CollaborativeFilteringByUser instead");
+			return false;
+		}
+		if (configuration.getInt(CollaborativeFilteringByUser.CONF_PAIR_CAP, 0) > 0
+				|| configuration.getBoolean(CollaborativeFilteringByUser.CONF_IUF, false)) {
+			// 抽样与IUF权重都随电影的评分人数变化，增量中无法只加上变化部分
+			System.out.println("incremental update does not support colfilter.pairs.cap or colfilter.pairs.iuf, "
+					+ "run CollaborativeFilteringByUser instead");
+			return false;
+		}
+		if (LshCandidates.enabled(configuration)) {
+			System.out.println("incremental update does not support colfilter.lsh, run CollaborativeFilteringByUser instead");
+			return false;
+		}
+
+		Path input = new Path(inputOutputPath[0]);
+		Path output = new Path(inputOutputPath[1]);
+		Path tmp = new Path(inputOutputPath[2]);
+		Path dictionary = new Path(tmp, CollaborativeFilteringByUser.DICTIONARY_DIR);
+		Path ratings = new Path(tmp, CollaborativeFilteringByUser.RATINGS_DIR);
+		Path similarity = new Path(tmp, CollaborativeFilteringByUser.SIMILARITY_DIR);
+		Path neighbours = new Path(tmp, CollaborativeFilteringByUser.NEIGHBOURS_DIR);
+		Path contributions = new Path(tmp, CollaborativeFilteringByUser.CONTRIBUTIONS_DIR);
+		Path delta = new Path(tmp, DELTA_DIR);
+		Path changes = new Path(tmp, CHANGES_DIR);
+		Path deltaPairs = new Path(tmp, DELTA_PAIRS_DIR);
+		Path dictionaryNext = next(dictionary);
+		Path ratingsNext = next(ratings);
+		Path similarityNext = next(similarity);
+		Path neighboursNext = next(neighbours);
+
+		try {
+			// 上一次增量更新在替换中间目录时中断：先完成替换
+			FileSystem fileSystem = tmp.getFileSystem(configuration);
+			if (fileSystem.exists(new Path(tmp, COMMIT_FILE))) {
+				System.out.println("finishing the interrupted incremental update in " + tmp);
+				finishCommit(configuration, tmp);
+			}
+			FileStatus[] pairStats = fileSystem
+					.globStatus(new Path(similarity, CollaborativeFilteringByUser.PAIR_STATS_OUTPUT + "-r-*"));
+			if (pairStats == null || pairStats.length == 0) {
+				// LSH的结果没有用户对统计量之和
+				System.out.println("no pair statistics in " + similarity + ", run CollaborativeFilteringByUser instead");
+				return false;
+			}
+
+			// 0. 字典：原有名称保持原ID
+			Job job = CollaborativeFilteringByUser.createJob(configuration, "colFilter-delta-dictionary",
+					dictionaryNext);
+			CollaborativeFilteringByUser.addDictionaries(job, dictionary);
+			job.setMapperClass(DictionaryMapper.class);
+			job.setCombinerClass(DictionaryCombiner.class);
+			job.setReducerClass(DictionaryExtendReducer.class);
+			job.setNumReduceTasks(1);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(NullWritable.class);
+			LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+			MultipleOutputs.addNamedOutput(job, CollaborativeFilteringByUser.USERS_OUTPUT, TextOutputFormat.class,
+					IntWritable.class, Text.class);
+			MultipleOutputs.addNamedOutput(job, CollaborativeFilteringByUser.MOVIES_OUTPUT, TextOutputFormat.class,
+					IntWritable.class, Text.class);
+			RatingFormat.get(configuration).addInputPath(job, input);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return false;
+			}
+			long userCounts = job.getCounters().findCounter(DictionaryCounter.USERS).getValue();
+			long newUsers = job.getCounters().findCounter(IncrementalCounter.NEW_USERS).getValue();
+			// 未配置K时K随用户总数变化，此时所有用户都要重新选出相似用户
+			configuration.setLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, userCounts - newUsers);
+			int previousK = CollaborativeFilteringByUser.neighbourCounts(configuration);
+			configuration.setLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, userCounts);
+			configuration.setLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS,
+					job.getCounters().findCounter(DictionaryCounter.MOVIES).getValue());
+			configuration.setBoolean(CONF_ALL_AFFECTED,
+					previousK != CollaborativeFilteringByUser.neighbourCounts(configuration));
+
+			// 1. 增量评分向量
+			job = CollaborativeFilteringByUser.createJob(configuration, "colFilter-delta-ratings", delta);
+			CollaborativeFilteringByUser.addDictionaries(job, dictionaryNext);
+			job.setMapperClass(RatingVectorMapper.class);
+			job.setReducerClass(RatingVectorReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(RatingVectorWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(RatingVectorWritable.class);
+			RatingFormat.get(configuration).addInputPath(job, input);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return false;
+			}
+
+			// 2. 合并评分
+			job = CollaborativeFilteringByUser.createJob(configuration, "colFilter-merge-ratings", ratingsNext);
+			job.setReducerClass(MergeRatingsReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(RatingVectorWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(RatingVectorWritable.class);
+			MultipleOutputs.addNamedOutput(job, CHANGES_OUTPUT, SequenceFileOutputFormat.class, IntWritable.class,
+					RatingChangeWritable.class);
+			MultipleInputs.addInputPath(job, ratings, SequenceFileInputFormat.class, Mapper.class);
+			MultipleInputs.addInputPath(job, delta, SequenceFileInputFormat.class, DeltaVectorMapper.class);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return false;
+			}
+			if (job.getCounters().findCounter(IncrementalCounter.CHANGED_RATINGS).getValue() == 0
+					&& !configuration.getBoolean(CONF_ALL_AFFECTED, false)) {
+				System.out.println("no rating changed");
+				return false;
+			}
+			// 评分变化移到单独的目录，评分向量目录中只保留评分向量
+			moveFiles(configuration, new Path(ratingsNext, CHANGES_OUTPUT + "-r-*"), changes);
+			configuration.set(CONF_CHANGES, new Path(changes, CHANGES_OUTPUT + "-r-*").toString());
+
+			// 3. 用户对统计量的变化
+			job = CollaborativeFilteringByUser.createJob(configuration, "colFilter-delta-pairs", deltaPairs);
+			job.setReducerClass(DeltaPairReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(RatingChangeWritable.class);
+			job.setOutputKeyClass(LongWritable.class);
+			job.setOutputValueClass(PairStatsWritable.class);
+			MultipleOutputs.addNamedOutput(job, CollaborativeFilteringByUser.USER_STATS_OUTPUT,
+					SequenceFileOutputFormat.class, IntWritable.class, PairStatsWritable.class);
+			MultipleInputs.addInputPath(job, new Path(ratingsNext, CollaborativeFilteringByUser.PARTS),
+					SequenceFileInputFormat.class, ChangedMovieMapper.class);
+			MultipleInputs.addInputPath(job, changes, SequenceFileInputFormat.class, ChangeMapper.class);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return false;
+			}
+			configuration.set(CollaborativeFilteringByUser.CONF_USER_STATS,
+					new Path(deltaPairs, CollaborativeFilteringByUser.USER_STATS_OUTPUT + "-m-*").toString());
+
+			// 4. 用户对统计量之和：原统计量之和加上变化
+			job = CollaborativeFilteringByUser.createJob(configuration, "colFilter-delta-pairstats", similarityNext);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(Mapper.class);
+			job.setCombinerClass(PairStatsCombiner.class);
+			job.setReducerClass(PairStatsSumReducer.class);
+			job.setMapOutputKeyClass(LongWritable.class);
+			job.setMapOutputValueClass(PairStatsWritable.class);
+			job.setOutputKeyClass(LongWritable.class);
+			job.setOutputValueClass(PairStatsWritable.class);
+			LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+			MultipleOutputs.addNamedOutput(job, CollaborativeFilteringByUser.PAIR_STATS_OUTPUT,
+					SequenceFileOutputFormat.class, LongWritable.class, PairStatsWritable.class);
+			MultipleOutputs.addNamedOutput(job, AFFECTED_OUTPUT, SequenceFileOutputFormat.class, IntWritable.class,
+					NullWritable.class);
+			FileInputFormat.addInputPath(job,
+					new Path(similarity, CollaborativeFilteringByUser.PAIR_STATS_OUTPUT + "-r-*"));
+			FileInputFormat.addInputPath(job, new Path(deltaPairs, CollaborativeFilteringByUser.PARTS));
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return false;
+			}
+			configuration.set(CONF_AFFECTED, new Path(similarityNext, AFFECTED_OUTPUT + "-r-*").toString());
+
+			// 5. 相似用户：只重新选出受影响用户的相似用户
+			job = CollaborativeFilteringByUser.createJob(configuration, "colFilter-delta-neighbours", neighboursNext);
+			job.setReducerClass(NeighbourReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(NeighbourWritable.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(NeighbourWritable.class);
+			MultipleInputs.addInputPath(job,
+					new Path(similarityNext, CollaborativeFilteringByUser.PAIR_STATS_OUTPUT + "-r-*"),
+					SequenceFileInputFormat.class, AffectedPairMapper.class);
+			MultipleInputs.addInputPath(job, neighbours, SequenceFileInputFormat.class, UnaffectedRowMapper.class);
+			if (!CollaborativeFilteringByUser.runJob(job)) {
+				return false;
+			}
+
+			// 新结果替换原目录，下一次增量更新在此基础上进行
+			commit(configuration, tmp);
+			Path model = new Path(tmp, CollaborativeFilteringByUser.MODEL_FILE);
+			Path store = new Path(tmp, CollaborativeFilteringByUser.RATINGS_FILE);
+
+			// 6. 评分关联、推荐
+			boolean success = configuration.getBoolean(CollaborativeFilteringByUser.CONF_MAP_SIDE_SCORING, false)
+					? CollaborativeFilteringByUser.startMapSideScoring(configuration, dictionary, ratings, store, model,
+							output)
+					: CollaborativeFilteringByUser.startScoring(configuration, dictionary, ratings, neighbours,
+							contributions, output);
+			if (success) {
+				System.out.println("Job success!");
+			}
+			StageMetrics.driver().write(configuration);
+			return success;
+		} catch (IOException | ClassNotFoundException | InterruptedException | URISyntaxException e1) {
+			// TODO Auto-generated catch block
+			e1.printStackTrace();
+			return false;
+		}
+	}
+
+	// 新结果目录
+	private static Path next(Path path) {
+		return new Path(path.getParent(), path.getName() + NEXT_SUFFIX);
+	}
+
+	/**
+	 *
+	 * @Title：moveFiles
+	 * @Description: 将匹配的文件移到目标目录（目标目录已存在时先删除）
+	 * @Param: @param conf
+	 * @Param: @param pattern 可含通配符
+	 * @Param: @param target
+	 * @Return: void
+	 */
+	private static void moveFiles(Configuration conf, Path pattern, Path target) throws IOException {
+		FileSystem fileSystem = target.getFileSystem(conf);
+		if (fileSystem.exists(target)) {
+			fileSystem.delete(target, true);
+		}
+		fileSystem.mkdirs(target);
+		FileStatus[] files = fileSystem.globStatus(pattern);
+		if (files == null) {
+			return;
+		}
+		for (FileStatus file : files) {
+			fileSystem.rename(file.getPath(), new Path(target, file.getPath().getName()));
+		}
+	}
+
+	/**
+	 *
+	 * @Title：commit
+	 * @Description: 提交新结果：先写临时文件再改名，原子地创建提交标记（用户数、电影数），之后由finishCommit完成替换
+	 * @Param: @param conf
+	 * @Param: @param tmp 中间结果目录
+	 * @Return: void
+	 */
+	private static void commit(Configuration conf, Path tmp) throws IOException {
+		FileSystem fileSystem = tmp.getFileSystem(conf);
+		Path marker = new Path(tmp, COMMIT_FILE);
+		Path staging = next(marker);
+		try (FSDataOutputStream out = fileSystem.create(staging, true)) {
+			out.writeLong(conf.getLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, 0));
+			out.writeLong(conf.getLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS, 0));
+		}
+		if (!fileSystem.rename(staging, marker)) {
+			throw new IOException("cannot rename " + staging + " to " + marker);
+		}
+		finishCommit(conf, tmp);
+	}
+
+	/**
+	 *
+	 * @Title：finishCommit
+	 * @Description: 按提交标记完成替换：各 xxx.next 目录替换原目录（已替换的跳过），删除增量的中间目录，
+	 * 		重新写出相似用户模型与评分文件，最后删除提交标记；每一步都可重复执行，中断后再次调用即可
+	 * @Param: @param conf 用户数、电影数由提交标记设置
+	 * @Param: @param tmp 中间结果目录
+	 * @Return: void
+	 */
+	private static void finishCommit(Configuration conf, Path tmp) throws IOException {
+		FileSystem fileSystem = tmp.getFileSystem(conf);
+		Path marker = new Path(tmp, COMMIT_FILE);
+		try (FSDataInputStream in = fileSystem.open(marker)) {
+			conf.setLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, in.readLong());
+			conf.setLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS, in.readLong());
+		}
+		Path neighbours = new Path(tmp, CollaborativeFilteringByUser.NEIGHBOURS_DIR);
+		Path ratings = new Path(tmp, CollaborativeFilteringByUser.RATINGS_DIR);
+		for (Path path : new Path[] { new Path(tmp, CollaborativeFilteringByUser.DICTIONARY_DIR), ratings,
+				new Path(tmp, CollaborativeFilteringByUser.SIMILARITY_DIR), neighbours }) {
+			if (fileSystem.exists(next(path))) {
+				replace(fileSystem, next(path), path);
+			}
+		}
+		for (String dir : new String[] { DELTA_DIR, CHANGES_DIR, DELTA_PAIRS_DIR }) {
+			fileSystem.delete(new Path(tmp, dir), true);
+		}
+		CollaborativeFilteringByUser.writeModel(conf, neighbours, new Path(tmp, CollaborativeFilteringByUser.MODEL_FILE));
+		CollaborativeFilteringByUser.writeRatingStore(conf, ratings,
+				new Path(tmp, CollaborativeFilteringByUser.RATINGS_FILE));
+		fileSystem.delete(marker, false);
+	}
+
+	// 用新结果目录替换原目录
+	private static void replace(FileSystem fileSystem, Path source, Path target) throws IOException {
+		if (fileSystem.exists(target)) {
+			fileSystem.delete(target, true);
+		}
+		if (!fileSystem.rename(source, target)) {
+			throw new IOException("cannot rename " + source + " to " + target);
+		}
+	}
+
+	/**
+	 *
+	 * @Title：loadUsers
+	 * @Description: 读取用户ID文件（SequenceFile，key=用户ID），返回各用户是否出现
+	 * @Param: @param conf
+	 * @Param: @param pattern 可含通配符
+	 * @Param: @param userCounts
+	 * @Return: boolean[] 下标为用户ID
+	 */
+	static boolean[] loadUsers(Configuration conf, Path pattern, int userCounts) throws IOException {
+		boolean[] users = new boolean[userCounts];
+		FileStatus[] files = pattern.getFileSystem(conf).globStatus(pattern);
+		if (files == null) {
+			return users;
+		}
+		IntWritable key = new IntWritable();
+		NullWritable value = NullWritable.get();
+		for (FileStatus file : files) {
+			try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()))) {
+				while (reader.next(key, value)) {
+					users[key.get()] = true;
+				}
+			}
+		}
+		return users;
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: RatingChanges
+	 * </p>
+	 * <p>
+	 * Description: 合并评分作业输出的全部评分变化：评分有变化的用户、电影，以及变化的 (用户, 电影)
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	static class RatingChanges {
+		// 下标为用户ID
+		final boolean[] users;
+		// 下标为电影ID
+		final boolean[] movies;
+		// 用户ID在高32位、电影ID在低32位
+		final Set<Long> ratings = new HashSet<>();
+
+		private RatingChanges(int userCounts, int movieCounts) {
+			users = new boolean[userCounts];
+			movies = new boolean[movieCounts];
+		}
+
+		static RatingChanges load(Configuration conf) throws IOException {
+			RatingChanges changes = new RatingChanges(
+					(int) conf.getLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, 0),
+					(int) conf.getLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS, 0));
+			Path pattern = new Path(conf.get(CONF_CHANGES));
+			FileStatus[] files = pattern.getFileSystem(conf).globStatus(pattern);
+			if (files == null) {
+				return changes;
+			}
+			IntWritable key = new IntWritable();
+			RatingChangeWritable value = new RatingChangeWritable();
+			for (FileStatus file : files) {
+				try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+						SequenceFile.Reader.file(file.getPath()))) {
+					while (reader.next(key, value)) {
+						changes.users[value.getUserId()] = true;
+						changes.movies[key.get()] = true;
+						changes.ratings.add(rating(value.getUserId(), key.get()));
+					}
+				}
+			}
+			return changes;
+		}
+
+		static long rating(int userId, int movieId) {
+			return ((long) userId << 32) | (movieId & 0xFFFFFFFFL);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: DictionaryExtendReducer
+	 * </p>
+	 * <p>
+	 * Description: 增量字典作业Reducer类，原字典中的名称保持原ID，新名称从原字典大小开始依次分配ID，输出合并后的完整字典
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class DictionaryExtendReducer extends Reducer<Text, NullWritable, IntWritable, Text> {
+
+		private MultipleOutputs<IntWritable, Text> outputs;
+		private NameDictionary users;
+		private NameDictionary movies;
+		// 新用户名、新电影名，按分配的ID排列
+		private final List<String> newUsers = new ArrayList<>();
+		private final List<String> newMovies = new ArrayList<>();
+		// 输出对象复用
+		private final IntWritable id = new IntWritable();
+		private final Text name = new Text();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			outputs = new MultipleOutputs<>(context);
+			users = NameDictionary.load(new File(CollaborativeFilteringByUser.USERS_DICT));
+			movies = NameDictionary.load(new File(CollaborativeFilteringByUser.MOVIES_DICT));
+		}
+
+		@Override
+		protected void reduce(Text key, Iterable<NullWritable> values, Context context)
+				throws IOException, InterruptedException {
+			String string = key.toString();
+			String value = string.substring(1);
+			if (string.charAt(0) == CollaborativeFilteringByUser.USER_PREFIX) {
+				if (users.id(value) < 0) {
+					newUsers.add(value);
+				}
+			} else if (movies.id(value) < 0) {
+				newMovies.add(value);
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			write(CollaborativeFilteringByUser.USERS_OUTPUT, users, newUsers);
+			write(CollaborativeFilteringByUser.MOVIES_OUTPUT, movies, newMovies);
+			context.getCounter(DictionaryCounter.USERS).increment(users.size() + newUsers.size());
+			context.getCounter(DictionaryCounter.MOVIES).increment(movies.size() + newMovies.size());
+			context.getCounter(IncrementalCounter.NEW_USERS).increment(newUsers.size());
+			context.getCounter(IncrementalCounter.NEW_MOVIES).increment(newMovies.size());
+			outputs.close();
+		}
+
+		// 先按ID输出原字典，再输出新名称
+		private void write(String namedOutput, NameDictionary dictionary, List<String> newNames)
+				throws IOException, InterruptedException {
+			for (int i = 0; i < dictionary.size(); i++) {
+				id.set(i);
+				name.set(dictionary.name(i));
+				outputs.write(namedOutput, id, name);
+			}
+			for (int i = 0; i < newNames.size(); i++) {
+				id.set(dictionary.size() + i);
+				name.set(newNames.get(i));
+				outputs.write(namedOutput, id, name);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: DeltaVectorMapper
+	 * </p>
+	 * <p>
+	 * Description: 合并评分作业Mapper类，增量评分向量的用户ID记为DELTA_USER，与原评分向量区分
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class DeltaVectorMapper
+			extends Mapper<IntWritable, RatingVectorWritable, IntWritable, RatingVectorWritable> {
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			value.setUserId(DELTA_USER);
+			context.write(key, value);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: MergeRatingsReducer
+	 * </p>
+	 * <p>
+	 * Description: 合并评分作业Reducer类，用增量评分覆盖原评分，输出合并后的评分向量与实际变化的评分
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class MergeRatingsReducer
+			extends Reducer<IntWritable, RatingVectorWritable, IntWritable, RatingVectorWritable> {
+
+		private MultipleOutputs<IntWritable, RatingVectorWritable> outputs;
+		// 下标为电影ID的评分，0.0为未评分；各用户之间复用，用完只清理出现过的电影
+		private float[] scores;
+		// 原评分向量、增量评分，Hadoop复用value对象，需要取出字段保存
+		private final RatingVectorWritable current = new RatingVectorWritable();
+		private final RatingVectorWritable deltas = new RatingVectorWritable();
+		// 输出对象复用
+		private final RatingVectorWritable merged = new RatingVectorWritable();
+		private final IntWritable movieKey = new IntWritable();
+		private final RatingChangeWritable change = new RatingChangeWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			outputs = new MultipleOutputs<>(context);
+			scores = new float[(int) context.getConfiguration().getLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS,
+					0)];
+		}
+
+		@Override
+		protected void reduce(IntWritable key, Iterable<RatingVectorWritable> values, Context context)
+				throws IOException, InterruptedException {
+			int userId = key.get();
+			current.clear(userId);
+			deltas.clear(DELTA_USER);
+			for (RatingVectorWritable value : values) {
+				if (value.getUserId() == DELTA_USER) {
+					deltas.addAll(value);
+				} else {
+					current.addAll(value);
+				}
+			}
+			for (int i = 0; i < current.size(); i++) {
+				scores[current.movieId(i)] = current.score(i);
+			}
+
+			int changed = 0;
+			for (int i = 0; i < deltas.size(); i++) {
+				int movieId = deltas.movieId(i);
+				float oldScore = scores[movieId];
+				float newScore = deltas.score(i);
+				// 0.0不表示删除，忽略；评分相同的不算变化
+				if (newScore == 0.0f || newScore == oldScore) {
+					continue;
+				}
+				if (oldScore == 0.0f) { // 新增的评分加在原向量之后
+					current.add(movieId, newScore);
+				}
+				scores[movieId] = newScore;
+				movieKey.set(movieId);
+				change.set(userId, oldScore, newScore);
+				outputs.write(CHANGES_OUTPUT, movieKey, change);
+				changed++;
+			}
+			if (changed > 0) {
+				context.getCounter(IncrementalCounter.CHANGED_RATINGS).increment(changed);
+				context.getCounter(IncrementalCounter.CHANGED_USERS).increment(1);
+			}
+
+			merged.clear(userId);
+			for (int i = 0; i < current.size(); i++) {
+				int movieId = current.movieId(i);
+				merged.add(movieId, scores[movieId]);
+				scores[movieId] = 0.0f;
+			}
+			context.write(key, merged);
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			outputs.close();
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: ChangedMovieMapper
+	 * </p>
+	 * <p>
+	 * Description: 用户对统计量变化作业Mapper类，输出评分有变化的电影下未变化的评分（原评分与新评分相同），
+	 * 		同时用完整的评分向量输出该用户的新统计量
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class ChangedMovieMapper
+			extends Mapper<IntWritable, RatingVectorWritable, IntWritable, RatingChangeWritable> {
+
+		private SimilarityMetric metric;
+		private RatingChanges changes;
+		private MultipleOutputs<IntWritable, RatingChangeWritable> outputs;
+		// 输出对象复用
+		private final PairStatsWritable userStats = new PairStatsWritable();
+		private final IntWritable movieKey = new IntWritable();
+		private final RatingChangeWritable rating = new RatingChangeWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			metric = SimilarityMetric.get(context.getConfiguration());
+			changes = RatingChanges.load(context.getConfiguration());
+			if (metric.userStatistics() > 0) {
+				outputs = new MultipleOutputs<>(context);
+			}
+		}
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			int userId = key.get();
+			if (outputs != null) {
+				CollaborativeFilteringByUser.accumulateUser(metric, value, userStats);
+				outputs.write(CollaborativeFilteringByUser.USER_STATS_OUTPUT, key, userStats);
+			}
+			for (int i = 0; i < value.size(); i++) {
+				int movieId = value.movieId(i);
+				float score = value.score(i);
+				// 变化的评分由ChangeMapper输出
+				if (score == 0.0f || !changes.movies[movieId]
+						|| changes.ratings.contains(RatingChanges.rating(userId, movieId))) {
+					continue;
+				}
+				movieKey.set(movieId);
+				rating.set(userId, score, score);
+				context.write(movieKey, rating);
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			if (outputs != null) {
+				outputs.close();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: ChangeMapper
+	 * </p>
+	 * <p>
+	 * Description: 用户对统计量变化作业Mapper类，原样输出变化的评分
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class ChangeMapper extends Mapper<IntWritable, RatingChangeWritable, IntWritable, RatingChangeWritable> {
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: DeltaPairReducer
+	 * </p>
+	 * <p>
+	 * Description: 用户对统计量变化作业Reducer类，同一电影下，至少一方评分有变化的用户对的统计量变化
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class DeltaPairReducer
+			extends Reducer<IntWritable, RatingChangeWritable, LongWritable, PairStatsWritable> {
+
+		private SimilarityMetric metric;
+		// 该电影下的评分，在不同电影之间复用
+		private int[] userIds = new int[16];
+		private float[] oldScores = new float[16];
+		private float[] newScores = new float[16];
+		private int size = 0;
+		// 新、原统计量
+		private double[] added;
+		private double[] removed;
+		// 输出对象复用
+		private final LongWritable pairKey = new LongWritable();
+		private final PairStatsWritable stats = new PairStatsWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			metric = SimilarityMetric.get(context.getConfiguration());
+			added = new double[metric.statistics()];
+			removed = new double[metric.statistics()];
+		}
+
+		@Override
+		protected void reduce(IntWritable key, Iterable<RatingChangeWritable> values, Context context)
+				throws IOException, InterruptedException {
+			size = 0;
+			for (RatingChangeWritable value : values) {
+				if (size == userIds.length) {
+					userIds = Arrays.copyOf(userIds, size * 2);
+					oldScores = Arrays.copyOf(oldScores, size * 2);
+					newScores = Arrays.copyOf(newScores, size * 2);
+				}
+				userIds[size] = value.getUserId();
+				oldScores[size] = value.getOldScore();
+				newScores[size] = value.getNewScore();
+				size++;
+			}
+
+			for (int i = 0; i < size; i++) {
+				if (oldScores[i] == newScores[i]) { // 只从变化的评分出发
+					continue;
+				}
+				for (int j = 0; j < size; j++) {
+					// 两个评分都有变化的用户对只计算一次
+					if (j == i || (j < i && oldScores[j] != newScores[j])) {
+						continue;
+					}
+					boolean first = userIds[i] < userIds[j];
+					int a = first ? i : j;
+					int b = first ? j : i;
+					Arrays.fill(added, 0.0);
+					Arrays.fill(removed, 0.0);
+					if (newScores[a] != 0.0f && newScores[b] != 0.0f) {
+						metric.accumulate(added, newScores[a], newScores[b]);
+					}
+					if (oldScores[a] != 0.0f && oldScores[b] != 0.0f) {
+						metric.accumulate(removed, oldScores[a], oldScores[b]);
+					}
+					stats.clear(metric.statistics());
+					for (int s = 0; s < added.length; s++) {
+						stats.get()[s] = added[s] - removed[s];
+					}
+					pairKey.set(CollaborativeFilteringByUser.pairId(userIds[a], userIds[b]));
+					context.write(pairKey, stats);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: PairStatsSumReducer
+	 * </p>
+	 * <p>
+	 * Description: 增量用户对统计量作业Reducer类，原统计量之和加上变化，以PAIR_STATS_OUTPUT输出，不计算相似度；
+	 * 		另外输出受影响的用户：评分有变化的用户，以及与其组成用户对的用户，这些用户的相似用户需要重新选出
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class PairStatsSumReducer
+			extends Reducer<LongWritable, PairStatsWritable, LongWritable, PairStatsWritable> {
+
+		private SimilarityMetric metric;
+		private RatingChanges changes;
+		private MultipleOutputs<LongWritable, PairStatsWritable> outputs;
+		// 本任务已输出的受影响用户
+		private boolean[] written;
+		// 输出对象复用
+		private final PairStatsWritable sum = new PairStatsWritable();
+		private final IntWritable userKey = new IntWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			metric = SimilarityMetric.get(context.getConfiguration());
+			changes = RatingChanges.load(context.getConfiguration());
+			written = new boolean[changes.users.length];
+			outputs = new MultipleOutputs<>(context);
+		}
+
+		@Override
+		protected void reduce(LongWritable key, Iterable<PairStatsWritable> values, Context context)
+				throws IOException, InterruptedException {
+			sum.clear(metric.statistics());
+			for (PairStatsWritable value : values) {
+				sum.add(value);
+			}
+			outputs.write(CollaborativeFilteringByUser.PAIR_STATS_OUTPUT, key, sum);
+			int user1 = CollaborativeFilteringByUser.pairFirst(key.get());
+			int user2 = CollaborativeFilteringByUser.pairSecond(key.get());
+			if (changes.users[user1] || changes.users[user2]) {
+				writeAffected(user1);
+				writeAffected(user2);
+			}
+		}
+
+		private void writeAffected(int userId) throws IOException, InterruptedException {
+			if (!written[userId]) {
+				written[userId] = true;
+				userKey.set(userId);
+				outputs.write(AFFECTED_OUTPUT, userKey, NullWritable.get());
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			outputs.close();
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: AffectedPairMapper
+	 * </p>
+	 * <p>
+	 * Description: 增量相似用户作业Mapper类，读取新的用户对统计量之和，只计算至少一方受影响的用户对的相似度，
+	 * 		并只输出受影响一方的相似度行
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class AffectedPairMapper
+			extends Mapper<LongWritable, PairStatsWritable, IntWritable, NeighbourWritable> {
+
+		private SimilarityMetric metric;
+		// 下标为用户ID，为null时所有用户都受影响
+		private boolean[] affected;
+		// 各用户的统计量，下标为 用户ID×userStatistics()，不需要时为null
+		private double[] usersStats;
+		private double[] user1Stats;
+		private double[] user2Stats;
+		// 计算的用户对相似度数，cleanup时计入计数器
+		private long similarities = 0;
+		// 输出对象复用
+		private final IntWritable userKey = new IntWritable();
+		private final NeighbourWritable neighbour = new NeighbourWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			metric = SimilarityMetric.get(conf);
+			affected = loadAffected(conf);
+			int size = metric.userStatistics();
+			if (size > 0) {
+				usersStats = CollaborativeFilteringByUser.loadUserStats(conf,
+						new Path(conf.get(CollaborativeFilteringByUser.CONF_USER_STATS)),
+						(int) conf.getLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, 0), size);
+				user1Stats = new double[size];
+				user2Stats = new double[size];
+			}
+		}
+
+		@Override
+		protected void map(LongWritable key, PairStatsWritable value, Context context)
+				throws IOException, InterruptedException {
+			int user1 = CollaborativeFilteringByUser.pairFirst(key.get());
+			int user2 = CollaborativeFilteringByUser.pairSecond(key.get());
+			boolean affected1 = affected == null || affected[user1];
+			boolean affected2 = affected == null || affected[user2];
+			if (!affected1 && !affected2) {
+				return;
+			}
+			if (usersStats != null) {
+				System.arraycopy(usersStats, user1 * user1Stats.length, user1Stats, 0, user1Stats.length);
+				System.arraycopy(usersStats, user2 * user2Stats.length, user2Stats, 0, user2Stats.length);
+			}
+			double similarityAll = metric.finish(value.get(), user1Stats, user2Stats);
+			similarities++;
+			if (affected1) {
+				userKey.set(user1);
+				neighbour.set(user2, similarityAll);
+				context.write(userKey, neighbour);
+			}
+			if (affected2) {
+				userKey.set(user2);
+				neighbour.set(user1, similarityAll);
+				context.write(userKey, neighbour);
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			context.getCounter(StageCounter.SIMILARITY_OPS).increment(similarities);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: UnaffectedRowMapper
+	 * </p>
+	 * <p>
+	 * Description: 增量相似用户作业Mapper类，原样输出未受影响用户的原相似用户（已是前K个，重新选出的结果不变）
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class UnaffectedRowMapper
+			extends Mapper<IntWritable, NeighbourWritable, IntWritable, NeighbourWritable> {
+
+		// 下标为用户ID，为null时所有用户都受影响
+		private boolean[] affected;
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			affected = loadAffected(context.getConfiguration());
+		}
+
+		@Override
+		protected void map(IntWritable key, NeighbourWritable value, Context context)
+				throws IOException, InterruptedException {
+			if (affected != null && !affected[key.get()]) {
+				context.write(key, value);
+			}
+		}
+	}
+
+	// 受影响的用户，所有用户都受影响时返回null
+	private static boolean[] loadAffected(Configuration conf) throws IOException {
+		if (conf.getBoolean(CONF_ALL_AFFECTED, false)) {
+			return null;
+		}
+		return loadUsers(conf, new Path(conf.get(CONF_AFFECTED)),
+				(int) conf.getLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, 0));
+	}
+}
@@ -0,0 +1,102 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * @FileName: ItemNeighbourhood.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 电影近邻表：每部电影最相似的K部电影及相似度，由基于电影的相似电影作业生成
+ *
+ * 按CSR格式保存在三个数组中：电影i的近邻位于下标 start(i) 到 end(i)-1，
+ * 对某用户打分时只需访问其评价过的电影的近邻，不创建任何对象。
+ *
+ * @Date: 2026年10月18日
+ */
+public class ItemNeighbourhood {
+	// 电影i的近邻在neighbours中的起始下标，长度为电影数+1
+	private final int[] offsets;
+	// 近邻电影ID
+	private final int[] neighbours;
+	// 相似度，与neighbours下标一一对应
+	private final double[] similarities;
+
+	private ItemNeighbourhood(int[] offsets, int[] neighbours, double[] similarities) {
+		this.offsets = offsets;
+		this.neighbours = neighbours;
+		this.similarities = similarities;
+	}
+
+	/**
+	 *
+	 * @Title：load
+	 * @Description: 读取本地的近邻SequenceFile（key=电影ID，value=(近邻电影ID, 相似度)），不要求按电影ID有序
+	 * @Param: @param conf
+	 * @Param: @param file 分布式缓存中的文件在任务工作目录下以链接名出现
+	 * @Param: @param movieCounts
+	 * @Return: ItemNeighbourhood
+	 */
+	public static ItemNeighbourhood load(Configuration conf, File file, int movieCounts) throws IOException {
+		int[] items = new int[64];
+		int[] neighbours = new int[64];
+		double[] similarities = new double[64];
+		int size = 0;
+		int[] offsets = new int[movieCounts + 1];
+
+		Path path = FileSystem.getLocal(conf).makeQualified(new Path(file.getAbsolutePath()));
+		IntWritable key = new IntWritable();
+		NeighbourWritable value = new NeighbourWritable();
+		try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(path))) {
+			while (reader.next(key, value)) {
+				if (size == items.length) {
+					items = Arrays.copyOf(items, size * 2);
+					neighbours = Arrays.copyOf(neighbours, size * 2);
+					similarities = Arrays.copyOf(similarities, size * 2);
+				}
+				items[size] = key.get();
+				neighbours[size] = value.getUserId();
+				similarities[size] = value.getSimilarity();
+				offsets[key.get() + 1]++;
+				size++;
+			}
+		}
+
+		// 计数转为起始下标，再按电影ID放入对应区间，同一电影的近邻保持读入顺序（即相似度从高到低）
+		for (int i = 0; i < movieCounts; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] next = Arrays.copyOf(offsets, movieCounts);
+		int[] sortedNeighbours = new int[size];
+		double[] sortedSimilarities = new double[size];
+		for (int i = 0; i < size; i++) {
+			int at = next[items[i]]++;
+			sortedNeighbours[at] = neighbours[i];
+			sortedSimilarities[at] = similarities[i];
+		}
+		return new ItemNeighbourhood(offsets, sortedNeighbours, sortedSimilarities);
+	}
+
+	public int start(int movieId) {
+		return offsets[movieId];
+	}
+
+	public int end(int movieId) {
+		return offsets[movieId + 1];
+	}
+
+	public int neighbour(int i) {
+		return neighbours[i];
+	}
+
+	public double similarity(int i) {
+		return similarities[i];
+	}
+}
@@ -0,0 +1,31 @@
+package com.gyt.collaborativeFiltering;
+
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * @FileName: JoinWritable.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 评分关联、推荐作业中map输出的value，可以是评分向量或相似用户
+ *
+ * @Date: 2026年10月18日
+ */
+public class JoinWritable extends GenericWritable {
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static final Class<? extends Writable>[] TYPES = new Class[] { RatingVectorWritable.class,
+			NeighbourWritable.class };
+
+	public JoinWritable() {
+	}
+
+	public JoinWritable(Writable writable) {
+		set(writable);
+	}
+
+	@Override
+	protected Class<? extends Writable>[] getTypes() {
+		return TYPES;
+	}
+}
@@ -0,0 +1,772 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import com.gyt.collaborativeFiltering.RatingFormat.RatingRecord;
+import com.gyt.collaborativeFiltering.StageMetrics.StageCounter;
+
+/**
+ * @FileName: LocalEngine.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 单机多线程的基于用户的协同过滤：不启动Hadoop，在一个进程内用ForkJoinPool为所有用户计算推荐电影
+ *
+ * 数据能放入单机内存时（中小规模），省去各MapReduce作业的启动、shuffle与中间文件，结果与CollaborativeFilteringByUser相同：
+ * 	同样的源数据格式（colfilter.input.format）、相似度方法、稀疏模式、K、N，
+ * 	用户、电影ID按名称的UTF-8字节顺序分配（与字典作业的排序一致），因此相似度相等时的先后顺序也相同；
+ * 	输出文件 part-r-00000 每行 用户名(Tab)(Tab)电影名[推荐值]; ...，与推荐作业的文本输出格式相同，按用户ID排列。
+ * 	各用户对的统计量按电影依次累加，与MapReduce中各电影统计量的求和顺序不同，相似度可能在末位有浮点误差。
+ *
+ * 不保存完整的 用户数×用户数 相似度矩阵：
+ * 	稀疏模式（以及legacy以外的方法）：由 电影->评分用户 的倒排表只访问有共同评分的用户对，按行累加统计量；
+ * 		每个ForkJoin任务负责一段连续的用户（行），各行的K个相似用户写入互不重叠的数组位置，不需要同步；
+ * 		统计量数组每个工作线程一份（ThreadLocal），每行结束时只清理出现过的用户
+ * 	legacy非稀疏模式：所有用户对都参与，用户按SimilarityKernel的块大小分块，只计算行块不在列块之后的块对（上三角），
+ * 		每个块对一个ForkJoin任务，由SimilarityKernel.similarityTile在行主序的稠密评分矩阵上计算，每对用户只计算一次，
+ * 		结果同时加入两个用户的top-K堆（按块加锁）；TopKHeap的结果与加入顺序无关，因此与逐行计算相同
+ * 读取、相似用户、推荐、写出各阶段的耗时与记录数记入metrics()，每个阶段结束时输出一行摘要，
+ * 配置colfilter.metrics.file时由main写成指标文件（见StageMetrics）。
+ *
+ * @Date: 2026年10月18日
+ */
+public class LocalEngine {
+	// 每个ForkJoin任务最多处理的行数
+	private static final int ROW_BLOCK = 64;
+	private static final Logger LOG = Logger.getLogger(LocalEngine.class);
+
+	private final Configuration conf;
+	private final SimilarityMetric metric;
+	private final boolean sparse;
+	private final ForkJoinPool pool;
+	private final StageMetrics metrics = new StageMetrics();
+
+	// 字典，下标为ID
+	private String[] userNames;
+	private String[] movieNames;
+	// 评分向量：用户u的评分位于下标 offsets[u] 到 offsets[u+1]-1，顺序与源数据一致
+	private int[] offsets;
+	private int[] movieIds;
+	private float[] scores;
+	// 倒排表：为电影m评分（不为0.0）的用户位于 movieOffsets[m] 到 movieOffsets[m+1]-1
+	private int[] movieOffsets;
+	private int[] movieUsers;
+	private float[] movieScores;
+	// 稠密评分矩阵，只在legacy非稀疏模式下使用
+	private float[] dense;
+	// 用户统计量，下标为用户ID，方法不需要时为null
+	private double[][] userStats;
+	// 相似用户：用户u的第i个位于 u×K+i
+	private int k;
+	private int[] neighbourSizes;
+	private int[] neighbours;
+	private double[] similarities;
+	// 非稀疏模式每个工作线程的块对结果，在该线程计算的各块对之间复用
+	private final ThreadLocal<double[]> denseTile = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[0];
+		}
+	};
+	// 稀疏模式每个工作线程的统计量数组，在该线程处理的各段用户之间复用
+	private final ThreadLocal<SparseScratch> sparseScratch = new ThreadLocal<SparseScratch>() {
+		@Override
+		protected SparseScratch initialValue() {
+			return new SparseScratch(userNames.length, metric.statistics());
+		}
+	};
+
+	public LocalEngine(Configuration conf, int threads) {
+		this.conf = conf;
+		this.metric = SimilarityMetric.get(conf);
+		this.sparse = metric.ratedOnly() || conf.getBoolean(CollaborativeFilteringByUser.CONF_SPARSE_PAIRS, false);
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 *
+	 * @Title：main
+	 * @Description: 主函数
+	 * @Param: @param args [0]源数据文件或目录 [1]输出目录 [2]线程数，默认CPU核数
+	 * @Return: void
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("usage: LocalEngine <input file or dir> <output dir> [threads]");
+			return;
+		}
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		LocalEngine engine = new LocalEngine(new Configuration(), threads);
+		long start = System.currentTimeMillis();
+		engine.run(new File(args[0]), new File(args[1]));
+		System.out.println("Job success! " + (System.currentTimeMillis() - start) + " ms");
+		engine.metrics().write(engine.conf);
+	}
+
+	public StageMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 *
+	 * @Title：run
+	 * @Description: 读取源数据，计算相似用户与推荐电影，写出结果
+	 * @Param: @param input 源数据文件，或包含源数据文件的目录（忽略以_、.开头的文件）
+	 * @Param: @param output 输出目录
+	 * @Return: void
+	 */
+	public void run(File input, File output) throws IOException {
+		long start = System.currentTimeMillis();
+		load(input);
+		metrics.add("local-load", StageCounter.RATINGS.name(), movieIds.length);
+		start = finishStage("local-load", start);
+		computeNeighbours();
+		metrics.add("local-neighbours", StageCounter.TOP_K_USERS.name(), userNames.length);
+		start = finishStage("local-neighbours", start);
+		String[] lines = recommendAll();
+		metrics.add("local-recommend", StageCounter.SCORED_USERS.name(), lines.length);
+		start = finishStage("local-recommend", start);
+		output.mkdirs();
+		try (BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(new File(output, "part-r-00000")), "UTF-8"))) {
+			for (int userId = 0; userId < lines.length; userId++) {
+				writer.write(userNames[userId]);
+				writer.write("\t\t");
+				writer.write(lines[userId]);
+				writer.write('\n');
+			}
+		}
+		finishStage("local-write", start);
+	}
+
+	// 记录阶段耗时并输出摘要，返回当前时间作为下一阶段的开始
+	private long finishStage(String stage, long start) {
+		long now = System.currentTimeMillis();
+		metrics.add(stage, StageMetrics.MILLIS, now - start);
+		LOG.info(metrics.summary(stage));
+		return now;
+	}
+
+	/**
+	 *
+	 * @Title：load
+	 * @Description: 解析源数据，分配ID，建立评分向量、倒排表与用户统计量
+	 * @Param: @param input
+	 * @Return: void
+	 */
+	void load(File input) throws IOException {
+		RatingFormat format = RatingFormat.get(conf);
+		RatingRecord record = new RatingRecord();
+		// 按出现顺序临时编号
+		Map<String, Integer> users = new HashMap<>();
+		Map<String, Integer> movies = new HashMap<>();
+		int[] ratingUsers = new int[1024];
+		int[] ratingMovies = new int[1024];
+		float[] ratingScores = new float[1024];
+		int size = 0;
+		// 格式错误而跳过的记录数
+		long bad = 0;
+
+		for (File file : inputFiles(input)) {
+			InputReader reader = format == RatingFormat.BINARY ? new BinaryReader(file) : new LineReader(file);
+			try {
+				Object value;
+				while ((value = reader.next()) != null) {
+					if (!format.parse(value, record)) {
+						if (record.isMalformed()) {
+							bad++;
+						}
+						continue;
+					}
+					Integer user = id(users, record.user());
+					for (int i = 0; i < record.size(); i++) {
+						if (size == ratingUsers.length) {
+							ratingUsers = Arrays.copyOf(ratingUsers, size * 2);
+							ratingMovies = Arrays.copyOf(ratingMovies, size * 2);
+							ratingScores = Arrays.copyOf(ratingScores, size * 2);
+						}
+						ratingUsers[size] = user;
+						ratingMovies[size] = id(movies, record.movie(i));
+						ratingScores[size] = record.score(i);
+						size++;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		metrics.add("local-load", StageCounter.BAD_RECORDS.name(), bad);
+		if (bad > 0) {
+			LOG.warn("skipped " + bad + " malformed records in " + input);
+		}
+
+		// 与字典作业相同，按名称排序后分配ID
+		userNames = sortedNames(users);
+		movieNames = sortedNames(movies);
+		int[] userIds = remap(users, userNames);
+		int[] movieIdMap = remap(movies, movieNames);
+		int userCounts = userNames.length;
+		int movieCounts = movieNames.length;
+		conf.setLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, userCounts);
+		conf.setLong(CollaborativeFilteringByUser.CONF_MOVIE_COUNTS, movieCounts);
+
+		// 评分向量（CSR）
+		offsets = new int[userCounts + 1];
+		for (int i = 0; i < size; i++) {
+			offsets[userIds[ratingUsers[i]] + 1]++;
+		}
+		for (int u = 0; u < userCounts; u++) {
+			offsets[u + 1] += offsets[u];
+		}
+		movieIds = new int[size];
+		scores = new float[size];
+		int[] next = Arrays.copyOf(offsets, userCounts);
+		for (int i = 0; i < size; i++) {
+			int index = next[userIds[ratingUsers[i]]]++;
+			movieIds[index] = movieIdMap[ratingMovies[i]];
+			scores[index] = ratingScores[i];
+		}
+
+		// 倒排表，只收录评分不为0.0的
+		movieOffsets = new int[movieCounts + 1];
+		for (int i = 0; i < size; i++) {
+			if (scores[i] != 0.0f) {
+				movieOffsets[movieIds[i] + 1]++;
+			}
+		}
+		for (int m = 0; m < movieCounts; m++) {
+			movieOffsets[m + 1] += movieOffsets[m];
+		}
+		movieUsers = new int[movieOffsets[movieCounts]];
+		movieScores = new float[movieOffsets[movieCounts]];
+		next = Arrays.copyOf(movieOffsets, movieCounts);
+		for (int u = 0; u < userCounts; u++) {
+			for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+				if (scores[i] != 0.0f) {
+					int index = next[movieIds[i]]++;
+					movieUsers[index] = u;
+					movieScores[index] = scores[i];
+				}
+			}
+		}
+
+		if (!sparse) {
+			// 与CoRatingPairMapper非稀疏模式相同：没有列出的电影为0.0，同一电影出现多次时以后出现的为准
+			dense = new float[arrayLength((long) userCounts * movieCounts, "dense rating matrix")];
+			for (int u = 0; u < userCounts; u++) {
+				for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+					dense[u * movieCounts + movieIds[i]] = scores[i];
+				}
+			}
+		}
+
+		if (metric.userStatistics() > 0) {
+			userStats = new double[userCounts][];
+			for (int u = 0; u < userCounts; u++) {
+				userStats[u] = new double[metric.userStatistics()];
+				for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+					if (scores[i] != 0.0f) {
+						metric.accumulateUser(userStats[u], scores[i]);
+					}
+				}
+			}
+		}
+	}
+
+	// 输入文件，目录下的文件按名称排序
+	private static List<File> inputFiles(File input) {
+		List<File> files = new ArrayList<>();
+		if (!input.isDirectory()) {
+			files.add(input);
+			return files;
+		}
+		File[] children = input.listFiles();
+		if (children != null) {
+			Arrays.sort(children);
+			for (File child : children) {
+				if (child.isFile() && !child.getName().startsWith("_") && !child.getName().startsWith(".")) {
+					files.add(child);
+				}
+			}
+		}
+		return files;
+	}
+
+	private static Integer id(Map<String, Integer> ids, String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = ids.size();
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	// 按UTF-8字节顺序（即Unicode码点顺序）排序，与Hadoop中Text的排序一致
+	private static String[] sortedNames(Map<String, Integer> ids) {
+		List<String> names = new ArrayList<>(ids.keySet());
+		Collections.sort(names, new Comparator<String>() {
+			@Override
+			public int compare(String name1, String name2) {
+				int i = 0, j = 0;
+				while (i < name1.length() && j < name2.length()) {
+					int c1 = name1.codePointAt(i);
+					int c2 = name2.codePointAt(j);
+					if (c1 != c2) {
+						return c1 < c2 ? -1 : 1;
+					}
+					i += Character.charCount(c1);
+					j += Character.charCount(c2);
+				}
+				return (name1.length() - i) - (name2.length() - j);
+			}
+		});
+		return names.toArray(new String[names.size()]);
+	}
+
+	// 临时编号 -> 排序后的ID
+	private static int[] remap(Map<String, Integer> ids, String[] sortedNames) {
+		int[] map = new int[sortedNames.length];
+		for (int id = 0; id < sortedNames.length; id++) {
+			map[ids.get(sortedNames[id])] = id;
+		}
+		return map;
+	}
+
+	/**
+	 *
+	 * @Title：computeNeighbours
+	 * @Description: 并行计算每个用户最相似的K个用户
+	 * @Return: void
+	 */
+	void computeNeighbours() {
+		int userCounts = userNames.length;
+		k = CollaborativeFilteringByUser.neighbourCounts(conf);
+		neighbourSizes = new int[userCounts];
+		int length = arrayLength((long) userCounts * k, "neighbour table");
+		neighbours = new int[length];
+		similarities = new double[length];
+		if (sparse) {
+			pool.invoke(new NeighbourTask(0, userCounts));
+		} else {
+			denseNeighbours();
+		}
+	}
+
+	// 将用户的top-K堆按相似度从高到低写入相似用户表
+	private void storeNeighbours(int u, TopKHeap topK) {
+		topK.sortDescending();
+		neighbourSizes[u] = topK.size();
+		for (int i = 0; i < topK.size(); i++) {
+			neighbours[u * k + i] = topK.id(i);
+			similarities[u * k + i] = topK.value(i);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: NeighbourTask
+	 * </p>
+	 * <p>
+	 * Description: 稀疏模式下计算一段连续用户的相似用户，超过ROW_BLOCK行时对半拆分
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private class NeighbourTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		NeighbourTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ROW_BLOCK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new NeighbourTask(from, middle), new NeighbourTask(middle, to));
+				return;
+			}
+			TopKHeap[] heaps = new TopKHeap[to - from];
+			for (int i = 0; i < heaps.length; i++) {
+				heaps[i] = new TopKHeap(k);
+			}
+			sparseRows(from, to, heaps);
+			for (int u = from; u < to; u++) {
+				storeNeighbours(u, heaps[u - from]);
+			}
+		}
+	}
+
+	// 稀疏模式：经由倒排表只累加有共同评分的用户对
+	private void sparseRows(int from, int to, TopKHeap[] heaps) {
+		int statistics = metric.statistics();
+		SparseScratch work = sparseScratch.get();
+		if (work.touched.length != userNames.length) { // 同一引擎再次run时用户数可能不同
+			work = new SparseScratch(userNames.length, statistics);
+			sparseScratch.set(work);
+		}
+		double[] stats = work.stats;
+		boolean[] touched = work.touched;
+		int[] touchedUsers = work.touchedUsers;
+		double[] pairStats = work.pairStats;
+		for (int u = from; u < to; u++) {
+			int touchedCounts = 0;
+			for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+				float score = scores[i];
+				if (score == 0.0f) {
+					continue;
+				}
+				int movieId = movieIds[i];
+				for (int j = movieOffsets[movieId]; j < movieOffsets[movieId + 1]; j++) {
+					int v = movieUsers[j];
+					if (v == u) {
+						continue;
+					}
+					if (!touched[v]) {
+						touched[v] = true;
+						touchedUsers[touchedCounts++] = v;
+					}
+					// 统计量中的评分顺序与用户对中的用户顺序一致（ID较小的在前）
+					if (u < v) {
+						accumulate(stats, v * statistics, score, movieScores[j], pairStats);
+					} else {
+						accumulate(stats, v * statistics, movieScores[j], score, pairStats);
+					}
+				}
+			}
+			for (int t = 0; t < touchedCounts; t++) {
+				int v = touchedUsers[t];
+				System.arraycopy(stats, v * statistics, pairStats, 0, statistics);
+				heaps[u - from].offer(v, finish(pairStats, u, v));
+				Arrays.fill(stats, v * statistics, (v + 1) * statistics, 0.0);
+				touched[v] = false;
+			}
+		}
+	}
+
+	// 数组长度，超过int范围（数组下标上限）时拒绝，避免 用户数×电影数 等乘积溢出
+	private static int arrayLength(long length, String name) {
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(name + " too large for one array: " + length + " elements");
+		}
+		return (int) length;
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: SparseScratch
+	 * </p>
+	 * <p>
+	 * Description: 稀疏模式一个工作线程的统计量数组：每行结束时只清理出现过的用户，数组保持全0，可直接用于下一行、下一段
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static class SparseScratch {
+		// 当前行与各用户的统计量之和，下标为 用户ID×statistics
+		final double[] stats;
+		// 当前行出现过的用户
+		final boolean[] touched;
+		final int[] touchedUsers;
+		final double[] pairStats;
+
+		SparseScratch(int userCounts, int statistics) {
+			stats = new double[arrayLength((long) userCounts * statistics, "pair statistics row")];
+			touched = new boolean[userCounts];
+			touchedUsers = new int[userCounts];
+			pairStats = new double[statistics];
+		}
+	}
+
+	// 将一对评分的统计量加到stats[offset..]上
+	private void accumulate(double[] stats, int offset, float score1, float score2, double[] scratch) {
+		int statistics = scratch.length;
+		Arrays.fill(scratch, 0.0);
+		metric.accumulate(scratch, score1, score2);
+		for (int s = 0; s < statistics; s++) {
+			stats[offset + s] += scratch[s];
+		}
+	}
+
+	// 非稀疏模式（只有legacy）：所有用户对，只计算上三角的块对，每对用户的相似度同时加入两个用户的堆
+	private void denseNeighbours() {
+		int userCounts = userNames.length;
+		int block = SimilarityKernel.tileUsers(movieNames.length);
+		int blocks = (userCounts + block - 1) / block;
+		TopKHeap[] heaps = new TopKHeap[userCounts];
+		for (int u = 0; u < userCounts; u++) {
+			heaps[u] = new TopKHeap(k);
+		}
+		Object[] locks = new Object[blocks];
+		for (int b = 0; b < blocks; b++) {
+			locks[b] = new Object();
+		}
+		// 块对 (行块, 列块)，行块不大于列块
+		int pairCounts = arrayLength((long) blocks * (blocks + 1) / 2, "tile pairs");
+		int[] rowBlocks = new int[pairCounts];
+		int[] columnBlocks = new int[pairCounts];
+		int pair = 0;
+		for (int row = 0; row < blocks; row++) {
+			for (int column = row; column < blocks; column++) {
+				rowBlocks[pair] = row;
+				columnBlocks[pair++] = column;
+			}
+		}
+		pool.invoke(new TileTask(0, pairCounts, rowBlocks, columnBlocks, block, heaps, locks));
+		for (int u = 0; u < userCounts; u++) {
+			storeNeighbours(u, heaps[u]);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: TileTask
+	 * </p>
+	 * <p>
+	 * Description: 非稀疏模式下计算一段块对：每个块对由SimilarityKernel.similarityTile计算上三角部分，
+	 * 		先在行块的锁内加入行用户的堆，再在列块的锁内加入列用户的堆，同时最多持有一个锁；多于一个块对时对半拆分
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final int[] rowBlocks;
+		private final int[] columnBlocks;
+		private final int block;
+		private final TopKHeap[] heaps;
+		private final Object[] locks;
+
+		TileTask(int from, int to, int[] rowBlocks, int[] columnBlocks, int block, TopKHeap[] heaps, Object[] locks) {
+			this.from = from;
+			this.to = to;
+			this.rowBlocks = rowBlocks;
+			this.columnBlocks = columnBlocks;
+			this.block = block;
+			this.heaps = heaps;
+			this.locks = locks;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new TileTask(from, middle, rowBlocks, columnBlocks, block, heaps, locks),
+						new TileTask(middle, to, rowBlocks, columnBlocks, block, heaps, locks));
+				return;
+			}
+			int userCounts = userNames.length;
+			int rowFrom = rowBlocks[from] * block;
+			int rowTo = Math.min(userCounts, rowFrom + block);
+			int columnFrom = columnBlocks[from] * block;
+			int columnTo = Math.min(userCounts, columnFrom + block);
+			int width = columnTo - columnFrom;
+			double[] tile = denseTile.get();
+			if (tile.length < block * block) {
+				tile = new double[block * block];
+				denseTile.set(tile);
+			}
+			SimilarityKernel.similarityTile(metric, dense, movieNames.length, rowFrom, rowTo, columnFrom, columnTo,
+					tile);
+			synchronized (locks[rowBlocks[from]]) {
+				for (int u = rowFrom; u < rowTo; u++) {
+					int row = (u - rowFrom) * width - columnFrom;
+					for (int v = Math.max(columnFrom, u + 1); v < columnTo; v++) {
+						heaps[u].offer(v, tile[row + v]);
+					}
+				}
+			}
+			synchronized (locks[columnBlocks[from]]) {
+				for (int u = rowFrom; u < rowTo; u++) {
+					int row = (u - rowFrom) * width - columnFrom;
+					for (int v = Math.max(columnFrom, u + 1); v < columnTo; v++) {
+						heaps[v].offer(u, tile[row + v]);
+					}
+				}
+			}
+		}
+	}
+
+	// 与SimilarityReducer相同，按ID较小的用户在前取两个用户的统计量
+	private double finish(double[] pairStats, int u, int v) {
+		if (userStats == null) {
+			return metric.finish(pairStats, null, null);
+		}
+		return metric.finish(pairStats, userStats[Math.min(u, v)], userStats[Math.max(u, v)]);
+	}
+
+	/**
+	 *
+	 * @Title：recommendAll
+	 * @Description: 并行为所有用户计算推荐电影
+	 * @Return: String[] 下标为用户ID，格式 电影名[推荐值]; ...
+	 */
+	String[] recommendAll() {
+		String[] lines = new String[userNames.length];
+		pool.invoke(new RecommendTask(0, userNames.length, lines));
+		return lines;
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: RecommendTask
+	 * </p>
+	 * <p>
+	 * Description: 为一段连续用户计算推荐电影，推荐值与推荐标准同评分关联、推荐作业
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private class RecommendTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final String[] lines;
+
+		RecommendTask(int from, int to, String[] lines) {
+			this.from = from;
+			this.to = to;
+			this.lines = lines;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ROW_BLOCK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RecommendTask(from, middle, lines), new RecommendTask(middle, to, lines));
+				return;
+			}
+			int movieCounts = movieNames.length;
+			double[] movieRecommendScore = new double[movieCounts];
+			boolean[] rated = new boolean[movieCounts];
+			int recommendCounts = conf.getInt(CollaborativeFilteringByUser.CONF_RECOMMENDATIONS, -1);
+			TopKHeap topN = new TopKHeap(recommendCounts < 0 ? movieCounts : Math.min(recommendCounts, movieCounts));
+			DecimalFormat df = new DecimalFormat("#.00");
+			StringBuilder recommendMovies = new StringBuilder();
+			for (int u = from; u < to; u++) {
+				Arrays.fill(movieRecommendScore, 0.0);
+				Arrays.fill(rated, false);
+				double recommendSum = 0.0;
+				for (int n = 0; n < neighbourSizes[u]; n++) {
+					int v = neighbours[u * k + n];
+					double similarity = similarities[u * k + n];
+					for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+						// 与评分关联作业相同，加权后的评分先取float
+						float contribution = (float) (scores[i] * similarity);
+						movieRecommendScore[movieIds[i]] += contribution;
+						recommendSum += contribution;
+					}
+				}
+				for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+					if (scores[i] != 0.0f) {
+						rated[movieIds[i]] = true;
+					}
+				}
+				recommendMovies.setLength(0);
+				if (movieCounts > 0) {
+					CollaborativeFilteringByUser.selectRecommendations(movieRecommendScore, rated, recommendSum,
+							movieCounts, topN);
+					for (int i = 0; i < topN.size(); i++) {
+						recommendMovies.append(movieNames[topN.id(i)]).append('[').append(df.format(topN.value(i)))
+								.append("]; ");
+					}
+				}
+				lines[u] = recommendMovies.toString();
+			}
+		}
+	}
+
+	// 逐条读取源数据，lines、triples格式为Text，binary格式为BytesWritable
+	private interface InputReader {
+		Object next() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	private static class LineReader implements InputReader {
+		private final BufferedReader reader;
+		private final Text text = new Text();
+
+		LineReader(File file) throws IOException {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		}
+
+		@Override
+		public Object next() throws IOException {
+			String line = reader.readLine();
+			if (line == null) {
+				return null;
+			}
+			text.set(line);
+			return text;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static class BinaryReader implements InputReader {
+		private final DataInputStream in;
+		private final byte[] bytes = new byte[RatingFormat.BINARY_LENGTH];
+		private final BytesWritable value = new BytesWritable();
+
+		BinaryReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		@Override
+		public Object next() throws IOException {
+			try {
+				in.readFully(bytes);
+			} catch (EOFException e) {
+				return null;
+			}
+			value.set(bytes, 0, bytes.length);
+			return value;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,532 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+
+/**
+ * @FileName: LshCandidates.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 近似相似用户：用局部敏感哈希（LSH）选出候选用户对，只为候选用户对计算相似度
+ *
+ ********************************************************************************************************************
+ * 代码分析：
+ * 	精确计算时，共同评分用户对作业为每部电影的所有评分用户两两生成用户对，热门电影的代价与其评价人数的平方成正比。
+ * 	LSH为每个用户计算 bands×rows 个哈希值组成的签名，每rows个哈希值组成一个band，同一band哈希值全部相同的用户落入同一个桶，
+ * 	只有至少在一个band中同桶的用户对才计算相似度：
+ * 		minhash：每个哈希值为用户评分过的电影的最小哈希，两个用户某一哈希值相同的概率等于其评分电影集合的Jaccard相似度
+ * 		simhash：每个哈希值为评分向量在一个随机超平面哪一侧（1位），两个用户某一位相同的概率为 1-夹角/π，
+ * 			pearson、adjusted-cosine先减去用户的平均分
+ * 	只统计共同评分电影时，没有共同评分的用户对本就没有相似度，评分电影重合多的用户对更可能进入前K个，
+ * 	因此在稀疏的评分数据上minhash对所有方法都更有效（同样的召回率下候选用户对少得多），auto总是选择minhash；
+ * 	simhash适合评分较稠密的数据。pearson的前K个相似用户常是共同评分很少、评分趋势恰好一致的用户，两种哈希的召回率都较低。
+ * 	两个用户成为候选的概率为 1-(1-p^rows)^bands：增加bands提高召回率，增加rows减少候选用户对（提高吞吐量）。
+ * 	候选用户对的相似度是精确值（与SimilarityReducer相同），近似只体现在可能漏掉部分相似用户。
+ *
+ * 	配置项：
+ * 		colfilter.lsh  none（默认，精确计算）、minhash、simhash、auto（同minhash）
+ * 		colfilter.lsh.bands  默认16
+ * 		colfilter.lsh.rows  默认minhash为2、simhash为6
+ * 		colfilter.lsh.seed  哈希种子，默认1
+ * 		colfilter.lsh.bucket.max  每个桶最多计算的用户数，默认1000，超出的用户在该band中不参与计算，防止大桶退化为平方复杂度
+ * 		colfilter.lsh.recall  为true时另外精确计算一次相似用户（目录 exact-xxx），输出LSH相似用户的召回率
+ * 	只支持只统计共同评分电影的模式：legacy方法需要设置colfilter.pairs.sparse=true，其他方法总是满足。
+ * 	只计算候选用户对，不输出用户对统计量之和（similarity/pairstats-r-xxxxx），IncrementalUpdate不能在LSH的结果上增量更新。
+ * 	桶内的相似度不做抽样与IUF加权（colfilter.pairs.cap、colfilter.pairs.iuf），同时配置时CollaborativeFilteringByUser在启动作业前报错退出。
+ *
+ * 	startCandidates 代替共同评分用户对、用户相似度两个作业，输出格式与用户相似度作业相同，之后的作业不变：
+ * 		SignatureMapper：读取评分向量，计算签名，每个band输出一条 key=桶编号（高16位为band） value=评分向量
+ * 		BucketSimilarityReducer：同桶用户两两计算相似度；同一用户对在多个band中同桶时在每个桶中都计算、输出，
+ * 			由相似用户作业的NeighbourReducer去重。各桶在不同的reducer中、超过colfilter.lsh.bucket.max的桶只计算一部分用户，
+ * 			一个reducer无法知道用户对是否已在另一个band中计算过，按band跳过会漏掉候选用户对
+ *
+ ***********************************************************************************************************************
+ * @Date: 2026年10月18日
+ */
+public class LshCandidates {
+	// 属性
+	// 配置项：候选用户对的哈希方法 none、minhash、simhash、auto
+	public static final String CONF_LSH = "colfilter.lsh";
+	// 配置项：band数
+	public static final String CONF_LSH_BANDS = "colfilter.lsh.bands";
+	// 配置项：每个band的哈希值个数
+	public static final String CONF_LSH_ROWS = "colfilter.lsh.rows";
+	// 配置项：哈希种子
+	public static final String CONF_LSH_SEED = "colfilter.lsh.seed";
+	// 配置项：每个桶最多计算的用户数
+	public static final String CONF_LSH_BUCKET_LIMIT = "colfilter.lsh.bucket.max";
+	// 配置项：是否与精确计算的相似用户比较并输出召回率
+	public static final String CONF_LSH_RECALL = "colfilter.lsh.recall";
+
+	// 召回率比较时精确计算的中间目录前缀
+	public static final String EXACT_PREFIX = "exact-";
+	// 桶编号中band所占的高位数
+	private static final int BAND_BITS = 16;
+
+	// LSH计数器：有签名的用户数、有两个以上用户的桶数、超出上限的桶数、计算的候选用户对数（在多个桶中的用户对重复计数）、
+	// 有共同评分（输出了相似度）的用户对数
+	public static enum LshCounter {
+		SIGNED_USERS, BUCKETS, OVERSIZED_BUCKETS, CANDIDATE_PAIRS, SIMILAR_PAIRS
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Hashing
+	 * </p>
+	 * <p>
+	 * Description: 签名的哈希方法
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static enum Hashing {
+		MINHASH, SIMHASH
+	}
+
+	/**
+	 *
+	 * @Title：hashing
+	 * @Description: 读取配置项colfilter.lsh，auto即minhash
+	 * @Param: @param conf
+	 * @Return: Hashing 未启用LSH时为null
+	 */
+	public static Hashing hashing(Configuration conf) {
+		String name = conf.get(CONF_LSH, "none").trim().toUpperCase();
+		if (name.equals("NONE")) {
+			return null;
+		}
+		if (name.equals("AUTO")) {
+			return Hashing.MINHASH;
+		}
+		return Hashing.valueOf(name);
+	}
+
+	/**
+	 *
+	 * @Title：rows
+	 * @Description: 每个band的哈希值个数，读取配置项colfilter.lsh.rows，默认minhash为2、simhash为6
+	 * @Param: @param conf
+	 * @Return: int
+	 */
+	public static int rows(Configuration conf) {
+		return conf.getInt(CONF_LSH_ROWS, hashing(conf) == Hashing.SIMHASH ? 6 : 2);
+	}
+
+	public static boolean enabled(Configuration conf) {
+		return hashing(conf) != null;
+	}
+
+	/**
+	 *
+	 * @Title：startCandidates
+	 * @Description: 启动LSH候选用户对作业，代替共同评分用户对、用户相似度两个作业
+	 * @Param: @param configuration
+	 * @Param: @param ratings 评分向量目录
+	 * @Param: @param similarity 用户相似度目录
+	 * @Return: boolean 作业是否成功
+	 */
+	static boolean startCandidates(Configuration configuration, Path ratings, Path similarity)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		SimilarityMetric metric = SimilarityMetric.get(configuration);
+		if (!metric.ratedOnly()
+				&& !configuration.getBoolean(CollaborativeFilteringByUser.CONF_SPARSE_PAIRS, false)) {
+			System.out.println("lsh candidates need colfilter.pairs.sparse=true for the legacy metric");
+			return false;
+		}
+		int bands = configuration.getInt(CONF_LSH_BANDS, 16);
+		if (bands < 1 || bands >= 1 << BAND_BITS || rows(configuration) < 1) {
+			System.out.println("bad lsh bands/rows: " + bands + "/" + rows(configuration));
+			return false;
+		}
+
+		Job job = CollaborativeFilteringByUser.createJob(configuration, "colFilter-lsh-similarity", similarity);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(SignatureMapper.class);
+		job.setReducerClass(BucketSimilarityReducer.class);
+		job.setMapOutputKeyClass(LongWritable.class);
+		job.setMapOutputValueClass(RatingVectorWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(NeighbourWritable.class);
+		FileInputFormat.addInputPath(job, ratings);
+		if (!CollaborativeFilteringByUser.runJob(job)) {
+			return false;
+		}
+		long userCounts = configuration.getLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, 0);
+		long candidates = job.getCounters().findCounter(LshCounter.CANDIDATE_PAIRS).getValue();
+		System.out.println("lsh " + hashing(configuration) + " bands=" + bands + " rows=" + rows(configuration)
+				+ ": candidate pairs " + candidates + " of "
+				+ userCounts * (userCounts - 1) / 2 + ", oversized buckets "
+				+ job.getCounters().findCounter(LshCounter.OVERSIZED_BUCKETS).getValue());
+		return true;
+	}
+
+	/**
+	 *
+	 * @Title：reportRecall
+	 * @Description: 精确计算一次相似用户（中间目录下 exact-pairs、exact-similarity、exact-neighbours），输出LSH相似用户的召回率
+	 * @Param: @param configuration
+	 * @Param: @param tmp 中间结果目录
+	 * @Param: @param ratings 评分向量目录
+	 * @Param: @param neighbours LSH的相似用户目录
+	 * @Return: boolean 作业是否成功
+	 */
+	static boolean reportRecall(Configuration configuration, Path tmp, Path ratings, Path neighbours)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		Path exactSimilarity = new Path(tmp, EXACT_PREFIX + CollaborativeFilteringByUser.SIMILARITY_DIR);
+		Path exactNeighbours = new Path(tmp, EXACT_PREFIX + CollaborativeFilteringByUser.NEIGHBOURS_DIR);
+		if (!CollaborativeFilteringByUser.startSimilarity(configuration, ratings,
+				new Path(tmp, EXACT_PREFIX + CollaborativeFilteringByUser.PAIRS_DIR), exactSimilarity)
+				|| !CollaborativeFilteringByUser.startNeighbours(configuration, exactSimilarity, exactNeighbours)) {
+			return false;
+		}
+		long[] recall = recall(configuration, new Path(neighbours, CollaborativeFilteringByUser.PARTS),
+				new Path(exactNeighbours, CollaborativeFilteringByUser.PARTS));
+		System.out.println("lsh recall@" + CollaborativeFilteringByUser.neighbourCounts(configuration) + " = "
+				+ (recall[1] == 0 ? 1.0 : (double) recall[0] / recall[1]) + " (" + recall[0] + "/" + recall[1] + ")");
+		return true;
+	}
+
+	/**
+	 *
+	 * @Title：recall
+	 * @Description: 比较两组相似用户：精确的每个 (用户, 相似用户) 是否也出现在近似结果中
+	 * @Param: @param conf
+	 * @Param: @param approximate 近似的相似用户文件，可含通配符
+	 * @Param: @param exact 精确的相似用户文件，可含通配符
+	 * @Return: long[] {同时出现的个数, 精确结果的个数}
+	 */
+	public static long[] recall(Configuration conf, Path approximate, Path exact) throws IOException {
+		long[] found = readPairs(conf, approximate);
+		long[] expected = readPairs(conf, exact);
+		Arrays.sort(found, 1, (int) found[0] + 1);
+		long matched = 0;
+		for (int i = 1; i <= expected[0]; i++) {
+			if (Arrays.binarySearch(found, 1, (int) found[0] + 1, expected[i]) >= 0) {
+				matched++;
+			}
+		}
+		return new long[] { matched, expected[0] };
+	}
+
+	// 读取相似用户文件中的 (用户ID<<32 | 相似用户ID)，第0项为个数
+	private static long[] readPairs(Configuration conf, Path pattern) throws IOException {
+		long[] pairs = new long[1024];
+		int size = 0;
+		FileStatus[] files = pattern.getFileSystem(conf).globStatus(pattern);
+		if (files != null) {
+			IntWritable key = new IntWritable();
+			NeighbourWritable value = new NeighbourWritable();
+			for (FileStatus file : files) {
+				try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+						SequenceFile.Reader.file(file.getPath()))) {
+					while (reader.next(key, value)) {
+						if (size + 1 == pairs.length) {
+							pairs = Arrays.copyOf(pairs, pairs.length * 2);
+						}
+						pairs[++size] = ((long) key.get() << 32) | (value.getUserId() & 0xFFFFFFFFL);
+					}
+				}
+			}
+		}
+		pairs[0] = size;
+		return pairs;
+	}
+
+	/**
+	 *
+	 * @Title：mix
+	 * @Description: 64位整数哈希（SplitMix64的最终混合函数），相邻的输入得到不相关的输出
+	 * @Param: @param z
+	 * @Return: long
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: SignatureMapper
+	 * </p>
+	 * <p>
+	 * Description: LSH候选用户对作业Mapper类，计算用户的签名，按band输出到对应的桶
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class SignatureMapper extends Mapper<IntWritable, RatingVectorWritable, LongWritable, RatingVectorWritable> {
+
+		private Hashing hashing;
+		private SimilarityMetric metric;
+		private int bands;
+		private int rows;
+		// 每个哈希值、每个band的种子
+		private long[] rowSeeds;
+		private long[] bandSeeds;
+		// 签名，在各用户之间复用
+		private long[] signature;
+		// 输出对象复用
+		private final LongWritable bucketKey = new LongWritable();
+		private final RatingVectorWritable member = new RatingVectorWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+			hashing = hashing(conf);
+			metric = SimilarityMetric.get(conf);
+			bands = conf.getInt(CONF_LSH_BANDS, 16);
+			rows = rows(conf);
+			long seed = conf.getLong(CONF_LSH_SEED, 1);
+			rowSeeds = new long[bands * rows];
+			for (int r = 0; r < rowSeeds.length; r++) {
+				rowSeeds[r] = mix(seed + (r + 1) * 0x9E3779B97F4A7C15L);
+			}
+			bandSeeds = new long[bands];
+			for (int b = 0; b < bands; b++) {
+				bandSeeds[b] = mix(~seed - (b + 1) * 0x9E3779B97F4A7C15L);
+			}
+			signature = new long[bands * rows];
+		}
+
+		@Override
+		protected void map(IntWritable key, RatingVectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			// 没有评分的用户与任何用户都没有共同评分
+			if (!sign(value)) {
+				return;
+			}
+			context.getCounter(LshCounter.SIGNED_USERS).increment(1);
+			member.clear(key.get());
+			member.addAll(value);
+			for (int b = 0; b < bands; b++) {
+				long hash = bandSeeds[b];
+				for (int r = b * rows; r < (b + 1) * rows; r++) {
+					hash = mix(hash ^ signature[r]);
+				}
+				bucketKey.set(((long) b << (64 - BAND_BITS)) | (hash >>> BAND_BITS));
+				context.write(bucketKey, member);
+			}
+		}
+
+		// 计算签名，没有评分（不为0.0）时返回false
+		private boolean sign(RatingVectorWritable value) {
+			if (hashing == Hashing.MINHASH) {
+				Arrays.fill(signature, Long.MAX_VALUE);
+				boolean rated = false;
+				for (int i = 0; i < value.size(); i++) {
+					if (value.score(i) == 0.0f) {
+						continue;
+					}
+					rated = true;
+					int movieId = value.movieId(i);
+					for (int r = 0; r < signature.length; r++) {
+						signature[r] = Math.min(signature[r], mix(rowSeeds[r] ^ movieId));
+					}
+				}
+				return rated;
+			}
+
+			// simhash：pearson、adjusted-cosine按去掉平均分后的评分
+			double sum = 0.0;
+			int counts = 0;
+			for (int i = 0; i < value.size(); i++) {
+				if (value.score(i) != 0.0f) {
+					sum += value.score(i);
+					counts++;
+				}
+			}
+			if (counts == 0) {
+				return false;
+			}
+			double mean = metric == SimilarityMetric.PEARSON || metric == SimilarityMetric.ADJUSTED_COSINE
+					? sum / counts : 0.0;
+			for (int r = 0; r < signature.length; r++) {
+				double projection = 0.0;
+				for (int i = 0; i < value.size(); i++) {
+					if (value.score(i) != 0.0f) {
+						// 随机超平面在该电影上的分量为±1，由哈希值的符号位决定
+						double weight = value.score(i) - mean;
+						projection += mix(rowSeeds[r] ^ value.movieId(i)) < 0 ? -weight : weight;
+					}
+				}
+				signature[r] = projection >= 0.0 ? 1 : 0;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: BucketSimilarityReducer
+	 * </p>
+	 * <p>
+	 * Description: LSH候选用户对作业Reducer类，同桶用户两两计算相似度并按两个方向输出，相似度行与SimilarityReducer相同
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class BucketSimilarityReducer
+			extends Reducer<LongWritable, RatingVectorWritable, IntWritable, NeighbourWritable> {
+
+		// 相似度计算方法
+		private SimilarityMetric metric;
+		// 每个桶最多计算的用户数
+		private int bucketLimit;
+		// 当前桶的用户，对象在各桶之间复用
+		private Member[] members = new Member[16];
+		private long[] sortKeys = new long[16];
+		// 输出对象复用
+		private final PairStatsWritable stats = new PairStatsWritable();
+		private final IntWritable userKey = new IntWritable();
+		private final NeighbourWritable neighbour = new NeighbourWritable();
+
+		@Override
+		protected void setup(Context context) throws IOException, InterruptedException {
+			metric = SimilarityMetric.get(context.getConfiguration());
+			bucketLimit = context.getConfiguration().getInt(CONF_LSH_BUCKET_LIMIT, 1000);
+		}
+
+		@Override
+		protected void reduce(LongWritable key, Iterable<RatingVectorWritable> values, Context context)
+				throws IOException, InterruptedException {
+			int size = 0;
+			for (RatingVectorWritable value : values) {
+				if (size == bucketLimit) {
+					context.getCounter(LshCounter.OVERSIZED_BUCKETS).increment(1);
+					break;
+				}
+				if (size == members.length) {
+					members = Arrays.copyOf(members, size * 2);
+				}
+				if (members[size] == null) {
+					members[size] = new Member();
+				}
+				members[size++].set(value);
+			}
+			if (size < 2) {
+				return;
+			}
+			context.getCounter(LshCounter.BUCKETS).increment(1);
+
+			for (int i = 0; i < size; i++) {
+				for (int j = i + 1; j < size; j++) {
+					Member first = members[i].userId < members[j].userId ? members[i] : members[j];
+					Member second = first == members[i] ? members[j] : members[i];
+					context.getCounter(LshCounter.CANDIDATE_PAIRS).increment(1);
+					stats.clear(metric.statistics());
+					if (!accumulate(first, second, stats.get())) { // 没有共同评分，精确计算中也没有该用户对
+						continue;
+					}
+					context.getCounter(LshCounter.SIMILAR_PAIRS).increment(1);
+
+					double similarityAll = metric.userStatistics() == 0 ? metric.finish(stats.get(), null, null)
+							: metric.finish(stats.get(), first.userStats.get(), second.userStats.get());
+					userKey.set(first.userId);
+					neighbour.set(second.userId, similarityAll);
+					context.write(userKey, neighbour);
+					userKey.set(second.userId);
+					neighbour.set(first.userId, similarityAll);
+					context.write(userKey, neighbour);
+				}
+			}
+		}
+
+		// 按电影ID合并两个用户的评分，累加共同评分电影上的统计量，与CoRatingPairReducer相同：
+		// 同一用户对同一电影有多条评分时，两个用户的每两条评分都计算一次
+		private boolean accumulate(Member first, Member second, double[] pairStats) {
+			boolean coRated = false;
+			int i = 0, j = 0;
+			while (i < first.size && j < second.size) {
+				int movie1 = first.movieIds[i];
+				int movie2 = second.movieIds[j];
+				if (movie1 < movie2) {
+					i++;
+				} else if (movie1 > movie2) {
+					j++;
+				} else {
+					int end1 = i, end2 = j;
+					while (end1 < first.size && first.movieIds[end1] == movie1) {
+						end1++;
+					}
+					while (end2 < second.size && second.movieIds[end2] == movie2) {
+						end2++;
+					}
+					for (int x = i; x < end1; x++) {
+						for (int y = j; y < end2; y++) {
+							// 统计量中的评分顺序与用户对中的用户顺序一致（ID较小的在前）
+							metric.accumulate(pairStats, first.scores[x], second.scores[y]);
+						}
+					}
+					coRated = true;
+					i = end1;
+					j = end2;
+				}
+			}
+			return coRated;
+		}
+
+		/**
+		 *
+		 * <p>
+		 * Title: Member
+		 * </p>
+		 * <p>
+		 * Description: 桶中的一个用户：按电影ID排序的非0评分、用户统计量，数组在各桶之间复用
+		 * </p>
+		 *
+		 * @author Gu Yongtao
+		 * @date 2026年10月18日
+		 */
+		private class Member {
+			int userId;
+			int size;
+			int[] movieIds = new int[16];
+			float[] scores = new float[16];
+			final PairStatsWritable userStats = new PairStatsWritable();
+
+			void set(RatingVectorWritable vector) {
+				userId = vector.getUserId();
+				CollaborativeFilteringByUser.accumulateUser(metric, vector, userStats);
+
+				// 非0评分按 (电影ID, 原下标) 排序，同一电影的多条评分保持原顺序
+				if (sortKeys.length < vector.size()) {
+					sortKeys = new long[vector.size()];
+				}
+				size = 0;
+				for (int i = 0; i < vector.size(); i++) {
+					if (vector.score(i) != 0.0f) {
+						sortKeys[size++] = ((long) vector.movieId(i) << 32) | i;
+					}
+				}
+				Arrays.sort(sortKeys, 0, size);
+				if (movieIds.length < size) {
+					movieIds = new int[size];
+					scores = new float[size];
+				}
+				for (int i = 0; i < size; i++) {
+					movieIds[i] = (int) (sortKeys[i] >>> 32);
+					scores[i] = vector.score((int) sortKeys[i]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * @FileName: MovieBlockKey.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 共同评分用户对作业的map输出key：int电影ID、short块1、short块2、int(一侧标记|用户ID)，定长12字节
+ *
+ * 评分人数多的热门电影按用户ID把评分用户分为B块，(电影, 块1, 块2)（块1≤块2）为一个子任务，
+ * 块1=块2时计算块内的用户对，否则计算块1与块2之间的用户对，一部电影的用户对分散到B×(B+1)/2个reduce分组中；
+ * 其他电影只有(电影, 0, 0)一个分组，与原来按电影分组相同。
+ * 分区、分组只比较前8字节（BlockPartitioner、GroupComparator），排序比较全部12字节（二次排序），
+ * 同一分组内块1一侧的评分在前，且按用户ID递增，reducer可以先缓存块1一侧，再逐条处理块2一侧。
+ *
+ * @Date: 2026年10月18日
+ */
+public class MovieBlockKey implements WritableComparable<MovieBlockKey> {
+	// 序列化后的字节数
+	public static final int LENGTH = 12;
+	// 分区、分组比较的字节数：电影ID、块1、块2
+	public static final int GROUP_LENGTH = 8;
+	// 块2一侧的标记位
+	private static final int SECOND_SIDE = 0x80000000;
+
+	// 电影ID
+	private int movieId;
+	// 块1、块2
+	private short firstBlock;
+	private short secondBlock;
+	// 最高位为块2一侧的标记，其余为用户ID
+	private int sideUser;
+
+	public MovieBlockKey() {
+	}
+
+	/**
+	 *
+	 * @Title：set
+	 * @Description: 设置key，对象可复用
+	 * @Param: @param movieId
+	 * @Param: @param firstBlock 块1
+	 * @Param: @param secondBlock 块2，不小于块1
+	 * @Param: @param secondSide 是否为块2一侧的评分（块1=块2时为false）
+	 * @Param: @param userId
+	 * @Return: void
+	 */
+	public void set(int movieId, int firstBlock, int secondBlock, boolean secondSide, int userId) {
+		this.movieId = movieId;
+		this.firstBlock = (short) firstBlock;
+		this.secondBlock = (short) secondBlock;
+		this.sideUser = secondSide ? userId | SECOND_SIDE : userId;
+	}
+
+	public int getMovieId() {
+		return movieId;
+	}
+
+	public int getFirstBlock() {
+		return firstBlock;
+	}
+
+	public int getSecondBlock() {
+		return secondBlock;
+	}
+
+	// 是否为块内的分组（块1=块2）
+	public boolean isDiagonal() {
+		return firstBlock == secondBlock;
+	}
+
+	public boolean isSecondSide() {
+		return (sideUser & SECOND_SIDE) != 0;
+	}
+
+	public int getUserId() {
+		return sideUser & ~SECOND_SIDE;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(movieId);
+		out.writeShort(firstBlock);
+		out.writeShort(secondBlock);
+		out.writeInt(sideUser);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		movieId = in.readInt();
+		firstBlock = in.readShort();
+		secondBlock = in.readShort();
+		sideUser = in.readInt();
+	}
+
+	@Override
+	public int compareTo(MovieBlockKey o) {
+		int result = compareGroup(o);
+		return result != 0 ? result : Integer.compareUnsigned(sideUser, o.sideUser);
+	}
+
+	// 按 电影ID、块1、块2 比较，与字节比较的结果一致（各字段均不为负）
+	private int compareGroup(MovieBlockKey o) {
+		if (movieId != o.movieId) {
+			return movieId < o.movieId ? -1 : 1;
+		}
+		if (firstBlock != o.firstBlock) {
+			return firstBlock < o.firstBlock ? -1 : 1;
+		}
+		return Integer.compare(secondBlock, o.secondBlock);
+	}
+
+	// 分区、分组共用的哈希值，只取决于 电影ID、块1、块2
+	private static int groupHash(int movieId, int firstBlock, int secondBlock) {
+		int hash = 31 * (31 * movieId + firstBlock) + secondBlock;
+		// 打散低位，使同一电影的各子任务分到不同的reduce任务
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+	@Override
+	public int hashCode() {
+		return groupHash(movieId, firstBlock, secondBlock);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof MovieBlockKey)) {
+			return false;
+		}
+		MovieBlockKey o = (MovieBlockKey) obj;
+		return movieId == o.movieId && firstBlock == o.firstBlock && secondBlock == o.secondBlock
+				&& sideUser == o.sideUser;
+	}
+
+	@Override
+	public String toString() {
+		return movieId + "$" + firstBlock + "$" + secondBlock + "$" + (isSecondSide() ? "2" : "1") + "$"
+				+ getUserId();
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Comparator
+	 * </p>
+	 * <p>
+	 * Description: 排序比较器，直接比较全部12字节：电影ID、块1、块2、一侧标记、用户ID
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(MovieBlockKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareBytes(b1, s1, LENGTH, b2, s2, LENGTH);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: GroupComparator
+	 * </p>
+	 * <p>
+	 * Description: 分组比较器，只比较前8字节，同一 电影、块1、块2 的评分进入同一次reduce调用
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class GroupComparator extends WritableComparator {
+
+		public GroupComparator() {
+			super(MovieBlockKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareBytes(b1, s1, GROUP_LENGTH, b2, s2, GROUP_LENGTH);
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public int compare(WritableComparable a, WritableComparable b) {
+			return ((MovieBlockKey) a).compareGroup((MovieBlockKey) b);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: BlockPartitioner
+	 * </p>
+	 * <p>
+	 * Description: 按 电影、块1、块2 分区，忽略用户ID，同一分组的评分进入同一个reduce任务，热门电影的各子任务分散到不同的reduce任务
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class BlockPartitioner extends Partitioner<MovieBlockKey, FloatWritable> {
+
+		@Override
+		public int getPartition(MovieBlockKey key, FloatWritable value, int numPartitions) {
+			return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+		}
+	}
+
+	static {
+		WritableComparator.define(MovieBlockKey.class, new Comparator());
+	}
+}
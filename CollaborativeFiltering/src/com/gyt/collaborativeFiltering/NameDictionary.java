@@ -0,0 +1,79 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @FileName: NameDictionary.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 名称与ID的对照表（用户名或电影名），由字典作业生成，每行格式：ID(Tab)名称
+ *
+ * ID从0开始连续分配，可直接作为数组下标使用。
+ *
+ * @Date: 2026年10月18日
+ */
+public class NameDictionary {
+	// 下标即ID
+	private final List<String> names = new ArrayList<>();
+	// key=名称，value=ID
+	private final Map<String, Integer> ids = new HashMap<>();
+
+	/**
+	 *
+	 * @Title：load
+	 * @Description: 读取本地字典文件（分布式缓存中的文件在任务工作目录下以链接名出现）
+	 * @Param: @param file
+	 * @Return: NameDictionary
+	 */
+	public static NameDictionary load(File file) throws IOException {
+		NameDictionary dictionary = new NameDictionary();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+			String strLine = null;
+			while ((strLine = reader.readLine()) != null) {
+				int index = strLine.indexOf("\t");
+				if (index < 0) {
+					continue;
+				}
+				dictionary.put(Integer.parseInt(strLine.substring(0, index)), strLine.substring(index + 1));
+			}
+		}
+		return dictionary;
+	}
+
+	private void put(int id, String name) {
+		while (names.size() <= id) {
+			names.add(null);
+		}
+		names.set(id, name);
+		ids.put(name, id);
+	}
+
+	/**
+	 *
+	 * @Title：id
+	 * @Description: 名称对应的ID，不存在返回-1
+	 * @Param: @param name
+	 * @Return: int
+	 */
+	public int id(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	public int size() {
+		return names.size();
+	}
+}
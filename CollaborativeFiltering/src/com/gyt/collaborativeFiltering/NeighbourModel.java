@@ -0,0 +1,344 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * @FileName: NeighbourModel.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 相似用户模型：每个用户最相似的K个用户ID及总相似度，定长二进制格式，用FileChannel.map只读映射后直接访问
+ *
+ * 文件格式（大端，与DataOutput一致）：
+ * 	头部16字节：int MAGIC、int VERSION、int 用户数n、int K
+ * 	int[n] 各用户实际的相似用户数（不足K个时其余位置填-1、0.0）
+ * 	int[n×K] 相似用户ID，用户u的第i个位于 (u×K+i)×4
+ * 	（补齐到8字节边界）
+ * 	double[n×K] 总相似度，与相似用户ID一一对应
+ * 每个用户的位置由用户ID直接算出，打开时不需要反序列化，也不创建任何对象；
+ * 多个进程映射同一文件时共享操作系统的页缓存。
+ *
+ * @Date: 2026年10月18日
+ */
+public class NeighbourModel {
+	// 文件标识 "CFNM"
+	public static final int MAGIC = 0x43464E4D;
+	public static final int VERSION = 1;
+	public static final int HEADER_LENGTH = 16;
+	// 单个MappedByteBuffer最大2GB，ID、相似度按行分段映射，每段不超过1GB
+	private static final long SEGMENT_LENGTH = 1L << 30;
+	// write依次写出的三个区
+	private static final int COUNTS_SECTION = 0;
+	private static final int NEIGHBOURS_SECTION = 1;
+	private static final int SIMILARITIES_SECTION = 2;
+
+	private final int userCounts;
+	private final int k;
+	// 每段的用户数
+	private final int segmentUsers;
+	private final MappedByteBuffer counts;
+	private final MappedByteBuffer[] neighbours;
+	private final MappedByteBuffer[] similarities;
+
+	private NeighbourModel(FileChannel channel, int userCounts, int k) throws IOException {
+		this.userCounts = userCounts;
+		this.k = k;
+		segmentUsers = k == 0 ? Math.max(1, userCounts) : (int) Math.max(1, SEGMENT_LENGTH / (k * 8L));
+		int segments = (userCounts + segmentUsers - 1) / segmentUsers;
+		counts = channel.map(MapMode.READ_ONLY, HEADER_LENGTH, userCounts * 4L);
+		neighbours = new MappedByteBuffer[segments];
+		similarities = new MappedByteBuffer[segments];
+		long neighboursOffset = HEADER_LENGTH + userCounts * 4L;
+		long similaritiesOffset = similaritiesOffset(userCounts, k);
+		for (int s = 0; s < segments; s++) {
+			long first = (long) s * segmentUsers;
+			long users = Math.min(segmentUsers, userCounts - first);
+			neighbours[s] = channel.map(MapMode.READ_ONLY, neighboursOffset + first * k * 4L, users * k * 4L);
+			similarities[s] = channel.map(MapMode.READ_ONLY, similaritiesOffset + first * k * 8L, users * k * 8L);
+		}
+	}
+
+	// 相似度区的起始位置，补齐到8字节
+	private static long similaritiesOffset(int userCounts, int k) {
+		long offset = HEADER_LENGTH + userCounts * 4L + (long) userCounts * k * 4L;
+		return (offset + 7) & ~7L;
+	}
+
+	// 文件总长度
+	private static long length(int userCounts, int k) {
+		return similaritiesOffset(userCounts, k) + (long) userCounts * k * 8L;
+	}
+
+	/**
+	 *
+	 * @Title：open
+	 * @Description: 只读映射本地的模型文件，映射建立后即可关闭文件
+	 * @Param: @param file
+	 * @Return: NeighbourModel
+	 */
+	public static NeighbourModel open(File file) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			if (channel.size() < HEADER_LENGTH) {
+				throw new IOException("not a neighbour model: " + file);
+			}
+			MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_LENGTH);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException("not a neighbour model: " + file);
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException("unsupported neighbour model version " + header.getInt(4) + ": " + file);
+			}
+			int userCounts = header.getInt(8);
+			int k = header.getInt(12);
+			if (channel.size() != length(userCounts, k)) {
+				throw new IOException("truncated neighbour model: " + file);
+			}
+			return new NeighbourModel(channel, userCounts, k);
+		}
+	}
+
+	/**
+	 *
+	 * @Title：open
+	 * @Description: 将HDFS上的模型文件复制到本地（见copyToLocal）后映射
+	 * @Param: @param conf
+	 * @Param: @param model HDFS上的模型文件
+	 * @Param: @param local 本地文件
+	 * @Return: NeighbourModel
+	 */
+	public static NeighbourModel open(Configuration conf, Path model, File local) throws IOException {
+		copyToLocal(conf, model, local);
+		return open(local);
+	}
+
+	/**
+	 *
+	 * @Title：copyToLocal
+	 * @Description: 将HDFS上的文件复制到本地；本地文件的大小、修改时间都与HDFS上的文件相同时不复制。
+	 * 		重新计算后文件大小通常不变，只比较大小会继续使用旧文件，因此复制后将本地文件的修改时间设为HDFS上的修改时间。
+	 * 		先复制到同目录的临时文件再改名替换，复制中途失败不会留下不完整的文件，已映射旧文件的进程也不受影响
+	 * @Param: @param conf
+	 * @Param: @param remote HDFS上的文件
+	 * @Param: @param local 本地文件
+	 * @Return: void
+	 */
+	static void copyToLocal(Configuration conf, Path remote, File local) throws IOException {
+		FileSystem fileSystem = remote.getFileSystem(conf);
+		FileStatus status = fileSystem.getFileStatus(remote);
+		if (local.exists() && local.length() == status.getLen() && local.lastModified() == status.getModificationTime()) {
+			return;
+		}
+		File temp = File.createTempFile("." + local.getName() + ".", ".tmp", local.getAbsoluteFile().getParentFile());
+		try {
+			fileSystem.copyToLocalFile(false, remote, new Path(temp.getAbsolutePath()), true);
+			if (!temp.setLastModified(status.getModificationTime())) {
+				throw new IOException("cannot set modification time: " + temp);
+			}
+			Files.move(temp.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 *
+	 * @Title：write
+	 * @Description: 读取相似用户作业的输出（SequenceFile，key=用户ID，value=(相似用户ID, 总相似度)，
+	 * 		每个文件内按用户ID升序，同一用户的记录连续且已按相似度从高到低排列），写成模型文件；
+	 * 		按用户ID归并各文件，依次写出相似用户数、相似用户ID、总相似度三个区，每个区读一遍输入，不在内存中保存 n×K 的数组
+	 * @Param: @param conf
+	 * @Param: @param pattern 相似用户文件，可含通配符
+	 * @Param: @param userCounts
+	 * @Param: @param k
+	 * @Param: @param model 输出的模型文件，已存在时覆盖
+	 * @Return: void
+	 */
+	public static void write(Configuration conf, Path pattern, int userCounts, int k, Path model) throws IOException {
+		FileStatus[] files = pattern.getFileSystem(conf).globStatus(pattern);
+		FileSystem fileSystem = model.getFileSystem(conf);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(fileSystem.create(model, true), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(userCounts);
+			out.writeInt(k);
+			writeSection(conf, files, userCounts, k, COUNTS_SECTION, out);
+			writeSection(conf, files, userCounts, k, NEIGHBOURS_SECTION, out);
+			// 补齐到8字节边界
+			long written = HEADER_LENGTH + userCounts * 4L + (long) userCounts * k * 4L;
+			for (long i = written; i < similaritiesOffset(userCounts, k); i++) {
+				out.writeByte(0);
+			}
+			writeSection(conf, files, userCounts, k, SIMILARITIES_SECTION, out);
+		}
+	}
+
+	// 按用户ID归并读取各文件，写出一个区：各用户的相似用户数，或每个用户K个相似用户ID（不足时填-1）、总相似度（不足时填0.0）
+	private static void writeSection(Configuration conf, FileStatus[] files, int userCounts, int k, int section,
+			DataOutputStream out) throws IOException {
+		List<SequenceFile.Reader> readers = new ArrayList<>();
+		try {
+			// 各文件当前的相似用户，按用户ID归并
+			PriorityQueue<Head> heads = new PriorityQueue<>(16, new Comparator<Head>() {
+				@Override
+				public int compare(Head o1, Head o2) {
+					return Integer.compare(o1.key.get(), o2.key.get());
+				}
+			});
+			if (files != null) {
+				for (FileStatus file : files) {
+					SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()));
+					readers.add(reader);
+					Head head = new Head(reader);
+					if (head.next()) {
+						heads.add(head);
+					}
+				}
+			}
+			int nextUser = 0;
+			int count = 0;
+			while (!heads.isEmpty()) {
+				Head head = heads.poll();
+				int userId = head.key.get();
+				if (userId < nextUser || userId >= userCounts) {
+					throw new IOException("neighbours not sorted by user at user " + userId);
+				}
+				while (nextUser < userId) { // 上一个用户结束，之间的用户没有相似用户
+					endUser(k, section, count, out);
+					count = 0;
+					nextUser++;
+				}
+				// 同一用户的记录在同一文件中连续
+				boolean more;
+				do {
+					if (count == k) {
+						throw new IOException("more than " + k + " neighbours for user " + userId);
+					}
+					if (section == NEIGHBOURS_SECTION) {
+						out.writeInt(head.value.getUserId());
+					} else if (section == SIMILARITIES_SECTION) {
+						out.writeDouble(head.value.getSimilarity());
+					}
+					count++;
+				} while ((more = head.next()) && head.key.get() == userId);
+				if (more) {
+					heads.add(head);
+				}
+			}
+			while (nextUser < userCounts) {
+				endUser(k, section, count, out);
+				count = 0;
+				nextUser++;
+			}
+		} finally {
+			for (SequenceFile.Reader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	// 一个用户的记录结束：写出相似用户数，或将该用户的行补齐到K个
+	private static void endUser(int k, int section, int count, DataOutputStream out) throws IOException {
+		if (section == COUNTS_SECTION) {
+			out.writeInt(count);
+			return;
+		}
+		for (int i = count; i < k; i++) {
+			if (section == NEIGHBOURS_SECTION) {
+				out.writeInt(-1);
+			} else {
+				out.writeDouble(0.0);
+			}
+		}
+	}
+
+	public int userCounts() {
+		return userCounts;
+	}
+
+	public int k() {
+		return k;
+	}
+
+	/**
+	 *
+	 * @Title：size
+	 * @Description: 用户实际的相似用户数，不超过K
+	 * @Param: @param userId
+	 * @Return: int
+	 */
+	public int size(int userId) {
+		return counts.getInt(userId * 4);
+	}
+
+	/**
+	 *
+	 * @Title：neighbour
+	 * @Description: 用户的第i个相似用户ID，按总相似度从高到低
+	 * @Param: @param userId
+	 * @Param: @param i 0 ≤ i < size(userId)
+	 * @Return: int
+	 */
+	public int neighbour(int userId, int i) {
+		return neighbours[userId / segmentUsers].getInt(((userId % segmentUsers) * k + i) * 4);
+	}
+
+	/**
+	 *
+	 * @Title：similarity
+	 * @Description: 用户与其第i个相似用户的总相似度
+	 * @Param: @param userId
+	 * @Param: @param i 0 ≤ i < size(userId)
+	 * @Return: double
+	 */
+	public double similarity(int userId, int i) {
+		return similarities[userId / segmentUsers].getDouble(((userId % segmentUsers) * k + i) * 8);
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Head
+	 * </p>
+	 * <p>
+	 * Description: 归并时一个相似用户文件的当前记录
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static class Head {
+		final SequenceFile.Reader reader;
+		final IntWritable key = new IntWritable();
+		final NeighbourWritable value = new NeighbourWritable();
+
+		Head(SequenceFile.Reader reader) {
+			this.reader = reader;
+		}
+
+		boolean next() throws IOException {
+			return reader.next(key, value);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * @FileName: NeighbourWritable.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 相似用户：用户ID及其与key所代表用户之间的总相似度
+ *
+ * @Date: 2026年10月18日
+ */
+public class NeighbourWritable implements Writable {
+	// 用户ID
+	private int userId;
+	// 总相似度
+	private double similarity;
+
+	public NeighbourWritable() {
+	}
+
+	public NeighbourWritable(int userId, double similarity) {
+		set(userId, similarity);
+	}
+
+	public void set(int userId, double similarity) {
+		this.userId = userId;
+		this.similarity = similarity;
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	public double getSimilarity() {
+		return similarity;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(userId);
+		out.writeDouble(similarity);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		userId = in.readInt();
+		similarity = in.readDouble();
+	}
+
+	@Override
+	public String toString() {
+		return userId + "$" + similarity;
+	}
+}
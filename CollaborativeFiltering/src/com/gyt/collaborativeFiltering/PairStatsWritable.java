@@ -0,0 +1,96 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * @FileName: PairStatsWritable.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 一个用户对的相似度统计量，double数组，个数由所选的SimilarityMetric决定
+ *
+ * 各统计量都是对电影求和，因此可以在Combiner中逐项相加；反序列化时复用已分配的数组。
+ *
+ * @Date: 2026年10月18日
+ */
+public class PairStatsWritable implements Writable {
+	// 统计量个数
+	private int size = 0;
+	// 统计量
+	private double[] stats = new double[1];
+
+	public PairStatsWritable() {
+	}
+
+	/**
+	 *
+	 * @Title：clear
+	 * @Description: 设置统计量个数并全部置0
+	 * @Param: @param size
+	 * @Return: void
+	 */
+	public void clear(int size) {
+		if (stats.length < size) {
+			stats = new double[size];
+		}
+		Arrays.fill(stats, 0, size, 0.0);
+		this.size = size;
+	}
+
+	/**
+	 *
+	 * @Title：add
+	 * @Description: 逐项加上另一个用户对统计量
+	 * @Param: @param other
+	 * @Return: void
+	 */
+	public void add(PairStatsWritable other) {
+		for (int i = 0; i < size; i++) {
+			stats[i] += other.stats[i];
+		}
+	}
+
+	/**
+	 *
+	 * @Title：get
+	 * @Description: 统计量数组，长度可能大于size，只有前size项有效
+	 * @Return: double[]
+	 */
+	public double[] get() {
+		return stats;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, size);
+		for (int i = 0; i < size; i++) {
+			out.writeDouble(stats[i]);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int length = WritableUtils.readVInt(in);
+		if (stats.length < length) {
+			stats = new double[length];
+		}
+		for (int i = 0; i < length; i++) {
+			stats[i] = in.readDouble();
+		}
+		size = length;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(Arrays.copyOf(stats, size));
+	}
+}
@@ -0,0 +1,66 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * @FileName: RatingChangeWritable.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 增量更新中一个用户对某部电影的评分变化：int用户ID、float原评分、float新评分，定长12字节
+ *
+ * 电影ID为key，不在value中重复保存。原评分为0.0表示新增的评分；未变化的评分原评分与新评分相同。
+ *
+ * @Date: 2026年10月18日
+ */
+public class RatingChangeWritable implements Writable {
+	// 用户ID
+	private int userId;
+	// 原评分
+	private float oldScore;
+	// 新评分
+	private float newScore;
+
+	public RatingChangeWritable() {
+	}
+
+	public void set(int userId, float oldScore, float newScore) {
+		this.userId = userId;
+		this.oldScore = oldScore;
+		this.newScore = newScore;
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	public float getOldScore() {
+		return oldScore;
+	}
+
+	public float getNewScore() {
+		return newScore;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(userId);
+		out.writeFloat(oldScore);
+		out.writeFloat(newScore);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		userId = in.readInt();
+		oldScore = in.readFloat();
+		newScore = in.readFloat();
+	}
+
+	@Override
+	public String toString() {
+		return userId + "$" + oldScore + "$" + newScore;
+	}
+}
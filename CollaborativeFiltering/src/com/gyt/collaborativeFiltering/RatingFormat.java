@@ -0,0 +1,225 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FixedLengthInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ * @FileName: RatingFormat.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 源数据格式，由配置项colfilter.input.format选择，默认lines
+ *
+ * lines：每行一个用户，用户(Tab)电影1$评分;电影2$评分;......，即generateSourceData生成的格式
+ * triples：每行一条评分，用户,电影,评分，只列出实际的评分，文件大小与map工作量随评分数增长，而不是随 用户数×电影数 增长
+ * binary：每条评分定长BINARY_LENGTH（12）字节，int用户ID、int电影ID、float评分（大端，即DataOutput.writeInt/writeFloat的格式），
+ * 	用FixedLengthInputFormat读取，不需要文本解析；ID可以不连续，字典作业以其十进制字符串为名称重新分配连续ID
+ *
+ * 字典、评分向量两个作业的Mapper用parse将一条输入解析为RatingRecord，之后的处理与格式无关。
+ * 空行与格式错误的行（字段数不对、评分不是有限的数字，如CSV的表头）都返回false、不抛出异常，
+ * 后者由RatingRecord.malformed()区分，调用者计入StageCounter.BAD_RECORDS后跳过。
+ * 稀疏格式中没有列出的电影按未评分处理，legacy方法的非稀疏模式下仍按0.0参与计算，结果与每行列出全部电影时一致。
+ *
+ * @Date: 2026年10月18日
+ */
+public enum RatingFormat {
+	LINES {
+		@Override
+		protected boolean read(Object value, RatingRecord record) {
+			// 分割数据
+			StringTokenizer sTokenizer = new StringTokenizer(value.toString());
+			int tokens = sTokenizer.countTokens();
+			if (tokens < 2) { // 空行，或没有评分的用户
+				return false;
+			}
+			if (tokens > 2) {
+				return record.malformed();
+			}
+			record.clear(sTokenizer.nextToken());
+
+			// 分割电影$评分
+			sTokenizer = new StringTokenizer(sTokenizer.nextToken(), ";");
+			while (sTokenizer.hasMoreTokens()) {
+				String string = sTokenizer.nextToken();
+				// $的下标
+				int index = string.indexOf("$");
+				float score = index > 0 ? score(string.substring(index + 1)) : Float.NaN;
+				if (Float.isNaN(score)) {
+					return record.malformed();
+				}
+				record.add(string.substring(0, index), score);
+			}
+			return true;
+		}
+	},
+
+	TRIPLES {
+		@Override
+		protected boolean read(Object value, RatingRecord record) {
+			String line = value.toString();
+			if (line.trim().isEmpty()) { // 空行
+				return false;
+			}
+			int first = line.indexOf(',');
+			int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+			if (second < 0 || line.indexOf(',', second + 1) >= 0) { // 不是三个字段
+				return record.malformed();
+			}
+			String user = line.substring(0, first).trim();
+			String movie = line.substring(first + 1, second).trim();
+			float score = score(line.substring(second + 1));
+			if (user.isEmpty() || movie.isEmpty() || Float.isNaN(score)) {
+				return record.malformed();
+			}
+			record.clear(user);
+			record.add(movie, score);
+			return true;
+		}
+	},
+
+	BINARY {
+		@Override
+		protected boolean read(Object value, RatingRecord record) {
+			byte[] bytes = ((BytesWritable) value).getBytes();
+			record.clear(Integer.toString(WritableComparator.readInt(bytes, 0)));
+			record.add(Integer.toString(WritableComparator.readInt(bytes, 4)), WritableComparator.readFloat(bytes, 8));
+			return true;
+		}
+
+		@Override
+		public void addInputPath(Job job, Path input) throws IOException {
+			job.setInputFormatClass(FixedLengthInputFormat.class);
+			FixedLengthInputFormat.setRecordLength(job.getConfiguration(), BINARY_LENGTH);
+			FileInputFormat.addInputPath(job, input);
+		}
+	};
+
+	// binary格式每条评分的字节数
+	public static final int BINARY_LENGTH = 12;
+
+	/**
+	 *
+	 * @Title：parse
+	 * @Description: 将一条输入解析到record中
+	 * @Param: @param value lines、triples为Text，binary为BytesWritable
+	 * @Param: @param record 复用的解析结果
+	 * @Return: boolean 空行、格式错误时返回false，格式错误时record.isMalformed()为true，不抛出异常
+	 */
+	public boolean parse(Object value, RatingRecord record) {
+		record.malformed = false;
+		return read(value, record);
+	}
+
+	// 各格式的解析，格式错误时返回record.malformed()
+	protected abstract boolean read(Object value, RatingRecord record);
+
+	// 解析评分，不是有限的数字时返回NaN
+	private static float score(String text) {
+		try {
+			float score = Float.parseFloat(text.trim());
+			return Float.isInfinite(score) ? Float.NaN : score;
+		} catch (NumberFormatException e) {
+			return Float.NaN;
+		}
+	}
+
+	/**
+	 *
+	 * @Title：addInputPath
+	 * @Description: 为读取源数据的作业设置输入格式并添加输入目录
+	 * @Param: @param job
+	 * @Param: @param input
+	 * @Return: void
+	 */
+	public void addInputPath(Job job, Path input) throws IOException {
+		job.setInputFormatClass(TextInputFormat.class);
+		FileInputFormat.addInputPath(job, input);
+	}
+
+	/**
+	 *
+	 * @Title：get
+	 * @Description: 读取配置项colfilter.input.format，不区分大小写
+	 * @Param: @param conf
+	 * @Return: RatingFormat
+	 */
+	public static RatingFormat get(Configuration conf) {
+		return forName(conf.get(CollaborativeFilteringByUser.CONF_INPUT_FORMAT, LINES.name()));
+	}
+
+	public static RatingFormat forName(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: RatingRecord
+	 * </p>
+	 * <p>
+	 * Description: 一条输入解析后的结果：一个用户名及其若干条 电影名、评分，各条输入之间复用；
+	 * 		上一条输入格式错误时isMalformed()为true，内容无效
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class RatingRecord {
+		private String user;
+		private String[] movies = new String[16];
+		private float[] scores = new float[16];
+		private int size = 0;
+		private boolean malformed = false;
+
+		public void clear(String user) {
+			this.user = user;
+			size = 0;
+		}
+
+		public void add(String movie, float score) {
+			if (size == movies.length) {
+				movies = Arrays.copyOf(movies, size * 2);
+				scores = Arrays.copyOf(scores, size * 2);
+			}
+			movies[size] = movie;
+			scores[size] = score;
+			size++;
+		}
+
+		public String user() {
+			return user;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public String movie(int i) {
+			return movies[i];
+		}
+
+		public float score(int i) {
+			return scores[i];
+		}
+
+		public boolean isMalformed() {
+			return malformed;
+		}
+
+		// 标记为格式错误，返回parse的结果false
+		boolean malformed() {
+			size = 0;
+			malformed = true;
+			return false;
+		}
+	}
+}
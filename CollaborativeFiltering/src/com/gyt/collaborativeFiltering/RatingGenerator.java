@@ -0,0 +1,510 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @FileName: RatingGenerator.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 流式生成实验评分数据，格式与源数据相同：用户(Tab)电影1$评分;电影2$评分;......
+ *
+ * 1. 逐行生成、经缓冲写入磁盘，内存占用只与电影数有关，与用户数无关，可以生成数百万用户的数据
+ * 2. 每个用户使用由 种子、用户下标 推出的独立随机序列，同样的参数总是生成同样的数据，与输出文件数、线程数无关
+ * 3. 每个用户评价 density×电影数 部电影（zipf>0时为期望值），评分为1.0~5.0，一位小数
+ * 4. zipf为0时每部电影被评价的概率相同；zipf>0时电影热度服从指数为zipf的Zipf分布，热度排名由种子打乱
+ * 5. dense为true时与原生成方式一致，未评价的电影也输出，评分为0.0；为false时只输出评价过的电影
+ * 6. 可按用户拆分为多个文件（各文件用户数相同、连续），作为MapReduce的多个输入分片，并可多线程同时生成
+ * 7. format可选RatingFormat的三种源数据格式：lines（默认，即上面的格式）、triples（用户,电影,评分）、
+ * 	binary（int用户下标、int电影下标、float评分，此时不使用用户名、电影名）；triples、binary只输出评价过的电影
+ *
+ * 参数均为 名称=值，例如：
+ * 	java com.gyt.collaborativeFiltering.RatingGenerator users=1000000 movies=20000 density=0.002 zipf=1.0 \
+ * 		dense=false files=16 threads=4 seed=42 output=/home/hadoop/file/collaborativeFiltering/ratings
+ * 	usersFile、moviesFile 可指定用户名、电影名文件（每行一个），未指定时生成 user1、movie1 形式的名称
+ *
+ * @Date: 2026年10月18日
+ */
+public class RatingGenerator {
+	// 默认随机种子
+	public static final long DEFAULT_SEED = 20181218L;
+
+	// 用户名、电影名
+	private final List<String> usersname;
+	private final List<String> moviesname;
+	// 随机种子
+	private long seed = DEFAULT_SEED;
+	// 每个用户评价过的电影占比
+	private double density = 0.8;
+	// Zipf分布指数，0表示均匀分布
+	private double zipf = 0.0;
+	// 是否输出未评价的电影（评分0.0），只用于lines格式
+	private boolean dense = true;
+	// 输出格式
+	private RatingFormat format = RatingFormat.LINES;
+
+	public RatingGenerator(List<String> usersname, List<String> moviesname) {
+		this.usersname = usersname;
+		this.moviesname = moviesname;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setDensity(double density) {
+		this.density = Math.max(0.0, Math.min(1.0, density));
+	}
+
+	public void setZipf(double zipf) {
+		this.zipf = Math.max(0.0, zipf);
+	}
+
+	public void setDense(boolean dense) {
+		this.dense = dense;
+	}
+
+	public void setFormat(RatingFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 *
+	 * @Title：generate
+	 * @Description: 生成数据；files为1时写入output文件，否则output为目录，写入 part-00000.txt、part-00001.txt ...
+	 * 		（binary格式为 part-00000.bin ...）
+	 * @Param: @param output
+	 * @Param: @param files 输出文件数
+	 * @Param: @param threads 同时生成的文件数
+	 * @Return: void
+	 */
+	public void generate(File output, int files, int threads) throws IOException {
+		final Popularity popularity = new Popularity(moviesname.size(), density, zipf, seed);
+		final int userCounts = usersname.size();
+		files = Math.max(1, Math.min(files, Math.max(1, userCounts)));
+
+		List<File> outputs = new ArrayList<>();
+		if (files == 1) {
+			File parent = output.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			outputs.add(output);
+		} else {
+			output.mkdirs();
+			for (int f = 0; f < files; f++) {
+				outputs.add(new File(output,
+						String.format(format == RatingFormat.BINARY ? "part-%05d.bin" : "part-%05d.txt", f)));
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files)));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int f = 0; f < files; f++) {
+				final File file = outputs.get(f);
+				// 第f个文件的用户下标范围
+				final int from = (int) ((long) userCounts * f / files);
+				final int to = (int) ((long) userCounts * (f + 1) / files);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						writeUsers(file, from, to, popularity);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("generation interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 * @Title：writeUsers
+	 * @Description: 生成下标为[from, to)的用户并写入一个文件
+	 * @Param: @param file
+	 * @Param: @param from
+	 * @Param: @param to
+	 * @Param: @param popularity
+	 * @Return: void
+	 */
+	private void writeUsers(File file, int from, int to, Popularity popularity) throws IOException {
+		if (format == RatingFormat.BINARY) {
+			writeBinary(file, from, to, popularity);
+			return;
+		}
+		int movieCounts = moviesname.size();
+		SplitMix random = new SplitMix();
+		// 每部电影的评分（一位小数×10），0为未评价；各用户之间复用，写完后只清理评价过的电影
+		int[] tenths = new int[movieCounts];
+		int[] ratedMovies = new int[movieCounts];
+		StringBuilder line = new StringBuilder(256);
+
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+				1 << 16)) {
+			for (int i = from; i < to; i++) {
+				random.seed(seed, i);
+				int ratedCounts = popularity.sample(random, tenths, ratedMovies);
+
+				line.setLength(0);
+				if (format == RatingFormat.TRIPLES) {
+					// 每条评分一行：用户,电影,评分
+					for (int r = 0; r < ratedCounts; r++) {
+						line.append(usersname.get(i)).append(',').append(moviesname.get(ratedMovies[r])).append(',');
+						appendScore(line, tenths[ratedMovies[r]]).append('\n');
+					}
+				} else {
+					// 拼接为：用户(Tab)电影1$评分;电影2$评分;电影3$评分;......
+					appendLine(line, usersname.get(i), tenths, ratedMovies, ratedCounts);
+				}
+				writer.append(line);
+
+				for (int r = 0; r < ratedCounts; r++) {
+					tenths[ratedMovies[r]] = 0;
+				}
+			}
+		}
+	}
+
+	// 用户(Tab)电影1$评分;电影2$评分;......(回车换行)
+	private void appendLine(StringBuilder line, String user, int[] tenths, int[] ratedMovies, int ratedCounts) {
+		int movieCounts = moviesname.size();
+		line.append(user).append('\t');
+		if (dense) {
+			for (int j = 0; j < movieCounts; j++) {
+				appendRating(line, moviesname.get(j), tenths[j]);
+			}
+		} else {
+			for (int r = 0; r < ratedCounts; r++) {
+				appendRating(line, moviesname.get(ratedMovies[r]), tenths[ratedMovies[r]]);
+			}
+		}
+		line.append("\r\n");
+	}
+
+	/**
+	 *
+	 * @Title：writeBinary
+	 * @Description: binary格式，每条评分写出 int用户下标、int电影下标、float评分，共12字节
+	 * @Param: @param file
+	 * @Param: @param from
+	 * @Param: @param to
+	 * @Param: @param popularity
+	 * @Return: void
+	 */
+	private void writeBinary(File file, int from, int to, Popularity popularity) throws IOException {
+		SplitMix random = new SplitMix();
+		int[] tenths = new int[moviesname.size()];
+		int[] ratedMovies = new int[moviesname.size()];
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			for (int i = from; i < to; i++) {
+				random.seed(seed, i);
+				int ratedCounts = popularity.sample(random, tenths, ratedMovies);
+				for (int r = 0; r < ratedCounts; r++) {
+					out.writeInt(i);
+					out.writeInt(ratedMovies[r]);
+					out.writeFloat(tenths[ratedMovies[r]] / 10.0f);
+					tenths[ratedMovies[r]] = 0;
+				}
+			}
+		}
+	}
+
+	// 电影$评分;
+	private static void appendRating(StringBuilder line, String movie, int tenths) {
+		appendScore(line.append(movie).append('$'), tenths).append(';');
+	}
+
+	// 评分按一位小数输出，如3.5、0.0
+	private static StringBuilder appendScore(StringBuilder line, int tenths) {
+		return line.append(tenths / 10).append('.').append(tenths % 10);
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Popularity
+	 * </p>
+	 * <p>
+	 * Description: 为一个用户选出评价的电影及评分，不做拒绝后重试的全表扫描
+	 * 		评价数不超过电影数一半时，按热度分布抽样，重复的电影用标记数组跳过，期望代价与评价数成正比；
+	 * 		否则按电影顺序扫描一次：均匀分布下用选择抽样（恰好选出目标数），Zipf分布下每部电影按各自的概率独立选取
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static class Popularity {
+		private final int movieCounts;
+		// 每个用户的目标评价数
+		private final int target;
+		private final boolean uniform;
+		// Zipf分布下，热度排名对应的电影下标
+		private final int[] movieOfRank;
+		// Zipf分布下，按排名的累积概率
+		private final double[] cumulative;
+		// Zipf分布下，每部电影（按下标）被选中的概率，总和为target
+		private final double[] inclusion;
+
+		Popularity(int movieCounts, double density, double zipf, long seed) {
+			this.movieCounts = movieCounts;
+			this.target = (int) Math.round(density * movieCounts);
+			this.uniform = zipf == 0.0;
+			if (uniform) {
+				movieOfRank = null;
+				cumulative = null;
+				inclusion = null;
+				return;
+			}
+
+			// 热度排名由种子打乱，避免总是名单靠前的电影最热门
+			movieOfRank = new int[movieCounts];
+			for (int j = 0; j < movieCounts; j++) {
+				movieOfRank[j] = j;
+			}
+			SplitMix random = new SplitMix();
+			random.seed(seed, -1);
+			for (int j = movieCounts - 1; j > 0; j--) {
+				int other = random.nextInt(j + 1);
+				int tmp = movieOfRank[j];
+				movieOfRank[j] = movieOfRank[other];
+				movieOfRank[other] = tmp;
+			}
+
+			double[] weights = new double[movieCounts];
+			double total = 0.0;
+			for (int rank = 0; rank < movieCounts; rank++) {
+				weights[rank] = 1.0 / Math.pow(rank + 1, zipf);
+				total += weights[rank];
+			}
+			cumulative = new double[movieCounts];
+			double sum = 0.0;
+			for (int rank = 0; rank < movieCounts; rank++) {
+				sum += weights[rank] / total;
+				cumulative[rank] = sum;
+			}
+
+			// 求c使 Σmin(1, c×权重) = target，二分查找
+			double low = 0.0, high = 1.0;
+			while (inclusionSum(weights, high) < target && high < 1e18) {
+				high *= 2;
+			}
+			for (int iteration = 0; iteration < 100; iteration++) {
+				double middle = (low + high) / 2;
+				if (inclusionSum(weights, middle) < target) {
+					low = middle;
+				} else {
+					high = middle;
+				}
+			}
+			inclusion = new double[movieCounts];
+			for (int rank = 0; rank < movieCounts; rank++) {
+				inclusion[movieOfRank[rank]] = Math.min(1.0, high * weights[rank]);
+			}
+		}
+
+		private static double inclusionSum(double[] weights, double c) {
+			double sum = 0.0;
+			for (double weight : weights) {
+				sum += Math.min(1.0, c * weight);
+			}
+			return sum;
+		}
+
+		/**
+		 *
+		 * @Title：sample
+		 * @Description: 选出一个用户评价的电影并生成评分
+		 * @Param: @param random
+		 * @Param: @param tenths 输出，下标为电影，值为评分×10，调用前应全部为0
+		 * @Param: @param ratedMovies 输出，评价过的电影下标
+		 * @Return: int 评价数
+		 */
+		int sample(SplitMix random, int[] tenths, int[] ratedMovies) {
+			int counts = 0;
+			if (2 * target > movieCounts) {
+				// 扫描一次
+				int needed = target;
+				for (int j = 0; j < movieCounts; j++) {
+					boolean selected;
+					if (uniform) {
+						selected = random.nextInt(movieCounts - j) < needed;
+						if (selected) {
+							needed--;
+						}
+					} else {
+						selected = random.nextDouble() < inclusion[j];
+					}
+					if (selected) {
+						tenths[j] = score(random);
+						ratedMovies[counts++] = j;
+					}
+				}
+				return counts;
+			}
+
+			// 按热度抽样，已选中的电影跳过；热门电影很集中时限制尝试次数
+			int attempts = 0;
+			int maxAttempts = 8 * target + 64;
+			while (counts < target && attempts++ < maxAttempts) {
+				int j;
+				if (uniform) {
+					j = random.nextInt(movieCounts);
+				} else {
+					int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+					rank = rank < 0 ? -rank - 1 : rank;
+					j = movieOfRank[Math.min(rank, movieCounts - 1)];
+				}
+				if (tenths[j] != 0) {
+					continue;
+				}
+				tenths[j] = score(random);
+				ratedMovies[counts++] = j;
+			}
+			return counts;
+		}
+
+		// 1.0~5.0的一位小数评分，返回评分×10
+		private static int score(SplitMix random) {
+			return 10 + random.nextInt(41);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: SplitMix
+	 * </p>
+	 * <p>
+	 * Description: SplitMix64随机数，按 种子、用户下标 重新设定状态，不为每个用户创建对象
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static final class SplitMix {
+		private long state;
+
+		void seed(long seed, long stream) {
+			state = mix(seed ^ mix(stream + 0x9E3779B97F4A7C15L));
+		}
+
+		long nextLong() {
+			state += 0x9E3779B97F4A7C15L;
+			return mix(state);
+		}
+
+		int nextInt(int bound) {
+			// 乘法取高位，避免取模偏差过大
+			return (int) (((nextLong() >>> 33) * bound) >>> 31);
+		}
+
+		double nextDouble() {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+
+		private static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 *
+	 * @Title：names
+	 * @Description: 生成 前缀1、前缀2... 形式的名称
+	 * @Param: @param prefix
+	 * @Param: @param counts
+	 * @Return: List<String>
+	 */
+	public static List<String> names(final String prefix, final int counts) {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return prefix + (index + 1);
+			}
+
+			@Override
+			public int size() {
+				return counts;
+			}
+		};
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> params = new HashMap<>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index > 0) {
+				params.put(arg.substring(0, index), arg.substring(index + 1));
+			}
+		}
+		List<String> usersname;
+		if (params.containsKey("usersFile")) {
+			ArrayList<String> list = new ArrayList<>();
+			CollaborativeFilteringByUser.getInfoFromLocalFile(list, params.get("usersFile"));
+			usersname = list;
+		} else {
+			usersname = names("user", Integer.parseInt(param(params, "users", "1000")));
+		}
+		List<String> moviesname;
+		if (params.containsKey("moviesFile")) {
+			ArrayList<String> list = new ArrayList<>();
+			CollaborativeFilteringByUser.getInfoFromLocalFile(list, params.get("moviesFile"));
+			moviesname = list;
+		} else {
+			moviesname = names("movie", Integer.parseInt(param(params, "movies", "100")));
+		}
+
+		RatingGenerator generator = new RatingGenerator(usersname, moviesname);
+		generator.setSeed(Long.parseLong(param(params, "seed", String.valueOf(DEFAULT_SEED))));
+		generator.setDensity(Double.parseDouble(param(params, "density", "0.8")));
+		generator.setZipf(Double.parseDouble(param(params, "zipf", "0")));
+		generator.setDense(Boolean.parseBoolean(param(params, "dense", "true")));
+		generator.setFormat(RatingFormat.forName(param(params, "format", "lines")));
+
+		long start = System.currentTimeMillis();
+		generator.generate(new File(param(params, "output", "userMovieScore.txt")),
+				Integer.parseInt(param(params, "files", "1")), Integer.parseInt(param(params, "threads", "1")));
+		System.out.println("generated " + usersname.size() + " users in " + (System.currentTimeMillis() - start)
+				+ " ms");
+	}
+
+	private static String param(Map<String, String> params, String name, String defaultValue) {
+		String value = params.get(name);
+		return value == null ? defaultValue : value;
+	}
+}
@@ -0,0 +1,494 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * @FileName: RatingStore.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 堆外评分矩阵：按用户ID连续保存的稀疏行（CSR），数据位于内存映射文件或直接内存中，不在Java堆上
+ *
+ * 每条评分固定8字节（int 电影ID、float 评分），不论评分数多少，堆上只有几个ByteBuffer对象，GC不需要扫描评分数据，
+ * 数亿条评分也不会带来GC停顿。用户u的评分位于下标 offset(u) 到 offset(u+1)-1，行内顺序与评分向量相同。
+ * 文件格式（大端，与DataOutput一致）：
+ * 	头部16字节：int MAGIC、int VERSION、int 用户数n、int 电影数
+ * 	评分数×(int 电影ID, float 评分)
+ * 	long[n+1] 各用户评分的起始下标，最后一个为评分总数
+ * 文件由open只读映射，多个进程（如同一节点上的多个任务）映射同一文件时共享操作系统的页缓存；
+ * 由Builder在直接内存中建立时，受-XX:MaxDirectMemorySize限制。
+ * 单个ByteBuffer最大2GB，评分与起始下标均按1GB分段，下标为long；测试可用包内的open、Builder指定较小的分段。
+ *
+ * @Date: 2026年10月18日
+ */
+public class RatingStore {
+	// 文件标识 "CFRS"
+	public static final int MAGIC = 0x43465253;
+	public static final int VERSION = 1;
+	public static final int HEADER_LENGTH = 16;
+	// 每条评分的字节数
+	private static final int ENTRY_LENGTH = 8;
+	// 默认分段长度1GB（2^SEGMENT_SHIFT），分段长度是评分、起始下标长度的整数倍，任何一个值都不会跨段
+	static final int SEGMENT_SHIFT = 30;
+	// 分段长度的下限2^3，即一个起始下标的长度
+	private static final int MIN_SEGMENT_SHIFT = 3;
+
+	private final int userCounts;
+	private final int movieCounts;
+	private final long ratingCounts;
+	private final ByteBuffer[] entries;
+	private final ByteBuffer[] offsets;
+	// 分段长度的位数与下标掩码
+	private final int segmentShift;
+	private final long segmentMask;
+
+	private RatingStore(int userCounts, int movieCounts, long ratingCounts, ByteBuffer[] entries,
+			ByteBuffer[] offsets, int segmentShift) {
+		this.userCounts = userCounts;
+		this.movieCounts = movieCounts;
+		this.ratingCounts = ratingCounts;
+		this.entries = entries;
+		this.offsets = offsets;
+		this.segmentShift = segmentShift;
+		this.segmentMask = (1L << segmentShift) - 1;
+	}
+
+	private static int checkSegmentShift(int segmentShift) {
+		if (segmentShift < MIN_SEGMENT_SHIFT || segmentShift > SEGMENT_SHIFT) {
+			throw new IllegalArgumentException("segment shift out of range: " + segmentShift);
+		}
+		return segmentShift;
+	}
+
+	// 文件总长度
+	private static long length(int userCounts, long ratingCounts) {
+		return HEADER_LENGTH + ratingCounts * ENTRY_LENGTH + (userCounts + 1L) * 8;
+	}
+
+	// 按2^segmentShift字节分段只读映射文件的一段区域
+	private static ByteBuffer[] map(FileChannel channel, long position, long length, int segmentShift)
+			throws IOException {
+		long segmentLength = 1L << segmentShift;
+		ByteBuffer[] segments = new ByteBuffer[(int) ((length + segmentLength - 1) >>> segmentShift)];
+		for (int s = 0; s < segments.length; s++) {
+			long start = (long) s << segmentShift;
+			segments[s] = channel.map(MapMode.READ_ONLY, position + start, Math.min(segmentLength, length - start));
+		}
+		return segments;
+	}
+
+	/**
+	 *
+	 * @Title：open
+	 * @Description: 只读映射本地的评分文件，映射建立后即可关闭文件
+	 * @Param: @param file
+	 * @Return: RatingStore
+	 */
+	public static RatingStore open(File file) throws IOException {
+		return open(file, SEGMENT_SHIFT);
+	}
+
+	/**
+	 *
+	 * @Title：open
+	 * @Description: 按指定的分段长度只读映射本地的评分文件，测试用较小的分段验证跨段的读取
+	 * @Param: @param file
+	 * @Param: @param segmentShift 分段长度为2^segmentShift字节，3~30
+	 * @Return: RatingStore
+	 */
+	static RatingStore open(File file, int segmentShift) throws IOException {
+		checkSegmentShift(segmentShift);
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			if (channel.size() < HEADER_LENGTH) {
+				throw new IOException("not a rating store: " + file);
+			}
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_LENGTH);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException("not a rating store: " + file);
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException("unsupported rating store version " + header.getInt(4) + ": " + file);
+			}
+			int userCounts = header.getInt(8);
+			int movieCounts = header.getInt(12);
+			// 评分数由文件长度得出，再与最后一个起始下标核对
+			long entriesLength = channel.size() - HEADER_LENGTH - (userCounts + 1L) * 8;
+			if (entriesLength < 0 || entriesLength % ENTRY_LENGTH != 0) {
+				throw new IOException("truncated rating store: " + file);
+			}
+			long ratingCounts = entriesLength / ENTRY_LENGTH;
+			RatingStore store = new RatingStore(userCounts, movieCounts, ratingCounts,
+					map(channel, HEADER_LENGTH, entriesLength, segmentShift),
+					map(channel, HEADER_LENGTH + entriesLength, (userCounts + 1L) * 8, segmentShift), segmentShift);
+			if (store.offset(userCounts) != ratingCounts) {
+				throw new IOException("truncated rating store: " + file);
+			}
+			return store;
+		}
+	}
+
+	/**
+	 *
+	 * @Title：open
+	 * @Description: 将HDFS上的评分文件复制到本地（同NeighbourModel.copyToLocal，大小与修改时间都相同时才沿用本地文件）后映射
+	 * @Param: @param conf
+	 * @Param: @param store HDFS上的评分文件
+	 * @Param: @param local 本地文件
+	 * @Return: RatingStore
+	 */
+	public static RatingStore open(Configuration conf, Path store, File local) throws IOException {
+		NeighbourModel.copyToLocal(conf, store, local);
+		return open(local);
+	}
+
+	/**
+	 *
+	 * @Title：write
+	 * @Description: 读取评分向量作业的输出（SequenceFile，key=用户ID，value=评分向量，每个文件内按用户ID升序），
+	 * 		多路归并后顺序写成评分文件，只有各用户的起始下标保存在堆上
+	 * @Param: @param conf
+	 * @Param: @param pattern 评分向量文件，可含通配符
+	 * @Param: @param userCounts
+	 * @Param: @param movieCounts
+	 * @Param: @param store 输出的评分文件，已存在时覆盖
+	 * @Return: void
+	 */
+	public static void write(Configuration conf, Path pattern, int userCounts, int movieCounts, Path store)
+			throws IOException {
+		long[] starts = new long[userCounts + 1];
+		List<SequenceFile.Reader> readers = new ArrayList<>();
+		FileSystem fileSystem = store.getFileSystem(conf);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(fileSystem.create(store, true), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(userCounts);
+			out.writeInt(movieCounts);
+
+			// 各文件当前的评分向量，按用户ID归并
+			PriorityQueue<Head> heads = new PriorityQueue<>(16, new Comparator<Head>() {
+				@Override
+				public int compare(Head o1, Head o2) {
+					return Integer.compare(o1.key.get(), o2.key.get());
+				}
+			});
+			FileStatus[] files = pattern.getFileSystem(conf).globStatus(pattern);
+			if (files != null) {
+				for (FileStatus file : files) {
+					SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()));
+					readers.add(reader);
+					Head head = new Head(reader);
+					if (head.next()) {
+						heads.add(head);
+					}
+				}
+			}
+			long ratingCounts = 0;
+			int nextUser = 0;
+			while (!heads.isEmpty()) {
+				Head head = heads.poll();
+				int userId = head.key.get();
+				if (userId < nextUser) {
+					throw new IOException("ratings not sorted by user at user " + userId);
+				}
+				while (nextUser <= userId) {
+					starts[nextUser++] = ratingCounts;
+				}
+				for (int i = 0; i < head.value.size(); i++) {
+					out.writeInt(head.value.movieId(i));
+					out.writeFloat(head.value.score(i));
+				}
+				ratingCounts += head.value.size();
+				if (head.next()) {
+					heads.add(head);
+				}
+			}
+			while (nextUser <= userCounts) {
+				starts[nextUser++] = ratingCounts;
+			}
+			for (long start : starts) {
+				out.writeLong(start);
+			}
+		} finally {
+			for (SequenceFile.Reader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	public int userCounts() {
+		return userCounts;
+	}
+
+	public int movieCounts() {
+		return movieCounts;
+	}
+
+	public long ratingCounts() {
+		return ratingCounts;
+	}
+
+	/**
+	 *
+	 * @Title：offset
+	 * @Description: 用户第一条评分的下标，offset(userCounts())为评分总数
+	 * @Param: @param userId 0 ≤ userId ≤ userCounts()
+	 * @Return: long
+	 */
+	public long offset(int userId) {
+		long position = userId * 8L;
+		return offsets[(int) (position >>> segmentShift)].getLong((int) (position & segmentMask));
+	}
+
+	/**
+	 *
+	 * @Title：size
+	 * @Description: 用户的评分数
+	 * @Param: @param userId
+	 * @Return: int
+	 */
+	public int size(int userId) {
+		return (int) (offset(userId + 1) - offset(userId));
+	}
+
+	/**
+	 *
+	 * @Title：movieId
+	 * @Description: 第index条评分的电影ID
+	 * @Param: @param index 0 ≤ index < ratingCounts()
+	 * @Return: int
+	 */
+	public int movieId(long index) {
+		long position = index * ENTRY_LENGTH;
+		return entries[(int) (position >>> segmentShift)].getInt((int) (position & segmentMask));
+	}
+
+	/**
+	 *
+	 * @Title：score
+	 * @Description: 第index条评分的评分
+	 * @Param: @param index 0 ≤ index < ratingCounts()
+	 * @Return: float
+	 */
+	public float score(long index) {
+		long position = index * ENTRY_LENGTH + 4;
+		return entries[(int) (position >>> segmentShift)].getFloat((int) (position & segmentMask));
+	}
+
+	/**
+	 *
+	 * @Title：vector
+	 * @Description: 将用户的评分读入评分向量，供需要RatingVectorWritable的任务复用
+	 * @Param: @param userId
+	 * @Param: @param vector 清空后写入
+	 * @Return: void
+	 */
+	public void vector(int userId, RatingVectorWritable vector) {
+		vector.clear(userId);
+		for (long i = offset(userId), end = offset(userId + 1); i < end; i++) {
+			vector.add(movieId(i), score(i));
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Head
+	 * </p>
+	 * <p>
+	 * Description: 归并时一个评分向量文件的当前记录
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static class Head {
+		final SequenceFile.Reader reader;
+		final IntWritable key = new IntWritable();
+		final RatingVectorWritable value = new RatingVectorWritable();
+
+		Head(SequenceFile.Reader reader) {
+			this.reader = reader;
+		}
+
+		boolean next() throws IOException {
+			return reader.next(key, value);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Builder
+	 * </p>
+	 * <p>
+	 * Description: 在直接内存中逐条加入评分建立RatingStore，用户ID须非递减，跳过的用户没有评分
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class Builder {
+		private final int userCounts;
+		private final int movieCounts;
+		private final int segmentShift;
+		private final DirectSegments entries;
+		private final DirectSegments offsets;
+		private long ratingCounts = 0;
+		// 已写出起始下标的用户数
+		private int users = 0;
+
+		public Builder(int userCounts, int movieCounts) {
+			this(userCounts, movieCounts, SEGMENT_SHIFT);
+		}
+
+		// 按指定的分段长度（2^segmentShift字节）建立，测试用
+		Builder(int userCounts, int movieCounts, int segmentShift) {
+			this.userCounts = userCounts;
+			this.movieCounts = movieCounts;
+			this.segmentShift = checkSegmentShift(segmentShift);
+			entries = new DirectSegments(1L << segmentShift);
+			offsets = new DirectSegments(1L << segmentShift);
+		}
+
+		/**
+		 *
+		 * @Title：add
+		 * @Description: 加入一条评分
+		 * @Param: @param userId 不小于上一次加入的用户ID
+		 * @Param: @param movieId
+		 * @Param: @param score
+		 * @Return: Builder
+		 */
+		public Builder add(int userId, int movieId, float score) {
+			if (userId >= userCounts || movieId < 0 || movieId >= movieCounts) {
+				throw new IllegalArgumentException("rating out of range: user " + userId + " movie " + movieId);
+			}
+			advance(userId);
+			entries.putInt(movieId);
+			entries.putFloat(score);
+			ratingCounts++;
+			return this;
+		}
+
+		/**
+		 *
+		 * @Title：add
+		 * @Description: 加入一个用户的评分向量
+		 * @Param: @param vector 用户ID不小于上一次加入的用户ID
+		 * @Return: Builder
+		 */
+		public Builder add(RatingVectorWritable vector) {
+			for (int i = 0; i < vector.size(); i++) {
+				add(vector.getUserId(), vector.movieId(i), vector.score(i));
+			}
+			return this;
+		}
+
+		// 写出到userId为止（含）各用户的起始下标
+		private void advance(int userId) {
+			if (userId < users - 1) {
+				throw new IllegalArgumentException("users must be added in ascending order: " + userId);
+			}
+			while (users <= userId) {
+				offsets.putLong(ratingCounts);
+				users++;
+			}
+		}
+
+		/**
+		 *
+		 * @Title：build
+		 * @Description: 补齐其余用户的起始下标并返回，之后不能再加入评分
+		 * @Return: RatingStore
+		 */
+		public RatingStore build() {
+			advance(userCounts);
+			return new RatingStore(userCounts, movieCounts, ratingCounts, entries.finish(), offsets.finish(),
+					segmentShift);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: DirectSegments
+	 * </p>
+	 * <p>
+	 * Description: 只追加的直接内存，当前段容量不足时加倍，满一个分段长度（默认1GB）后开始新的一段
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static class DirectSegments {
+		private static final int INITIAL_CAPACITY = 1 << 16;
+		private final long segmentLength;
+		private final List<ByteBuffer> segments = new ArrayList<>();
+		private ByteBuffer current;
+
+		DirectSegments(long segmentLength) {
+			this.segmentLength = segmentLength;
+			current = ByteBuffer.allocateDirect(initialCapacity());
+		}
+
+		private int initialCapacity() {
+			return (int) Math.min(INITIAL_CAPACITY, segmentLength);
+		}
+
+		void putInt(int value) {
+			ensure(4);
+			current.putInt(value);
+		}
+
+		void putFloat(float value) {
+			ensure(4);
+			current.putFloat(value);
+		}
+
+		void putLong(long value) {
+			ensure(8);
+			current.putLong(value);
+		}
+
+		// 写入的值长度都能整除分段长度，满段时恰好写满
+		private void ensure(int bytes) {
+			if (current.remaining() >= bytes) {
+				return;
+			}
+			if (current.capacity() < segmentLength) {
+				ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(current.capacity() * 2L, segmentLength));
+				current.flip();
+				grown.put(current);
+				current = grown;
+			} else {
+				segments.add(current);
+				current = ByteBuffer.allocateDirect(initialCapacity());
+			}
+		}
+
+		ByteBuffer[] finish() {
+			segments.add(current);
+			current = null;
+			return segments.toArray(new ByteBuffer[segments.size()]);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * @FileName: RatingVectorWritable.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 一个用户的评分向量：用户ID，以及电影ID、评分两个基本类型数组
+ *
+ * 用于代替 电影$评分;电影$评分;... 的字符串格式。反序列化时复用已分配的数组，
+ * 可以与Hadoop复用value对象的方式配合使用。
+ *
+ * @Date: 2026年10月18日
+ */
+public class RatingVectorWritable implements Writable {
+	// 用户ID
+	private int userId;
+	// 评分条数
+	private int size = 0;
+	// 电影ID
+	private int[] movieIds = new int[16];
+	// 评分，与movieIds下标一一对应
+	private float[] scores = new float[16];
+
+	public RatingVectorWritable() {
+	}
+
+	/**
+	 *
+	 * @Title：clear
+	 * @Description: 清空评分并设置用户ID，已分配的数组保留复用
+	 * @Param: @param userId
+	 * @Return: void
+	 */
+	public void clear(int userId) {
+		this.userId = userId;
+		this.size = 0;
+	}
+
+	/**
+	 *
+	 * @Title：add
+	 * @Description: 追加一条评分，容量不足时按2倍扩容
+	 * @Param: @param movieId
+	 * @Param: @param score
+	 * @Return: void
+	 */
+	public void add(int movieId, float score) {
+		ensureCapacity(size + 1);
+		movieIds[size] = movieId;
+		scores[size] = score;
+		size++;
+	}
+
+	/**
+	 *
+	 * @Title：addAll
+	 * @Description: 追加另一个向量的全部评分
+	 * @Param: @param other
+	 * @Return: void
+	 */
+	public void addAll(RatingVectorWritable other) {
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.movieIds, 0, movieIds, size, other.size);
+		System.arraycopy(other.scores, 0, scores, size, other.size);
+		size += other.size;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > movieIds.length) {
+			int length = Math.max(capacity, movieIds.length * 2);
+			movieIds = Arrays.copyOf(movieIds, length);
+			scores = Arrays.copyOf(scores, length);
+		}
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	public void setUserId(int userId) {
+		this.userId = userId;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int movieId(int i) {
+		return movieIds[i];
+	}
+
+	public float score(int i) {
+		return scores[i];
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(userId);
+		WritableUtils.writeVInt(out, size);
+		for (int i = 0; i < size; i++) {
+			WritableUtils.writeVInt(out, movieIds[i]);
+			out.writeFloat(scores[i]);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		userId = in.readInt();
+		int length = WritableUtils.readVInt(in);
+		size = 0;
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++) {
+			movieIds[i] = WritableUtils.readVInt(in);
+			scores[i] = in.readFloat();
+		}
+		size = length;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(userId).append("\t");
+		for (int i = 0; i < size; i++) {
+			builder.append(movieIds[i]).append("$").append(scores[i]).append(";");
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,322 @@
+package com.gyt.collaborativeFiltering;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @FileName: RecommendCache.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 推荐结果缓存：key=用户ID，value=默认推荐数下的推荐结果，容量有上限（LRU淘汰），每条结果有有效期（TTL）
+ *
+ * 一个用户的推荐结果只取决于其自己的评分（已评分的电影不推荐）和K个相似用户的评分，
+ * 因此用户u的评分变化时，失效u自己以及所有以u为相似用户的用户（反向相似用户表，由NeighbourModel建立）。
+ * 查询未命中时在锁外计算，计算期间该用户被失效的结果不会写入缓存（按用户的版本号判断）。
+ * IncrementalUpdate更新评分文件与相似用户模型后，由reload换用重新加载的引擎：比较新旧引擎，只失效相似用户、自己的评分
+ * 或某个相似用户的评分有变化的用户，并按新模型重建反向相似用户表；字典的ID或电影数有变化时失效全部用户。
+ * 命中、未命中、淘汰、过期、失效、重新加载次数由stats()给出，用于根据实际流量确定容量与有效期。
+ *
+ * @Date: 2026年10月18日
+ */
+public class RecommendCache {
+	private final int capacity;
+	private final long ttlNanos;
+	// 按访问顺序排列，最久未访问的在最前
+	private final LinkedHashMap<Integer, CachedResult> entries;
+	// 以下三项只在持有entries锁时读写，reload时整体替换
+	// 当前的引擎
+	private RecommendEngine engine;
+	// 每个用户的失效版本号
+	private int[] versions;
+	// 当前模型的反向相似用户表
+	private ReverseIndex reverse;
+
+	// 计数器
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong reloads = new AtomicLong();
+
+	/**
+	 *
+	 * @Title：RecommendCache
+	 * @Description: 创建缓存并建立反向相似用户表
+	 * @Param: @param engine
+	 * @Param: @param capacity 最多缓存的用户数
+	 * @Param: @param ttl 有效期
+	 * @Param: @param unit 有效期单位
+	 */
+	public RecommendCache(RecommendEngine engine, final int capacity, long ttl, TimeUnit unit) {
+		this.engine = engine;
+		this.capacity = capacity;
+		this.ttlNanos = unit.toNanos(ttl);
+		entries = new LinkedHashMap<Integer, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, CachedResult> eldest) {
+				if (size() > capacity) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		versions = new int[engine.userCounts()];
+		reverse = new ReverseIndex(engine);
+	}
+
+	/**
+	 *
+	 * @Title：recommend
+	 * @Description: 返回用户在默认推荐数下的推荐结果，缓存中没有或已过期时由引擎计算并写入缓存
+	 * @Param: @param userId
+	 * @Return: String
+	 */
+	public String recommend(int userId) {
+		long now = System.nanoTime();
+		int version;
+		RecommendEngine current;
+		synchronized (entries) {
+			CachedResult entry = entries.get(userId);
+			if (entry != null) {
+				if (now - entry.created < ttlNanos) {
+					hits.incrementAndGet();
+					return entry.value;
+				}
+				entries.remove(userId);
+				expirations.incrementAndGet();
+			}
+			version = versions[userId];
+			current = engine;
+		}
+		misses.incrementAndGet();
+
+		String value = current.recommend(userId, -1);
+		synchronized (entries) {
+			// 计算期间被失效的结果不写入
+			if (versions[userId] == version && capacity > 0) {
+				entries.put(userId, new CachedResult(value, now));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 *
+	 * @Title：ratingsChanged
+	 * @Description: 用户的评分有变化：失效该用户及所有以其为相似用户的用户的推荐结果
+	 * @Param: @param userId
+	 * @Return: void
+	 */
+	public void ratingsChanged(int userId) {
+		synchronized (entries) {
+			invalidate(userId);
+			for (int i = reverse.offsets[userId]; i < reverse.offsets[userId + 1]; i++) {
+				invalidate(reverse.users[i]);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @Title：reload
+	 * @Description: 换用重新加载的引擎（用户ID只增不变），失效推荐结果可能变化的用户：相似用户有变化、自己的评分有变化，
+	 * 		或某个相似用户的评分有变化；比较新旧引擎在锁外进行，同一时间只能有一次reload
+	 * @Param: @param next 新引擎
+	 * @Return: int 失效的用户数（包括未缓存的用户）
+	 */
+	public synchronized int reload(RecommendEngine next) {
+		RecommendEngine previous;
+		synchronized (entries) {
+			previous = engine;
+		}
+		ReverseIndex index = new ReverseIndex(next);
+		boolean[] stale = staleUsers(previous, next);
+		int staleCounts = 0;
+		synchronized (entries) {
+			engine = next;
+			reverse = index;
+			if (versions.length < next.userCounts()) {
+				versions = Arrays.copyOf(versions, next.userCounts());
+			}
+			// 正在计算的旧结果也按版本号丢弃
+			for (int userId = 0; userId < stale.length; userId++) {
+				if (stale[userId]) {
+					invalidate(userId);
+					staleCounts++;
+				}
+			}
+		}
+		reloads.incrementAndGet();
+		return staleCounts;
+	}
+
+	// 推荐结果可能变化的旧用户，下标为用户ID
+	private static boolean[] staleUsers(RecommendEngine previous, RecommendEngine next) {
+		boolean[] stale = new boolean[previous.userCounts()];
+		if (!sameIds(previous.users(), next.users()) || !sameIds(previous.movies(), next.movies())
+				|| previous.movieCounts() != next.movieCounts()) {
+			Arrays.fill(stale, true);
+			return stale;
+		}
+		boolean[] ratingsChanged = new boolean[previous.userCounts()];
+		for (int userId = 0; userId < previous.userCounts(); userId++) {
+			ratingsChanged[userId] = !sameRatings(previous.ratings(), next.ratings(), userId);
+		}
+		NeighbourModel previousModel = previous.model();
+		NeighbourModel nextModel = next.model();
+		for (int userId = 0; userId < previous.userCounts(); userId++) {
+			if (ratingsChanged[userId] || previousModel.size(userId) != nextModel.size(userId)) {
+				stale[userId] = true;
+				continue;
+			}
+			for (int i = 0; i < nextModel.size(userId) && !stale[userId]; i++) {
+				int neighbour = nextModel.neighbour(userId, i);
+				stale[userId] = neighbour != previousModel.neighbour(userId, i)
+						|| nextModel.similarity(userId, i) != previousModel.similarity(userId, i)
+						|| ratingsChanged[neighbour];
+			}
+		}
+		return stale;
+	}
+
+	// 新字典是否保留了原字典的全部ID
+	private static boolean sameIds(NameDictionary previous, NameDictionary next) {
+		if (next.size() < previous.size()) {
+			return false;
+		}
+		for (int id = 0; id < previous.size(); id++) {
+			if (!previous.name(id).equals(next.name(id))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// 用户在两个评分文件中的评分是否相同
+	private static boolean sameRatings(RatingStore previous, RatingStore next, int userId) {
+		if (previous.size(userId) != next.size(userId)) {
+			return false;
+		}
+		long i = previous.offset(userId);
+		long j = next.offset(userId);
+		for (long end = previous.offset(userId + 1); i < end; i++, j++) {
+			if (previous.movieId(i) != next.movieId(j) || previous.score(i) != next.score(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// 需持有entries锁
+	private void invalidate(int userId) {
+		versions[userId]++;
+		if (entries.remove(userId) != null) {
+			invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 *
+	 * @Title：clear
+	 * @Description: 清空缓存，不计入失效次数
+	 * @Return: void
+	 */
+	public void clear() {
+		synchronized (entries) {
+			for (Iterator<Integer> iterator = entries.keySet().iterator(); iterator.hasNext();) {
+				versions[iterator.next()]++;
+				iterator.remove();
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public long evictions() {
+		return evictions.get();
+	}
+
+	public long expirations() {
+		return expirations.get();
+	}
+
+	public long invalidations() {
+		return invalidations.get();
+	}
+
+	public long reloads() {
+		return reloads.get();
+	}
+
+	/**
+	 *
+	 * @Title：stats
+	 * @Description: 缓存统计，命中率 = 命中 / (命中 + 未命中)
+	 * @Return: String
+	 */
+	public String stats() {
+		long hit = hits.get();
+		long miss = misses.get();
+		return "size=" + size() + " capacity=" + capacity + " hits=" + hit + " misses=" + miss + " hitRate="
+				+ (hit + miss == 0 ? 0.0 : (double) hit / (hit + miss)) + " evictions=" + evictions.get()
+				+ " expirations=" + expirations.get() + " invalidations=" + invalidations.get() + " reloads="
+				+ reloads.get();
+	}
+
+	// 反向相似用户表：以用户v为相似用户的目标用户位于 users[offsets[v] .. offsets[v+1]-1]
+	private static class ReverseIndex {
+		final int[] offsets;
+		final int[] users;
+
+		ReverseIndex(RecommendEngine engine) {
+			NeighbourModel model = engine.model();
+			offsets = new int[engine.userCounts() + 1];
+			for (int userId = 0; userId < engine.userCounts(); userId++) {
+				for (int i = 0; i < model.size(userId); i++) {
+					offsets[model.neighbour(userId, i) + 1]++;
+				}
+			}
+			for (int userId = 0; userId < engine.userCounts(); userId++) {
+				offsets[userId + 1] += offsets[userId];
+			}
+			users = new int[offsets[engine.userCounts()]];
+			int[] next = offsets.clone();
+			for (int userId = 0; userId < engine.userCounts(); userId++) {
+				for (int i = 0; i < model.size(userId); i++) {
+					users[next[model.neighbour(userId, i)]++] = userId;
+				}
+			}
+		}
+	}
+
+	// 缓存的推荐结果及写入时间
+	private static class CachedResult {
+		final String value;
+		final long created;
+
+		CachedResult(String value, long created) {
+			this.value = value;
+			this.created = created;
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * @FileName: RecommendEngine.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 在线推荐查询引擎：由MapReduce作业预先计算好的字典、评分向量、相似用户模型，实时为单个用户计算推荐电影
+ *
+ * 与UserCFDemo每次查询都重新计算全部用户相似度、重新创建和排序List不同，相似用户直接从内存映射的NeighbourModel读取，
+ * 一次查询只访问目标用户的K个相似用户的评分，代价为 K×平均评分数，与用户总数无关。
+ * 评分向量同样从内存映射的RatingStore读取，不占用堆；每个线程复用自己的推荐值数组、堆与格式化对象，查询过程中不创建对象（结果字符串除外），
+ * 因此多个线程可以同时查询同一个引擎。
+ * 推荐值、推荐标准、排序与格式和推荐作业（RecommendReducer）相同：相似用户评分×总相似度按float累加，
+ * 推荐度不小于平均值且目标用户未评分的电影按推荐值从高到低取前N个，格式为 电影名[推荐值];
+ * 批量查询（recommend(int[], ...)）一次为多个用户计算：每BATCH_RATINGS条评分为一块，块内各用户的相似用户评分
+ * 只从评分文件读取一次，复制到工作区的基本类型数组中供共享同一相似用户的用户复用；结果写入Batch的基本类型数组，
+ * 不创建字符串，推荐值与逐个查询完全相同（每个用户仍按相似用户的顺序累加）。
+ *
+ * @Date: 2026年10月18日
+ */
+public class RecommendEngine {
+	// 批量查询时每块最多缓存的相似用户评分数
+	private static final int BATCH_RATINGS = 1 << 20;
+
+	private final NameDictionary users;
+	private final NameDictionary movies;
+	private final NeighbourModel model;
+	private final RatingStore ratings;
+	private final int movieCounts;
+	// 默认每个用户的推荐电影数N
+	private final int recommendCounts;
+	// 每个线程的工作区
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch(movieCounts, recommendCounts);
+		}
+	};
+
+	public RecommendEngine(NameDictionary users, NameDictionary movies, NeighbourModel model, RatingStore ratings,
+			int recommendCounts) {
+		this.users = users;
+		this.movies = movies;
+		this.model = model;
+		this.ratings = ratings;
+		this.movieCounts = movies.size();
+		this.recommendCounts = recommendCounts < 0 ? movieCounts : Math.min(recommendCounts, movieCounts);
+	}
+
+	/**
+	 *
+	 * @Title：load
+	 * @Description: 从中间目录加载：字典读入内存，评分文件、相似用户模型复制到本地后映射；
+	 * 		本地文件与中间目录中的大小、修改时间不同时重新复制（见NeighbourModel.copyToLocal），重新计算后加载的是新结果
+	 * @Param: @param conf 每个用户的推荐电影数读取colfilter.recommend.n
+	 * @Param: @param tmp CollaborativeFilteringByUser的中间目录
+	 * @Param: @param local 本地目录，保存字典、评分文件与模型文件
+	 * @Return: RecommendEngine
+	 */
+	public static RecommendEngine load(Configuration conf, Path tmp, File local) throws IOException {
+		local.mkdirs();
+		Path dictionary = new Path(tmp, CollaborativeFilteringByUser.DICTIONARY_DIR);
+		File usersFile = new File(local, CollaborativeFilteringByUser.USERS_DICT);
+		File moviesFile = new File(local, CollaborativeFilteringByUser.MOVIES_DICT);
+		NeighbourModel.copyToLocal(conf, new Path(dictionary, CollaborativeFilteringByUser.USERS_OUTPUT + "-r-00000"),
+				usersFile);
+		NeighbourModel.copyToLocal(conf, new Path(dictionary, CollaborativeFilteringByUser.MOVIES_OUTPUT + "-r-00000"),
+				moviesFile);
+		NameDictionary users = NameDictionary.load(usersFile);
+		NameDictionary movies = NameDictionary.load(moviesFile);
+		NeighbourModel model = NeighbourModel.open(conf, new Path(tmp, CollaborativeFilteringByUser.MODEL_FILE),
+				new File(local, CollaborativeFilteringByUser.MODEL_FILE));
+		RatingStore ratings = RatingStore.open(conf, new Path(tmp, CollaborativeFilteringByUser.RATINGS_FILE),
+				new File(local, CollaborativeFilteringByUser.RATINGS_FILE));
+		return new RecommendEngine(users, movies, model, ratings,
+				conf.getInt(CollaborativeFilteringByUser.CONF_RECOMMENDATIONS, -1));
+	}
+
+	public int userCounts() {
+		return users.size();
+	}
+
+	public int movieCounts() {
+		return movieCounts;
+	}
+
+	public NeighbourModel model() {
+		return model;
+	}
+
+	public RatingStore ratings() {
+		return ratings;
+	}
+
+	public NameDictionary users() {
+		return users;
+	}
+
+	public NameDictionary movies() {
+		return movies;
+	}
+
+	/**
+	 *
+	 * @Title：userId
+	 * @Description: 用户名对应的ID，不存在返回-1
+	 * @Param: @param user
+	 * @Return: int
+	 */
+	public int userId(String user) {
+		return users.id(user);
+	}
+
+	/**
+	 *
+	 * @Title：recommend
+	 * @Description: 为用户计算推荐电影，格式与推荐作业的输出相同
+	 * @Param: @param user 用户名
+	 * @Param: @param n 推荐电影数，小于0时为默认值
+	 * @Return: String 电影名[推荐值]; ...，用户不存在时返回null
+	 */
+	public String recommend(String user, int n) {
+		int userId = users.id(user);
+		return userId < 0 ? null : recommend(userId, n);
+	}
+
+	/**
+	 *
+	 * @Title：recommend
+	 * @Description: 为用户计算推荐电影，格式与推荐作业的输出相同
+	 * @Param: @param userId
+	 * @Param: @param n 推荐电影数，小于0时为默认值
+	 * @Return: String 电影名[推荐值]; ...
+	 */
+	public String recommend(int userId, int n) {
+		Scratch work = scratch.get();
+		TopKHeap topN = n < 0 || n == work.topN.capacity() ? work.topN : new TopKHeap(Math.min(n, movieCounts));
+		recommend(userId, topN);
+		StringBuilder builder = work.builder;
+		builder.setLength(0);
+		for (int i = 0; i < topN.size(); i++) {
+			builder.append(movies.name(topN.id(i))).append('[').append(work.format.format(topN.value(i)))
+					.append("]; ");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 *
+	 * @Title：recommend
+	 * @Description: 为用户计算推荐电影，结果写入topN，按推荐值从高到低排列
+	 * @Param: @param userId
+	 * @Param: @param topN 容量即推荐电影数
+	 * @Return: void
+	 */
+	public void recommend(int userId, TopKHeap topN) {
+		topN.clear();
+		if (movieCounts == 0) {
+			return;
+		}
+		Scratch work = scratch.get();
+		// 依次读入各相似用户的评分，第n个相似用户位于第n行
+		work.clearRows();
+		int size = model.size(userId);
+		int[] slots = work.slots(size);
+		for (int n = 0; n < size; n++) {
+			slots[n] = work.loadRow(ratings, model.neighbour(userId, n));
+		}
+		score(userId, slots, topN, work);
+	}
+
+	/**
+	 *
+	 * @Title：recommend
+	 * @Description: 批量为多个用户计算推荐电影
+	 * @Param: @param userIds
+	 * @Param: @param n 每个用户的推荐电影数，小于0时为默认值
+	 * @Return: Batch 按userIds的顺序
+	 */
+	public Batch recommend(int[] userIds, int n) {
+		Batch batch = new Batch();
+		recommend(userIds, 0, userIds.length, n, batch);
+		return batch;
+	}
+
+	/**
+	 *
+	 * @Title：recommend
+	 * @Description: 批量为userIds[from..to)计算推荐电影，结果覆盖写入batch（数组只在容量不足时重新分配，可反复复用）
+	 * @Param: @param userIds
+	 * @Param: @param from
+	 * @Param: @param to 不含
+	 * @Param: @param n 每个用户的推荐电影数，小于0时为默认值
+	 * @Param: @param batch 结果
+	 * @Return: void
+	 */
+	public void recommend(int[] userIds, int from, int to, int n, Batch batch) {
+		Scratch work = scratch.get();
+		TopKHeap topN = n < 0 || n == work.topN.capacity() ? work.topN : new TopKHeap(Math.min(n, movieCounts));
+		batch.clear(to - from);
+		int[] rowSlot = work.rowSlot(users.size());
+		int blockStart = from;
+		while (blockStart < to) {
+			// 读入一块用户的相似用户评分，同一相似用户只读一次；超过BATCH_RATINGS时结束本块（至少一个用户）
+			work.clearRows();
+			int blockEnd = blockStart;
+			while (blockEnd < to && (blockEnd == blockStart || work.rowSize < BATCH_RATINGS)) {
+				int userId = userIds[blockEnd++];
+				for (int i = 0; i < model.size(userId); i++) {
+					int neighbour = model.neighbour(userId, i);
+					if (rowSlot[neighbour] < 0) {
+						rowSlot[neighbour] = work.loadRow(ratings, neighbour);
+					}
+				}
+			}
+			for (int u = blockStart; u < blockEnd; u++) {
+				int userId = userIds[u];
+				topN.clear();
+				if (movieCounts > 0) {
+					int size = model.size(userId);
+					int[] slots = work.slots(size);
+					for (int i = 0; i < size; i++) {
+						slots[i] = rowSlot[model.neighbour(userId, i)];
+					}
+					score(userId, slots, topN, work);
+				}
+				batch.add(userId, topN);
+			}
+			// 恢复rowSlot，供下一块使用
+			for (int r = 0; r < work.rows; r++) {
+				rowSlot[work.rowUsers[r]] = -1;
+			}
+			blockStart = blockEnd;
+		}
+	}
+
+	/**
+	 *
+	 * @Title：format
+	 * @Description: 批量结果中第i个用户的推荐电影，格式与推荐作业的输出相同
+	 * @Param: @param batch
+	 * @Param: @param i
+	 * @Return: String 电影名[推荐值]; ...
+	 */
+	public String format(Batch batch, int i) {
+		Scratch work = scratch.get();
+		StringBuilder builder = work.builder;
+		builder.setLength(0);
+		for (int r = batch.offsets[i]; r < batch.offsets[i + 1]; r++) {
+			builder.append(movies.name(batch.movieIds[r])).append('[').append(work.format.format(batch.values[r]))
+					.append("]; ");
+		}
+		return builder.toString();
+	}
+
+	// 由工作区中已读入的相似用户评分计算推荐，slots[n]为第n个相似用户评分所在的行
+	private void score(int userId, int[] slots, TopKHeap topN, Scratch work) {
+		double[] movieRecommendScore = work.movieRecommendScore;
+		boolean[] touched = work.touched;
+		int touchedCounts = 0;
+		// 所有电影对该用户的推荐总值
+		double recommendSum = 0.0;
+
+		// 该电影推荐值 = 各相似用户的电影评分×与目标用户的总相似度之和，与评分关联作业相同先取float
+		int[] rowMovies = work.rowMovies;
+		float[] rowScores = work.rowScores;
+		for (int n = 0; n < model.size(userId); n++) {
+			double similarity = model.similarity(userId, n);
+			for (int i = work.rowStart[slots[n]], end = work.rowStart[slots[n] + 1]; i < end; i++) {
+				int movieId = rowMovies[i];
+				float contribution = (float) (rowScores[i] * similarity);
+				if (!touched[movieId]) {
+					touched[movieId] = true;
+					work.touchedMovies[touchedCounts++] = movieId;
+				}
+				movieRecommendScore[movieId] += contribution;
+				recommendSum += contribution;
+			}
+		}
+		boolean[] rated = work.rated;
+		long userStart = ratings.offset(userId);
+		long userEnd = ratings.offset(userId + 1);
+		for (long i = userStart; i < userEnd; i++) {
+			if (ratings.score(i) != 0.0f) {
+				rated[ratings.movieId(i)] = true;
+			}
+		}
+
+		if (recommendSum / movieCounts > 0.0) {
+			// 平均值大于0时，没有相似用户评分的电影（推荐值0.0）不会被推荐，只需检查出现过的电影
+			double aveRecommendScore = recommendSum / movieCounts;
+			for (int t = 0; t < touchedCounts; t++) {
+				int movieId = work.touchedMovies[t];
+				if (movieRecommendScore[movieId] >= aveRecommendScore && !rated[movieId]) {
+					topN.offer(movieId, movieRecommendScore[movieId]);
+				}
+			}
+			topN.sortDescending();
+		} else {
+			CollaborativeFilteringByUser.selectRecommendations(movieRecommendScore, rated, recommendSum, movieCounts,
+					topN);
+		}
+
+		// 只清理本次用到的位置
+		for (int t = 0; t < touchedCounts; t++) {
+			int movieId = work.touchedMovies[t];
+			movieRecommendScore[movieId] = 0.0;
+			touched[movieId] = false;
+		}
+		for (long i = userStart; i < userEnd; i++) {
+			rated[ratings.movieId(i)] = false;
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Batch
+	 * </p>
+	 * <p>
+	 * Description: 批量查询的结果：第i个用户的推荐电影ID、推荐值位于 movieIds、values 的 offset(i) 到 offset(i+1)-1，
+	 * 按推荐值从高到低排列
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class Batch {
+		private int size = 0;
+		private int[] userIds = new int[16];
+		private int[] offsets = new int[17];
+		private int[] movieIds = new int[256];
+		private double[] values = new double[256];
+
+		// 用户数
+		public int size() {
+			return size;
+		}
+
+		public int userId(int i) {
+			return userIds[i];
+		}
+
+		public int offset(int i) {
+			return offsets[i];
+		}
+
+		// 第i个用户的推荐电影数
+		public int count(int i) {
+			return offsets[i + 1] - offsets[i];
+		}
+
+		public int[] movieIds() {
+			return movieIds;
+		}
+
+		public double[] values() {
+			return values;
+		}
+
+		void clear(int capacity) {
+			size = 0;
+			if (userIds.length < capacity) {
+				userIds = new int[capacity];
+				offsets = new int[capacity + 1];
+			}
+		}
+
+		void add(int userId, TopKHeap topN) {
+			if (size == userIds.length) {
+				userIds = Arrays.copyOf(userIds, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2 + 1);
+			}
+			int start = offsets[size];
+			if (start + topN.size() > movieIds.length) {
+				int capacity = Math.max(start + topN.size(), movieIds.length * 2);
+				movieIds = Arrays.copyOf(movieIds, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			for (int i = 0; i < topN.size(); i++) {
+				movieIds[start + i] = topN.id(i);
+				values[start + i] = topN.value(i);
+			}
+			userIds[size] = userId;
+			offsets[++size] = start + topN.size();
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Scratch
+	 * </p>
+	 * <p>
+	 * Description: 单个线程的查询工作区，下标为电影ID的数组在查询结束时只清理用到的位置
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static class Scratch {
+		final double[] movieRecommendScore;
+		final boolean[] rated;
+		final boolean[] touched;
+		final int[] touchedMovies;
+		final TopKHeap topN;
+		// DecimalFormat不是线程安全的，每个线程一个
+		final DecimalFormat format = new DecimalFormat("#.00");
+		final StringBuilder builder = new StringBuilder();
+		// 读入的相似用户评分：第r行为用户rowUsers[r]的评分，位于 rowStart[r] 到 rowStart[r+1]-1
+		int rows = 0;
+		int rowSize = 0;
+		int[] rowUsers = new int[16];
+		int[] rowStart = new int[17];
+		int[] rowMovies = new int[1024];
+		float[] rowScores = new float[1024];
+		// 每个相似用户所在的行，第一次批量查询时分配，不在本块中为-1
+		private int[] rowSlot;
+		private int[] slots = new int[16];
+
+		Scratch(int movieCounts, int recommendCounts) {
+			movieRecommendScore = new double[movieCounts];
+			rated = new boolean[movieCounts];
+			touched = new boolean[movieCounts];
+			touchedMovies = new int[movieCounts];
+			topN = new TopKHeap(recommendCounts);
+		}
+
+		void clearRows() {
+			rows = 0;
+			rowSize = 0;
+		}
+
+		// 从评分文件读入一个用户的评分作为新的一行，返回行号
+		int loadRow(RatingStore ratings, int userId) {
+			long start = ratings.offset(userId);
+			int length = (int) (ratings.offset(userId + 1) - start);
+			if (rows + 1 == rowUsers.length) {
+				rowUsers = Arrays.copyOf(rowUsers, rowUsers.length * 2);
+				rowStart = Arrays.copyOf(rowStart, rowUsers.length + 1);
+			}
+			if (rowSize + length > rowMovies.length) {
+				int capacity = Math.max(rowSize + length, rowMovies.length * 2);
+				rowMovies = Arrays.copyOf(rowMovies, capacity);
+				rowScores = Arrays.copyOf(rowScores, capacity);
+			}
+			for (int i = 0; i < length; i++) {
+				rowMovies[rowSize + i] = ratings.movieId(start + i);
+				rowScores[rowSize + i] = ratings.score(start + i);
+			}
+			rowUsers[rows] = userId;
+			rowStart[rows] = rowSize;
+			rowSize += length;
+			rowStart[++rows] = rowSize;
+			return rows - 1;
+		}
+
+		int[] rowSlot(int userCounts) {
+			if (rowSlot == null) {
+				rowSlot = new int[userCounts];
+				Arrays.fill(rowSlot, -1);
+			}
+			return rowSlot;
+		}
+
+		int[] slots(int size) {
+			if (slots.length < size) {
+				slots = new int[size];
+			}
+			return slots;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @FileName: RecommendServer.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 在线推荐服务：本地HTTP接口，由RecommendEngine用预先计算的模型回答单个用户的推荐查询
+ *
+ * 相当于把UserCFDemo的 输入用户名 -> 输出推荐电影 查询循环改为HTTP接口，请求由固定大小的线程池并发处理：
+ * 	GET /recommend?user=用户名[&n=推荐数]  200 电影名[推荐值]; ...（与推荐作业输出相同）；用户不存在 404；缺少user 400
+ * 	GET /health  200 用户数、电影数、K
+ * 	GET /cache  200 推荐结果缓存的统计（命中、未命中、淘汰、过期、失效次数）
+ * 	POST /reload  中间目录中的评分文件或相似用户模型有变化（IncrementalUpdate之后）时重新加载并换用新模型，
+ * 		只失效推荐结果可能变化的用户；IncrementalUpdate正在替换中间目录时返回503
+ * 	POST /ratings-changed?user=用户名  用户评分有变化时调用：先同 /reload 检查并加载新模型，
+ * 		再失效其自己及以其为相似用户的用户的缓存结果
+ * 未指定n的查询经由RecommendCache缓存，容量、有效期由colfilter.cache.size、colfilter.cache.ttl（秒）配置。
+ * 需先运行CollaborativeFilteringByUser（或IncrementalUpdate）生成中间目录中的字典、评分向量与相似用户模型。
+ * 正在使用的模型文件被内存映射，重新加载时复制到新的本地目录（本地目录下按加载次数编号），不覆盖正在映射的文件。
+ *
+ * @Date: 2026年10月18日
+ */
+public class RecommendServer {
+	private static final String TEXT_PLAIN = "text/plain; charset=UTF-8";
+	// 配置项：推荐结果缓存的容量（用户数），0表示不缓存
+	public static final String CONF_CACHE_SIZE = "colfilter.cache.size";
+	// 配置项：推荐结果缓存的有效期，秒
+	public static final String CONF_CACHE_TTL = "colfilter.cache.ttl";
+
+	/**
+	 *
+	 * @Title：main
+	 * @Description: 启动服务
+	 * @Param: @param args [0]中间结果目录 [1]端口 [2]线程数，均可省略
+	 * @Return: void
+	 */
+	public static void main(String[] args) throws IOException {
+		String tmp = args.length > 0 ? args[0] : "hdfs://master:9000/tmp/colFilter";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 2;
+
+		Configuration configuration = new Configuration();
+		long start = System.currentTimeMillis();
+		Models models = Models.load(configuration, new Path(tmp),
+				new File(System.getProperty("java.io.tmpdir"), "colFilter-model"));
+		RecommendEngine engine = models.engine();
+		System.out.println("model loaded in " + (System.currentTimeMillis() - start) + " ms: users="
+				+ engine.userCounts() + " movies=" + engine.movieCounts() + " k=" + engine.model().k());
+
+		HttpServer server = start(models, port, threads);
+		System.out.println("listening on " + server.getAddress());
+	}
+
+	/**
+	 *
+	 * @Title：start
+	 * @Description: 在指定端口启动HTTP服务，请求由固定大小的线程池处理；模型固定，不支持 /reload
+	 * @Param: @param engine
+	 * @Param: @param cache 推荐结果缓存，为null时不缓存
+	 * @Param: @param port 0表示任选空闲端口
+	 * @Param: @param threads
+	 * @Return: HttpServer
+	 */
+	public static HttpServer start(RecommendEngine engine, RecommendCache cache, int port, int threads)
+			throws IOException {
+		return start(new Models(engine, cache), port, threads);
+	}
+
+	/**
+	 *
+	 * @Title：start
+	 * @Description: 在指定端口启动HTTP服务，请求由固定大小的线程池处理
+	 * @Param: @param models 当前的引擎与缓存
+	 * @Param: @param port 0表示任选空闲端口
+	 * @Param: @param threads
+	 * @Return: HttpServer
+	 */
+	public static HttpServer start(final Models models, int port, int threads) throws IOException {
+		final RecommendCache cache = models.cache();
+		// 响应头与响应体分两次写出，关闭Nagle算法，避免与客户端的延迟确认叠加出约40ms的延迟
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+		server.setExecutor(Executors.newFixedThreadPool(threads));
+
+		server.createContext("/recommend", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String query = exchange.getRequestURI().getRawQuery();
+				String user = parameter(query, "user");
+				if (user == null) {
+					respond(exchange, 400, "missing parameter: user");
+					return;
+				}
+				RecommendEngine engine = models.engine();
+				int userId = engine.userId(user);
+				if (userId < 0) {
+					respond(exchange, 404, "unknown user: " + user);
+					return;
+				}
+				String n = parameter(query, "n");
+				if (n == null) {
+					respond(exchange, 200, cache == null ? engine.recommend(userId, -1) : cache.recommend(userId));
+					return;
+				}
+				try {
+					respond(exchange, 200, engine.recommend(userId, Integer.parseInt(n)));
+				} catch (NumberFormatException e) {
+					respond(exchange, 400, "bad parameter: n=" + n);
+				}
+			}
+		});
+		server.createContext("/health", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				RecommendEngine engine = models.engine();
+				respond(exchange, 200, "users=" + engine.userCounts() + " movies=" + engine.movieCounts() + " k="
+						+ engine.model().k());
+			}
+		});
+		server.createContext("/cache", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, cache == null ? "disabled" : cache.stats());
+			}
+		});
+		server.createContext("/reload", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					respond(exchange, 405, "POST only");
+					return;
+				}
+				if (!models.reloadable()) {
+					respond(exchange, 501, "reload not supported");
+					return;
+				}
+				try {
+					respond(exchange, 200, models.reload() ? "reloaded: " + models.stats() : "unchanged");
+				} catch (IOException e) {
+					respond(exchange, 503, "reload failed: " + e.getMessage());
+				}
+			}
+		});
+		server.createContext("/ratings-changed", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					respond(exchange, 405, "POST only");
+					return;
+				}
+				// 评分已由IncrementalUpdate写入新模型时先换用新模型，新用户也能找到
+				if (models.reloadable()) {
+					try {
+						models.reload();
+					} catch (IOException e) {
+						respond(exchange, 503, "reload failed: " + e.getMessage());
+						return;
+					}
+				}
+				String user = parameter(exchange.getRequestURI().getRawQuery(), "user");
+				int userId = user == null ? -1 : models.engine().userId(user);
+				if (userId < 0) {
+					respond(exchange, 404, "unknown user: " + user);
+					return;
+				}
+				if (cache != null) {
+					cache.ratingsChanged(userId);
+				}
+				respond(exchange, 200, "ok");
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	// 读取查询参数，不存在返回null
+	private static String parameter(String query, String name) throws UnsupportedEncodingException {
+		if (query == null) {
+			return null;
+		}
+		for (String pair : query.split("&")) {
+			int index = pair.indexOf('=');
+			if (index > 0 && pair.substring(0, index).equals(name)) {
+				return URLDecoder.decode(pair.substring(index + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", TEXT_PLAIN);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Models
+	 * </p>
+	 * <p>
+	 * Description: 服务当前使用的引擎与缓存；由中间目录加载时可重新加载：评分文件或相似用户模型的修改时间有变化时，
+	 * 		复制到新的本地目录并打开，缓存先换用新引擎（只失效推荐结果可能变化的用户），之后的查询再使用新引擎
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class Models {
+		private final Configuration conf;
+		private final Path tmp;
+		private final File local;
+		private final RecommendCache cache;
+		private volatile RecommendEngine engine;
+		// 当前模型的本地目录编号，以及加载时评分文件、相似用户模型的修改时间
+		private int generation;
+		private long modelTime;
+		private long storeTime;
+		// 上一次重新加载失效的用户数
+		private int invalidated;
+
+		/**
+		 *
+		 * @Title：Models
+		 * @Description: 固定的引擎与缓存，不支持重新加载
+		 * @Param: @param engine
+		 * @Param: @param cache 为null时不缓存
+		 */
+		public Models(RecommendEngine engine, RecommendCache cache) {
+			this(null, null, null, engine, cache);
+		}
+
+		private Models(Configuration conf, Path tmp, File local, RecommendEngine engine, RecommendCache cache) {
+			this.conf = conf;
+			this.tmp = tmp;
+			this.local = local;
+			this.engine = engine;
+			this.cache = cache;
+		}
+
+		/**
+		 *
+		 * @Title：load
+		 * @Description: 从中间目录加载引擎，并按colfilter.cache.size、colfilter.cache.ttl创建缓存（容量为0时不缓存）
+		 * @Param: @param conf
+		 * @Param: @param tmp CollaborativeFilteringByUser的中间目录
+		 * @Param: @param local 本地目录，各次加载的模型位于其下按编号命名的子目录
+		 * @Return: Models
+		 */
+		public static Models load(Configuration conf, Path tmp, File local) throws IOException {
+			FileSystem fileSystem = tmp.getFileSystem(conf);
+			long modelTime = modificationTime(fileSystem, new Path(tmp, CollaborativeFilteringByUser.MODEL_FILE));
+			long storeTime = modificationTime(fileSystem, new Path(tmp, CollaborativeFilteringByUser.RATINGS_FILE));
+			File directory = new File(local, "0");
+			delete(directory);
+			RecommendEngine engine = RecommendEngine.load(conf, tmp, directory);
+			int capacity = conf.getInt(CONF_CACHE_SIZE, 10000);
+			RecommendCache cache = capacity == 0 ? null
+					: new RecommendCache(engine, capacity, conf.getLong(CONF_CACHE_TTL, 300), TimeUnit.SECONDS);
+			Models models = new Models(conf, tmp, local, engine, cache);
+			models.modelTime = modelTime;
+			models.storeTime = storeTime;
+			return models;
+		}
+
+		public RecommendEngine engine() {
+			return engine;
+		}
+
+		public RecommendCache cache() {
+			return cache;
+		}
+
+		public boolean reloadable() {
+			return tmp != null;
+		}
+
+		/**
+		 *
+		 * @Title：reload
+		 * @Description: 评分文件或相似用户模型有变化时重新加载并换用新引擎；IncrementalUpdate正在替换中间目录，
+		 * 		或加载期间文件又有变化时抛出IOException，仍使用原引擎
+		 * @Return: boolean 是否换用了新引擎
+		 */
+		public synchronized boolean reload() throws IOException {
+			FileSystem fileSystem = tmp.getFileSystem(conf);
+			Path model = new Path(tmp, CollaborativeFilteringByUser.MODEL_FILE);
+			Path store = new Path(tmp, CollaborativeFilteringByUser.RATINGS_FILE);
+			Path commit = new Path(tmp, IncrementalUpdate.COMMIT_FILE);
+			if (fileSystem.exists(commit)) {
+				throw new IOException("incremental update in progress");
+			}
+			long nextModelTime = modificationTime(fileSystem, model);
+			long nextStoreTime = modificationTime(fileSystem, store);
+			if (nextModelTime == modelTime && nextStoreTime == storeTime) {
+				return false;
+			}
+			File directory = new File(local, Integer.toString(generation + 1));
+			delete(directory);
+			RecommendEngine next = RecommendEngine.load(conf, tmp, directory);
+			if (fileSystem.exists(commit) || modificationTime(fileSystem, model) != nextModelTime
+					|| modificationTime(fileSystem, store) != nextStoreTime) {
+				delete(directory);
+				throw new IOException("model changed while loading");
+			}
+			invalidated = cache == null ? 0 : cache.reload(next);
+			engine = next;
+			// 原模型仍被映射，删除文件不影响正在进行的查询
+			delete(new File(local, Integer.toString(generation)));
+			generation++;
+			modelTime = nextModelTime;
+			storeTime = nextStoreTime;
+			return true;
+		}
+
+		public synchronized String stats() {
+			return "generation=" + generation + " users=" + engine.userCounts() + " movies=" + engine.movieCounts()
+					+ " invalidated=" + invalidated;
+		}
+
+		private static long modificationTime(FileSystem fileSystem, Path path) throws IOException {
+			return fileSystem.getFileStatus(path).getModificationTime();
+		}
+
+		// 删除本地目录及其中的文件
+		private static void delete(File directory) {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.gyt.collaborativeFiltering;
+
+import java.util.Arrays;
+
+/**
+ * @FileName: SimilarityKernel.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 用户相似度计算内核，全部基于基本类型数组
+ *
+ * 1. 作为同一部电影下各用户评分的缓冲区：每条评分只解析一次，写入int[]用户ID、float[]评分，
+ *    缓冲区在不同电影之间复用，两两用户的循环中不创建任何对象
+ * 2. similarityTile 在行主序的 用户数×电影数 评分矩阵上，用所选的SimilarityMetric计算一个行块与一个列块之间的用户对的相似度，
+ *    LocalEngine的稠密模式按块对并行调用，结果直接加入两个用户的top-K堆，不保存 用户数×用户数 的完整矩阵
+ *
+ * 按用户分块（tile）计算：一块行与一块列的评分合计约TILE_BYTES字节，留在L2缓存中被块内所有用户对反复使用，
+ * 每块的用户数由tileUsers给出；调用者只计算行块不大于列块的块对，块对内只计算 i<j 的用户对，每对用户只计算一次。
+ *
+ * @Date: 2026年10月18日
+ */
+public class SimilarityKernel {
+	// 一个行块与一个列块的评分合计的字节数上限，按常见的L2缓存大小
+	private static final int TILE_BYTES = 256 * 1024;
+
+	// 用户ID
+	private int[] userIds;
+	// 评分，与userIds下标一一对应
+	private float[] scores;
+	// 当前评分条数
+	private int size = 0;
+
+	public SimilarityKernel() {
+		this(16);
+	}
+
+	public SimilarityKernel(int capacity) {
+		userIds = new int[Math.max(1, capacity)];
+		scores = new float[Math.max(1, capacity)];
+	}
+
+	/**
+	 *
+	 * @Title：clear
+	 * @Description: 清空缓冲区，已分配的数组保留复用
+	 * @Return: void
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 *
+	 * @Title：add
+	 * @Description: 追加一条评分，容量不足时按2倍扩容
+	 * @Param: @param userId
+	 * @Param: @param score
+	 * @Return: void
+	 */
+	public void add(int userId, float score) {
+		if (size == userIds.length) {
+			userIds = Arrays.copyOf(userIds, size * 2);
+			scores = Arrays.copyOf(scores, size * 2);
+		}
+		userIds[size] = userId;
+		scores[size] = score;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int userId(int i) {
+		return userIds[i];
+	}
+
+	public float score(int i) {
+		return scores[i];
+	}
+
+	/**
+	 *
+	 * @Title：similarityTile
+	 * @Description: 计算一个行块与一个列块之间 i<j 的用户对的相似度（块对的上三角部分），块大小见tileUsers；
+	 * 		LocalEngine的稠密模式逐块调用，每对用户只计算一次，不保存完整矩阵
+	 * @Param: @param metric
+	 * @Param: @param ratings 行主序评分矩阵，ratings[i*movieCounts+m]为用户i对电影m的评分
+	 * @Param: @param movieCounts
+	 * @Param: @param rowFrom 行块的第一个用户
+	 * @Param: @param rowTo 行块的最后一个用户+1
+	 * @Param: @param columnFrom 列块的第一个用户，不小于rowFrom
+	 * @Param: @param columnTo 列块的最后一个用户+1
+	 * @Param: @param tile 行主序结果，(i, j)位于 (i-rowFrom)*(columnTo-columnFrom)+(j-columnFrom)；j≤i的位置不写
+	 * @Return: void
+	 */
+	public static void similarityTile(SimilarityMetric metric, float[] ratings, int movieCounts, int rowFrom,
+			int rowTo, int columnFrom, int columnTo, double[] tile) {
+		int width = columnTo - columnFrom;
+		for (int i = rowFrom; i < rowTo; i++) {
+			int j = Math.max(columnFrom, i + 1);
+			int out = (i - rowFrom) * width + (j - columnFrom);
+			for (; j < columnTo; j++) {
+				tile[out++] = metric.similarity(ratings, i * movieCounts, j * movieCounts, movieCounts);
+			}
+		}
+	}
+
+	// 每块的用户数：一个行块与一个列块的评分合计不超过TILE_BYTES
+	static int tileUsers(int movieCounts) {
+		return Math.max(1, TILE_BYTES / (2 * 4 * Math.max(1, movieCounts)));
+	}
+}
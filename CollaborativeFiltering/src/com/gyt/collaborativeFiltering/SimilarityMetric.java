@@ -0,0 +1,348 @@
+package com.gyt.collaborativeFiltering;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * @FileName: SimilarityMetric.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 用户相似度的计算方法，由配置项colfilter.similarity.metric选择，默认legacy
+ *
+ * 评分0.0表示未评分。每种方法有两种实现，结果一致：
+ * 1. similarity：在行主序评分矩阵的两行上直接计算，循环中只有基本类型的加、乘和条件赋值，便于JIT自动向量化
+ * 2. MapReduce实现：用户对的相似度由各电影下的统计量求和后得到，统计量都是原始评分的和，
+ *    评分有增减时只需加上变化部分，见IncrementalUpdate
+ *    1) accumulateUser：CoRatingPairMapper 用每个用户的完整评分向量累加该用户的统计量（如评分平方和、评价数）
+ *    2) accumulate：CoRatingPairReducer 将同一电影下两个用户的评分累加到用户对的统计量数组中（如评分之积、共同评分数）
+ *    3) finish：SimilarityReducer 由用户对统计量之和、两个用户各自的统计量得到相似度
+ *
+ * legacy：Σ(5-|评分1-评分2|)，与原算法一致，未评分的0.0也参与计算（稀疏模式下除外）
+ * cosine：评分向量的余弦相似度
+ * pearson：共同评分电影上的皮尔逊相关系数
+ * adjusted-cosine：各用户评分减去本人平均分后的余弦相似度
+ * jaccard：共同评分电影数 / 二者评价过的电影总数
+ *
+ * @Date: 2026年10月18日
+ */
+public enum SimilarityMetric {
+	LEGACY {
+		@Override
+		public boolean ratedOnly() {
+			return false;
+		}
+
+		@Override
+		public int statistics() {
+			return 1;
+		}
+
+		@Override
+		public void accumulate(double[] stats, float score1, float score2) {
+			stats[0] += 5 - Math.abs(score1 - score2);
+		}
+
+		@Override
+		public double finish(double[] stats, double[] user1, double[] user2) {
+			return stats[0];
+		}
+
+		@Override
+		public double similarity(float[] ratings, int row1, int row2, int length) {
+			double sum = 0.0;
+			for (int m = 0; m < length; m++) {
+				sum += 5 - Math.abs(ratings[row1 + m] - ratings[row2 + m]);
+			}
+			return sum;
+		}
+	},
+
+	COSINE {
+		@Override
+		public int statistics() {
+			return 1;
+		}
+
+		@Override
+		public int userStatistics() {
+			return 1;
+		}
+
+		@Override
+		public void accumulateUser(double[] stats, float score) {
+			stats[0] += score * score;
+		}
+
+		@Override
+		public void accumulate(double[] stats, float score1, float score2) {
+			stats[0] += score1 * score2;
+		}
+
+		@Override
+		public double finish(double[] stats, double[] user1, double[] user2) {
+			// 未评分的电影评分为0.0，评分之积只需在共同评分的电影上求和，模长则是各自全部评分的平方和
+			return cosine(stats[0], user1[0], user2[0]);
+		}
+
+		@Override
+		public double similarity(float[] ratings, int row1, int row2, int length) {
+			double dot = 0.0, squares1 = 0.0, squares2 = 0.0;
+			for (int m = 0; m < length; m++) {
+				float score1 = ratings[row1 + m];
+				float score2 = ratings[row2 + m];
+				dot += score1 * score2;
+				squares1 += score1 * score1;
+				squares2 += score2 * score2;
+			}
+			return cosine(dot, squares1, squares2);
+		}
+	},
+
+	PEARSON {
+		@Override
+		public int statistics() {
+			return 6;
+		}
+
+		@Override
+		public void accumulate(double[] stats, float score1, float score2) {
+			stats[0] += 1;
+			stats[1] += score1;
+			stats[2] += score2;
+			stats[3] += score1 * score1;
+			stats[4] += score2 * score2;
+			stats[5] += score1 * score2;
+		}
+
+		@Override
+		public double finish(double[] stats, double[] user1, double[] user2) {
+			return pearson(stats[0], stats[1], stats[2], stats[3], stats[4], stats[5]);
+		}
+
+		@Override
+		public double similarity(float[] ratings, int row1, int row2, int length) {
+			double n = 0.0, sum1 = 0.0, sum2 = 0.0, squares1 = 0.0, squares2 = 0.0, dot = 0.0;
+			for (int m = 0; m < length; m++) {
+				float score1 = ratings[row1 + m];
+				float score2 = ratings[row2 + m];
+				// 只统计共同评分的电影
+				float both = (score1 != 0.0f & score2 != 0.0f) ? 1.0f : 0.0f;
+				score1 *= both;
+				score2 *= both;
+				n += both;
+				sum1 += score1;
+				sum2 += score2;
+				squares1 += score1 * score1;
+				squares2 += score2 * score2;
+				dot += score1 * score2;
+			}
+			return pearson(n, sum1, sum2, squares1, squares2, dot);
+		}
+	},
+
+	ADJUSTED_COSINE {
+		@Override
+		public int statistics() {
+			return 4;
+		}
+
+		@Override
+		public int userStatistics() {
+			return 3;
+		}
+
+		@Override
+		public void accumulateUser(double[] stats, float score) {
+			stats[0] += 1;
+			stats[1] += score;
+			stats[2] += score * score;
+		}
+
+		@Override
+		public void accumulate(double[] stats, float score1, float score2) {
+			stats[0] += 1;
+			stats[1] += score1;
+			stats[2] += score2;
+			stats[3] += score1 * score2;
+		}
+
+		@Override
+		public double finish(double[] stats, double[] user1, double[] user2) {
+			// Σ(评分1-平均分1)(评分2-平均分2) 在共同评分的电影上展开，平均分与模长来自各自的全部评分
+			double mean1 = user1[0] == 0.0 ? 0.0 : user1[1] / user1[0];
+			double mean2 = user2[0] == 0.0 ? 0.0 : user2[1] / user2[0];
+			double dot = stats[3] - mean2 * stats[1] - mean1 * stats[2] + stats[0] * mean1 * mean2;
+			double squares1 = Math.max(0.0, user1[2] - user1[1] * mean1);
+			double squares2 = Math.max(0.0, user2[2] - user2[1] * mean2);
+			return cosine(dot, squares1, squares2);
+		}
+
+		@Override
+		public double similarity(float[] ratings, int row1, int row2, int length) {
+			float mean1 = mean(ratings, row1, length);
+			float mean2 = mean(ratings, row2, length);
+			double dot = 0.0, squares1 = 0.0, squares2 = 0.0;
+			for (int m = 0; m < length; m++) {
+				float score1 = ratings[row1 + m];
+				float score2 = ratings[row2 + m];
+				score1 = score1 != 0.0f ? score1 - mean1 : 0.0f;
+				score2 = score2 != 0.0f ? score2 - mean2 : 0.0f;
+				dot += score1 * score2;
+				squares1 += score1 * score1;
+				squares2 += score2 * score2;
+			}
+			return cosine(dot, squares1, squares2);
+		}
+	},
+
+	JACCARD {
+		@Override
+		public int statistics() {
+			return 1;
+		}
+
+		@Override
+		public int userStatistics() {
+			return 1;
+		}
+
+		@Override
+		public void accumulateUser(double[] stats, float score) {
+			stats[0] += 1;
+		}
+
+		@Override
+		public void accumulate(double[] stats, float score1, float score2) {
+			stats[0] += 1;
+		}
+
+		@Override
+		public double finish(double[] stats, double[] user1, double[] user2) {
+			// 交集/(评价数1+评价数2-交集)
+			double either = user1[0] + user2[0] - stats[0];
+			return either <= 0.0 ? 0.0 : stats[0] / either;
+		}
+
+		@Override
+		public double similarity(float[] ratings, int row1, int row2, int length) {
+			int both = 0, either = 0;
+			for (int m = 0; m < length; m++) {
+				boolean rated1 = ratings[row1 + m] != 0.0f;
+				boolean rated2 = ratings[row2 + m] != 0.0f;
+				both += (rated1 & rated2) ? 1 : 0;
+				either += (rated1 | rated2) ? 1 : 0;
+			}
+			return either == 0 ? 0.0 : (double) both / either;
+		}
+	};
+
+	/**
+	 *
+	 * @Title：ratedOnly
+	 * @Description: 是否只统计共同评分的电影；为false时由colfilter.pairs.sparse决定
+	 * @Return: boolean
+	 */
+	public boolean ratedOnly() {
+		return true;
+	}
+
+	/**
+	 *
+	 * @Title：statistics
+	 * @Description: 每个用户对需要累加的统计量个数
+	 * @Return: int
+	 */
+	public abstract int statistics();
+
+	/**
+	 *
+	 * @Title：userStatistics
+	 * @Description: 每个用户需要累加的统计量个数，为0时不需要用户统计量
+	 * @Return: int
+	 */
+	public int userStatistics() {
+		return 0;
+	}
+
+	/**
+	 *
+	 * @Title：accumulateUser
+	 * @Description: 将一个用户的一条评分（不为0.0）累加到该用户的统计量中
+	 * @Param: @param stats 长度为userStatistics()
+	 * @Param: @param score
+	 * @Return: void
+	 */
+	public void accumulateUser(double[] stats, float score) {
+	}
+
+	/**
+	 *
+	 * @Title：accumulate
+	 * @Description: 将同一电影下两个用户的评分累加到用户对的统计量中
+	 * @Param: @param stats 长度为statistics()
+	 * @Param: @param score1 用户对中ID较小的用户（pairFirst）的评分
+	 * @Param: @param score2 用户对中ID较大的用户（pairSecond）的评分
+	 * @Return: void
+	 */
+	public abstract void accumulate(double[] stats, float score1, float score2);
+
+	/**
+	 *
+	 * @Title：finish
+	 * @Description: 由所有电影的统计量之和得到相似度
+	 * @Param: @param stats 用户对的统计量
+	 * @Param: @param user1 pairFirst的用户统计量，userStatistics()为0时可以为null
+	 * @Param: @param user2 pairSecond的用户统计量
+	 * @Return: double
+	 */
+	public abstract double finish(double[] stats, double[] user1, double[] user2);
+
+	/**
+	 *
+	 * @Title：similarity
+	 * @Description: 在行主序评分矩阵上直接计算两个用户的相似度
+	 * @Param: @param ratings ratings[row+m]为该用户对电影m的评分
+	 * @Param: @param row1 用户1所在行的起始下标
+	 * @Param: @param row2 用户2所在行的起始下标
+	 * @Param: @param length 电影数
+	 * @Return: double
+	 */
+	public abstract double similarity(float[] ratings, int row1, int row2, int length);
+
+	/**
+	 *
+	 * @Title：get
+	 * @Description: 读取配置项colfilter.similarity.metric，如 cosine、adjusted-cosine，不区分大小写
+	 * @Param: @param conf
+	 * @Return: SimilarityMetric
+	 */
+	public static SimilarityMetric get(Configuration conf) {
+		return forName(conf.get(CollaborativeFilteringByUser.CONF_SIMILARITY_METRIC, LEGACY.name()));
+	}
+
+	public static SimilarityMetric forName(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+
+	// 已评分电影的平均分
+	private static float mean(float[] scores, int offset, int length) {
+		float sum = 0.0f;
+		int rated = 0;
+		for (int i = 0; i < length; i++) {
+			float score = scores[offset + i];
+			sum += score;
+			rated += score != 0.0f ? 1 : 0;
+		}
+		return rated == 0 ? 0.0f : sum / rated;
+	}
+
+	private static double cosine(double dot, double squares1, double squares2) {
+		double norms = Math.sqrt(squares1 * squares2);
+		return norms == 0.0 ? 0.0 : dot / norms;
+	}
+
+	private static double pearson(double n, double sum1, double sum2, double squares1, double squares2, double dot) {
+		double numerator = n * dot - sum1 * sum2;
+		double denominator = Math.sqrt((n * squares1 - sum1 * sum1) * (n * squares2 - sum2 * sum2));
+		return denominator <= 0.0 || Double.isNaN(denominator) ? 0.0 : numerator / denominator;
+	}
+}
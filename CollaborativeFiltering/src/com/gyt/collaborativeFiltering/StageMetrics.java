@@ -0,0 +1,207 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.log4j.Logger;
+
+/**
+ * @FileName: StageMetrics.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 各阶段的指标：任务内的计数器与计时、驱动程序端按阶段汇总的指标记录，以及逐条记录日志的抽样
+ *
+ * 任务内只累加局部变量，cleanup时一次性加到Hadoop计数器（StageCounter），计时用System.nanoTime，按毫秒汇总，
+ * 热点路径上没有计数器查找、字符串拼接或输出。
+ * 驱动程序每个作业完成后由record读取本作业的StageCounter以及Hadoop内置的map输出字节数、shuffle字节数等，
+ * 以INFO级别输出一行摘要；配置colfilter.metrics.file时，全部阶段的指标另外写成文本文件，每行 阶段	指标	值。
+ * 逐条记录的日志只在DEBUG级别开启时输出，并且每colfilter.log.sample条只输出一条（Sampler）；
+ * 本地运行时级别由log4j.properties配置，集群上由mapreduce.map.log.level、mapreduce.reduce.log.level配置。
+ *
+ * @Date: 2026年10月18日
+ */
+public class StageMetrics {
+	// 配置项：指标文件路径，未配置时只输出日志
+	public static final String CONF_METRICS_FILE = "colfilter.metrics.file";
+	// 配置项：DEBUG级别下每多少条记录输出一条日志，默认10000
+	public static final String CONF_LOG_SAMPLE = "colfilter.log.sample";
+	// 阶段耗时的指标名
+	public static final String MILLIS = "MILLIS";
+
+	// 各作业任务内累加的计数器
+	public static enum StageCounter {
+		// 解析的源数据记录数、空行数、格式错误而跳过的记录数、评分数
+		RECORDS_PARSED, EMPTY_RECORDS, BAD_RECORDS, RATINGS,
+		// 输出的共同评分用户对统计量数、抽样去掉的评分数、计算的用户对相似度数
+		CO_RATING_PAIRS, CAPPED_RATINGS, SIMILARITY_OPS,
+		// 选出相似用户的用户数及耗时
+		TOP_K_USERS, TOP_K_MILLIS,
+		// 计算推荐的用户数及评分关联、推荐的耗时
+		SCORED_USERS, SCORING_MILLIS
+	}
+
+	// 每个作业记录的Hadoop内置计数器
+	private static final TaskCounter[] TASK_COUNTERS = { TaskCounter.MAP_INPUT_RECORDS,
+			TaskCounter.MAP_OUTPUT_RECORDS, TaskCounter.MAP_OUTPUT_BYTES, TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES,
+			TaskCounter.REDUCE_SHUFFLE_BYTES, TaskCounter.SPILLED_RECORDS };
+
+	private static final Logger LOG = Logger.getLogger(StageMetrics.class);
+	// 驱动程序进程内各作业流程共用的记录
+	private static final StageMetrics DRIVER = new StageMetrics();
+
+	// 阶段 -> 指标 -> 值，按加入顺序
+	private final Map<String, Map<String, Long>> stages = new LinkedHashMap<>();
+
+	/**
+	 *
+	 * @Title：driver
+	 * @Description: 驱动程序进程内的指标记录，runJob在每个作业完成后写入
+	 * @Return: StageMetrics
+	 */
+	public static StageMetrics driver() {
+		return DRIVER;
+	}
+
+	/**
+	 *
+	 * @Title：add
+	 * @Description: 累加阶段的一项指标
+	 * @Param: @param stage
+	 * @Param: @param name
+	 * @Param: @param value
+	 * @Return: void
+	 */
+	public synchronized void add(String stage, String name, long value) {
+		Map<String, Long> metrics = stages.get(stage);
+		if (metrics == null) {
+			metrics = new LinkedHashMap<>();
+			stages.put(stage, metrics);
+		}
+		Long old = metrics.get(name);
+		metrics.put(name, old == null ? value : old + value);
+	}
+
+	/**
+	 *
+	 * @Title：get
+	 * @Description: 阶段的一项指标，没有时为0
+	 * @Param: @param stage
+	 * @Param: @param name
+	 * @Return: long
+	 */
+	public synchronized long get(String stage, String name) {
+		Map<String, Long> metrics = stages.get(stage);
+		Long value = metrics == null ? null : metrics.get(name);
+		return value == null ? 0 : value;
+	}
+
+	/**
+	 *
+	 * @Title：record
+	 * @Description: 记录已完成作业的耗时与计数器（阶段名为作业名），并输出一行摘要
+	 * @Param: @param job
+	 * @Param: @param millis 作业耗时
+	 * @Return: void
+	 */
+	public void record(Job job, long millis) throws IOException {
+		String stage = job.getJobName();
+		add(stage, MILLIS, millis);
+		Counters counters = job.getCounters();
+		if (counters != null) {
+			for (TaskCounter counter : TASK_COUNTERS) {
+				add(stage, counter.name(), counters.findCounter(counter).getValue());
+			}
+			for (StageCounter counter : StageCounter.values()) {
+				long value = counters.findCounter(counter).getValue();
+				if (value != 0) {
+					add(stage, counter.name(), value);
+				}
+			}
+		}
+		LOG.info(summary(stage));
+	}
+
+	/**
+	 *
+	 * @Title：summary
+	 * @Description: 阶段的全部指标，一行 阶段 指标=值 ...
+	 * @Param: @param stage
+	 * @Return: String
+	 */
+	public synchronized String summary(String stage) {
+		StringBuilder builder = new StringBuilder(stage);
+		Map<String, Long> metrics = stages.get(stage);
+		if (metrics != null) {
+			for (Entry<String, Long> metric : metrics.entrySet()) {
+				builder.append(' ').append(metric.getKey()).append('=').append(metric.getValue());
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 *
+	 * @Title：write
+	 * @Description: 配置了colfilter.metrics.file时写出全部阶段的指标，每行 阶段	指标	值
+	 * @Param: @param conf
+	 * @Return: void
+	 */
+	public synchronized void write(Configuration conf) throws IOException {
+		String file = conf.get(CONF_METRICS_FILE);
+		if (file == null) {
+			return;
+		}
+		Path path = new Path(file);
+		try (BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(path.getFileSystem(conf).create(path, true), StandardCharsets.UTF_8))) {
+			for (Entry<String, Map<String, Long>> stage : stages.entrySet()) {
+				for (Entry<String, Long> metric : stage.getValue().entrySet()) {
+					writer.write(stage.getKey() + "\t" + metric.getKey() + "\t" + metric.getValue() + "\n");
+				}
+			}
+		}
+		LOG.info("metrics written to " + path);
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: Sampler
+	 * </p>
+	 * <p>
+	 * Description: 逐条记录日志的抽样：日志级别在创建时判断一次，未开启DEBUG时每条记录只有一次比较
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	public static class Sampler {
+		// 0表示不输出
+		private final long interval;
+		private long count = 0;
+
+		public Sampler(Configuration conf, Logger log) {
+			interval = log.isDebugEnabled() ? Math.max(1, conf.getLong(CONF_LOG_SAMPLE, 10000)) : 0;
+		}
+
+		/**
+		 *
+		 * @Title：sample
+		 * @Description: 本条记录是否输出日志：第1、interval+1、2×interval+1...条
+		 * @Return: boolean
+		 */
+		public boolean sample() {
+			return interval > 0 && count++ % interval == 0;
+		}
+	}
+}
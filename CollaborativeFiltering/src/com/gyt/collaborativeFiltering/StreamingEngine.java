@@ -0,0 +1,1028 @@
+package com.gyt.collaborativeFiltering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import com.gyt.collaborativeFiltering.RatingFormat.RatingRecord;
+import com.gyt.collaborativeFiltering.StageMetrics.StageCounter;
+
+/**
+ * @FileName: StreamingEngine.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 流式推荐：持续读取只追加的评分事件文件，在内存中更新评分向量与用户对统计量，几秒内为受影响的用户输出新的推荐电影
+ *
+ * 事件文件每行为一条源数据（colfilter.input.format 的 lines 或 triples 格式），同一用户、电影以后出现的评分为准，
+ * 评分0.0表示取消评分。每隔colfilter.stream.poll.ms（默认1000毫秒）读取文件新增的完整行，作为一批处理：
+ * 	1) 每条评分变化与IncrementalUpdate相同，只对同一电影的其他评分用户减去原评分、加上新评分的用户对统计量，
+ * 	   并重新计算该用户的用户统计量
+ * 	2) 评分有变化的用户重新选出K个相似用户；其他用户只检查统计量有变化的用户对（同一电影的其他评分用户，
+ * 	   方法需要用户统计量时如cosine的评分平方和，为与评分有变化的用户有共同评分的所有用户）：
+ * 	   相似度与该用户当前的第K个相似用户比较，直接在相似用户列表中更新、插入或去掉；
+ * 	   只有列表中的用户相似度降到第K个之后（可能被列表外的用户替换）时才重新选出，不必每批扫描全部用户对
+ * 	3) 相似用户有变化的用户、评分有变化的用户、以评分有变化的用户为相似用户的用户重新计算推荐电影，
+ * 	   按推荐作业的格式 用户名(Tab)(Tab)电影名[推荐值]; ... 追加写到输出文件，同一用户以最后一行为准
+ * 每隔colfilter.stream.checkpoint.ms（默认60000毫秒）及退出时，把字典、评分向量与事件文件的读取位置写入检查点，
+ * 	先写临时文件再改名；重启时由检查点的评分向量重新计算用户对统计量与相似用户（同时消除增减累积的浮点误差），
+ * 	从记录的位置继续读取。检查点之后已输出推荐的事件在重启后会再处理一次，推荐结果相同。
+ * 	一批评分读取或输出推荐时出错则退出前不写检查点，避免检查点中的读取位置越过没有输出推荐的评分。
+ * 只支持稀疏模式（legacy方法需设置colfilter.pairs.sparse=true），全部状态由一个线程更新。
+ * 用户、电影ID按出现顺序分配，相似度、推荐值相等时的先后顺序可能与批处理作业不同；
+ * 未配置colfilter.neighbours.k时K为重新选出相似用户时用户总数的1/4。
+ *
+ * @Date: 2026年10月18日
+ */
+public class StreamingEngine {
+	// 配置项：读取事件文件的间隔毫秒数，默认1000
+	public static final String CONF_POLL_MILLIS = "colfilter.stream.poll.ms";
+	// 配置项：写检查点的间隔毫秒数，默认60000
+	public static final String CONF_CHECKPOINT_MILLIS = "colfilter.stream.checkpoint.ms";
+	// 检查点目录下的文件名
+	public static final String CHECKPOINT_FILE = "stream.checkpoint";
+
+	// 检查点文件头："CFSC"、版本
+	private static final int MAGIC = 0x43465343;
+	private static final int VERSION = 1;
+	// 每批最多读取的字节数
+	private static final int MAX_BATCH_BYTES = 8 << 20;
+	// updateNeighbour的结果：列表没有变化、已更新、需要重新选出
+	private static final int UNCHANGED = 0;
+	private static final int UPDATED = 1;
+	private static final int RESELECT = 2;
+	private static final Logger LOG = Logger.getLogger(StreamingEngine.class);
+
+	private final Configuration conf;
+	private final SimilarityMetric metric;
+	private final RatingFormat format;
+	// 用户对统计量个数
+	private final int statistics;
+	private final StageMetrics metrics = new StageMetrics();
+	private volatile boolean running = true;
+
+	// 字典，ID按出现顺序分配
+	private final Map<String, Integer> userIds = new HashMap<>();
+	private final List<String> userNames = new ArrayList<>();
+	private final Map<String, Integer> movieIds = new HashMap<>();
+	private final List<String> movieNames = new ArrayList<>();
+	// 评分向量（下标为用户ID）与倒排表（下标为电影ID），只保存不为0.0的评分
+	private final List<SparseRow> userRatings = new ArrayList<>();
+	private final List<SparseRow> movieRatings = new ArrayList<>();
+	// 用户对统计量，下标为用户ID，key为另一用户ID，同一用户对的两个方向共用一个数组：
+	// 前statistics个为各共同评分电影的统计量之和（ID较小的用户的评分在前），最后一个为共同评分的电影数
+	private final List<IdTable> pairs = new ArrayList<>();
+	// 用户统计量，方法不需要时元素为null
+	private final List<double[]> userStats = new ArrayList<>();
+	// 相似用户及相似度，按TopKHeap的顺序（相似度从高到低）；选出时的K，K变化后的第一次更新重新选出
+	private final List<int[]> neighbourIds = new ArrayList<>();
+	private final List<double[]> neighbourSimilarities = new ArrayList<>();
+	private int[] neighbourLimits = new int[16];
+	// 以该用户为相似用户的用户，只用键
+	private final List<IdTable> followers = new ArrayList<>();
+	// 本批中评分有变化的用户；统计量有变化的用户对（pairId，可能重复）
+	private final UserList changedUsers = new UserList();
+	private long[] changedPairs = new long[16];
+	private int changedPairCounts = 0;
+	// refresh中重新选出相似用户、重新计算推荐电影的用户
+	private final UserList reselectUsers = new UserList();
+	private final UserList rescoreUsers = new UserList();
+	// 本批处理的评分数
+	private long batchRatings = 0;
+	// 事件文件中已处理到的位置
+	private long offset = 0;
+	// 复用的缓冲区
+	private final double[] scratch;
+	private final RatingRecord record = new RatingRecord();
+	private final Text text = new Text();
+	private double[] movieRecommendScore = new double[16];
+	private boolean[] rated = new boolean[16];
+	private final DecimalFormat df = new DecimalFormat("#.00");
+	private final StringBuilder recommendMovies = new StringBuilder();
+
+	public StreamingEngine(Configuration conf) {
+		this.conf = conf;
+		this.metric = SimilarityMetric.get(conf);
+		this.format = RatingFormat.get(conf);
+		if (!metric.ratedOnly() && !conf.getBoolean(CollaborativeFilteringByUser.CONF_SPARSE_PAIRS, false)) {
+			throw new IllegalArgumentException(
+					"streaming needs colfilter.pairs.sparse=true for the " + metric.name().toLowerCase() + " metric");
+		}
+		if (format == RatingFormat.BINARY) {
+			throw new IllegalArgumentException("streaming reads text events, binary input format is not supported");
+		}
+		this.statistics = metric.statistics();
+		this.scratch = new double[statistics];
+	}
+
+	/**
+	 *
+	 * @Title：main
+	 * @Description: 主函数，持续运行直到进程收到退出信号，退出前写检查点
+	 * @Param: @param args [0]评分事件文件 [1]推荐结果输出文件（追加） [2]检查点目录
+	 * @Return: void
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 3) {
+			System.out.println("usage: StreamingEngine <events file> <output file> <checkpoint dir>");
+			return;
+		}
+		final StreamingEngine engine;
+		try {
+			engine = new StreamingEngine(new Configuration());
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		final Thread main = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				engine.stop();
+				try {
+					main.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		engine.run(new File(args[0]), new File(args[1]), new File(args[2]));
+		engine.metrics().write(engine.conf);
+	}
+
+	public StageMetrics metrics() {
+		return metrics;
+	}
+
+	// 事件文件中已处理到的位置
+	public long offset() {
+		return offset;
+	}
+
+	public int userCounts() {
+		return userNames.size();
+	}
+
+	/**
+	 *
+	 * @Title：stop
+	 * @Description: 停止run的循环，当前一批处理完并写检查点后返回
+	 * @Return: void
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 *
+	 * @Title：run
+	 * @Description: 从检查点（若存在）恢复，然后循环读取事件文件、输出推荐，定期写检查点，直到stop；
+	 * 		只在一批评分的推荐全部输出后写检查点，读取或输出中途出错时退出前不写，重启后从上一个检查点重新处理这批评分
+	 * @Param: @param events 评分事件文件，可以尚不存在
+	 * @Param: @param output 推荐结果输出文件，追加写入
+	 * @Param: @param checkpointDir 检查点目录
+	 * @Return: void
+	 */
+	public void run(File events, File output, File checkpointDir) throws IOException, InterruptedException {
+		long pollMillis = conf.getLong(CONF_POLL_MILLIS, 1000);
+		long checkpointMillis = conf.getLong(CONF_CHECKPOINT_MILLIS, 60000);
+		checkpointDir.mkdirs();
+		File checkpoint = new File(checkpointDir, CHECKPOINT_FILE);
+		if (checkpoint.exists()) {
+			restore(checkpoint);
+		}
+		long lastCheckpoint = System.currentTimeMillis();
+		// 已读取的评分是否都已完成refresh，只有此时的状态与输出一致、可以写检查点
+		boolean refreshed = true;
+		try (Writer out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(output, true), StandardCharsets.UTF_8))) {
+			while (running) {
+				long start = System.currentTimeMillis();
+				refreshed = false;
+				if (poll(events) > 0) {
+					refresh(out);
+				}
+				refreshed = true;
+				long now = System.currentTimeMillis();
+				if (now - lastCheckpoint >= checkpointMillis) {
+					checkpoint(checkpoint);
+					lastCheckpoint = now;
+				}
+				long sleep = pollMillis - (System.currentTimeMillis() - start);
+				if (running && sleep > 0) {
+					Thread.sleep(sleep);
+				}
+			}
+		} finally {
+			if (refreshed) {
+				checkpoint(checkpoint);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @Title：poll
+	 * @Description: 读取事件文件上次位置之后的完整行并更新评分，末尾不完整的行留到下次读取；文件变短时从头读取
+	 * @Param: @param events
+	 * @Return: int 处理的评分数
+	 */
+	public int poll(File events) throws IOException {
+		if (!events.exists()) {
+			return 0;
+		}
+		byte[] buffer;
+		try (RandomAccessFile file = new RandomAccessFile(events, "r")) {
+			long length = file.length();
+			if (length < offset) {
+				LOG.warn(events + " is shorter than the processed offset " + offset + ", reading from the beginning");
+				offset = 0;
+			}
+			if (length == offset) {
+				return 0;
+			}
+			buffer = new byte[(int) Math.min(length - offset, MAX_BATCH_BYTES)];
+			file.seek(offset);
+			file.readFully(buffer);
+		}
+		int end = buffer.length;
+		while (end > 0 && buffer[end - 1] != '\n') {
+			end--;
+		}
+		if (end == 0) {
+			if (buffer.length == MAX_BATCH_BYTES) {
+				throw new IOException("event line longer than " + MAX_BATCH_BYTES + " bytes at offset " + offset);
+			}
+			return 0;
+		}
+		int ratings = 0;
+		int start = 0;
+		for (int i = 0; i < end; i++) {
+			if (buffer[i] != '\n') {
+				continue;
+			}
+			int lineEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+			text.set(buffer, start, lineEnd - start);
+			start = i + 1;
+			if (!format.parse(text, record)) {
+				if (record.isMalformed()) {
+					// 格式错误的行跳过，不中断处理
+					LOG.warn("skipped bad event: " + text);
+					metrics.add("stream-batch", StageCounter.BAD_RECORDS.name(), 1);
+				}
+				continue;
+			}
+			for (int r = 0; r < record.size(); r++) {
+				rate(record.user(), record.movie(r), record.score(r));
+				ratings++;
+			}
+		}
+		offset += end;
+		return ratings;
+	}
+
+	/**
+	 *
+	 * @Title：rate
+	 * @Description: 设置一条评分，更新评分向量、倒排表、同一电影其他评分用户与该用户的用户对统计量以及用户统计量
+	 * @Param: @param user
+	 * @Param: @param movie
+	 * @Param: @param score 0.0表示取消评分
+	 * @Return: void
+	 */
+	public void rate(String user, String movie, float score) {
+		int u = userId(user);
+		int m = movieId(movie);
+		SparseRow row = userRatings.get(u);
+		float old = row.get(m);
+		if (Float.compare(old, score) == 0) {
+			return;
+		}
+		SparseRow raters = movieRatings.get(m);
+		for (int i = 0; i < raters.size(); i++) {
+			int v = raters.id(i);
+			if (v == u) {
+				continue;
+			}
+			double[] stats = pairStats(u, v);
+			if (old != 0.0f) {
+				addPair(stats, u, old, v, raters.value(i), -1);
+			}
+			if (score != 0.0f) {
+				addPair(stats, u, score, v, raters.value(i), 1);
+			}
+			if (stats[statistics] <= 0) {
+				// 不再有共同评分的电影
+				pairs.get(u).remove(v);
+				pairs.get(v).remove(u);
+			}
+			changePair(u, v);
+		}
+		row.set(m, score);
+		raters.set(u, score);
+		if (metric.userStatistics() > 0) {
+			double[] stats = userStats.get(u);
+			Arrays.fill(stats, 0.0);
+			for (int i = 0; i < row.size(); i++) {
+				metric.accumulateUser(stats, row.value(i));
+			}
+		}
+		changedUsers.add(u);
+		batchRatings++;
+	}
+
+	// 记录统计量有变化的用户对
+	private void changePair(int u, int v) {
+		if (changedPairCounts == changedPairs.length) {
+			changedPairs = Arrays.copyOf(changedPairs, changedPairCounts * 2);
+		}
+		changedPairs[changedPairCounts++] = CollaborativeFilteringByUser.pairId(u, v);
+	}
+
+	private int userId(String name) {
+		Integer id = userIds.get(name);
+		if (id == null) {
+			id = userNames.size();
+			userIds.put(name, id);
+			userNames.add(name);
+			userRatings.add(new SparseRow());
+			pairs.add(new IdTable());
+			userStats.add(metric.userStatistics() > 0 ? new double[metric.userStatistics()] : null);
+			neighbourIds.add(new int[0]);
+			neighbourSimilarities.add(new double[0]);
+			if (id == neighbourLimits.length) {
+				neighbourLimits = Arrays.copyOf(neighbourLimits, id * 2);
+			}
+			neighbourLimits[id] = 0;
+			followers.add(new IdTable());
+		}
+		return id;
+	}
+
+	private int movieId(String name) {
+		Integer id = movieIds.get(name);
+		if (id == null) {
+			id = movieNames.size();
+			movieIds.put(name, id);
+			movieNames.add(name);
+			movieRatings.add(new SparseRow());
+		}
+		return id;
+	}
+
+	// 用户对的统计量，不存在时创建
+	private double[] pairStats(int u, int v) {
+		double[] stats = pairs.get(u).get(v);
+		if (stats == null) {
+			stats = new double[statistics + 1];
+			pairs.get(u).put(v, stats);
+			pairs.get(v).put(u, stats);
+		}
+		return stats;
+	}
+
+	// 将一部电影上两个用户评分的统计量乘以sign加到stats上，共同评分电影数加sign
+	private void addPair(double[] stats, int u, float scoreU, int v, float scoreV, int sign) {
+		Arrays.fill(scratch, 0.0);
+		// 统计量中的评分顺序与用户对中的用户顺序一致（ID较小的在前）
+		if (u < v) {
+			metric.accumulate(scratch, scoreU, scoreV);
+		} else {
+			metric.accumulate(scratch, scoreV, scoreU);
+		}
+		for (int s = 0; s < statistics; s++) {
+			stats[s] += sign * scratch[s];
+		}
+		stats[statistics] += sign;
+	}
+
+	/**
+	 *
+	 * @Title：refresh
+	 * @Description: 为本批受影响的用户更新相似用户、计算推荐电影并写出，每个用户一行，按用户ID排列
+	 * @Param: @param out
+	 * @Return: int 输出的用户数
+	 */
+	public int refresh(Writer out) throws IOException {
+		long start = System.currentTimeMillis();
+		conf.setLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, userNames.size());
+		int k = CollaborativeFilteringByUser.neighbourCounts(conf);
+		TopKHeap topK = new TopKHeap(k);
+		for (int i = 0; i < changedUsers.size(); i++) {
+			int u = changedUsers.get(i);
+			if (metric.userStatistics() > 0) {
+				// 用户统计量变化后，该用户与所有有共同评分的用户的相似度都会变化
+				IdTable row = pairs.get(u);
+				for (int slot = 0; slot < row.capacity(); slot++) {
+					if (row.key(slot) != IdTable.FREE) {
+						changePair(u, row.key(slot));
+					}
+				}
+			}
+			reselectUsers.add(u);
+		}
+		// 其他用户逐个检查有变化的用户对，同一用户对只检查一次
+		Arrays.sort(changedPairs, 0, changedPairCounts);
+		int checkedPairs = 0;
+		for (int i = 0; i < changedPairCounts; i++) {
+			if (i > 0 && changedPairs[i] == changedPairs[i - 1]) {
+				continue;
+			}
+			int first = CollaborativeFilteringByUser.pairFirst(changedPairs[i]);
+			int second = CollaborativeFilteringByUser.pairSecond(changedPairs[i]);
+			checkNeighbour(first, second, k);
+			checkNeighbour(second, first, k);
+			checkedPairs++;
+		}
+		reselectUsers.sort();
+		for (int i = 0; i < reselectUsers.size(); i++) {
+			int w = reselectUsers.get(i);
+			if (selectNeighbours(w, topK)) {
+				rescoreUsers.add(w);
+			}
+		}
+		for (int i = 0; i < changedUsers.size(); i++) {
+			int u = changedUsers.get(i);
+			rescoreUsers.add(u);
+			IdTable row = followers.get(u);
+			for (int slot = 0; slot < row.capacity(); slot++) {
+				if (row.key(slot) != IdTable.FREE) {
+					rescoreUsers.add(row.key(slot));
+				}
+			}
+		}
+		rescoreUsers.sort();
+		for (int i = 0; i < rescoreUsers.size(); i++) {
+			int w = rescoreUsers.get(i);
+			out.write(userNames.get(w));
+			out.write("\t\t");
+			out.write(recommend(w));
+			out.write('\n');
+		}
+		out.flush();
+
+		int rescored = rescoreUsers.size();
+		long millis = System.currentTimeMillis() - start;
+		metrics.add("stream-batch", StageCounter.RATINGS.name(), batchRatings);
+		metrics.add("stream-batch", StageCounter.TOP_K_USERS.name(), reselectUsers.size());
+		metrics.add("stream-batch", StageCounter.SCORED_USERS.name(), rescored);
+		metrics.add("stream-batch", StageMetrics.MILLIS, millis);
+		LOG.info("batch: " + batchRatings + " ratings by " + changedUsers.size() + " users, " + checkedPairs
+				+ " pairs checked, " + reselectUsers.size() + " neighbour lists reselected, " + rescored
+				+ " users refreshed in " + millis + " ms, offset " + offset);
+		changedUsers.clear();
+		changedPairCounts = 0;
+		reselectUsers.clear();
+		rescoreUsers.clear();
+		batchRatings = 0;
+		return rescored;
+	}
+
+	// 用户对(w, v)的统计量有变化：w需要重新选出时记入reselectUsers，相似用户列表有变化时记入rescoreUsers
+	private void checkNeighbour(int w, int v, int k) {
+		if (reselectUsers.contains(w)) {
+			return;
+		}
+		if (neighbourLimits[w] != k) {
+			reselectUsers.add(w);
+			return;
+		}
+		int result = updateNeighbour(w, v, k);
+		if (result == RESELECT) {
+			reselectUsers.add(w);
+		} else if (result == UPDATED) {
+			rescoreUsers.add(w);
+		}
+	}
+
+	/**
+	 *
+	 * @Title：updateNeighbour
+	 * @Description: 按(w, v)的新相似度增量更新w的相似用户列表。列表是按之前的相似度选出的前K个，列表外的用户都排在末位之后，
+	 *               因此v进入列表、在列表中上升、列表未满时的变化都可以直接确定；
+	 *               v原在列表中而新相似度排到末位之后（含不再有共同评分）且列表已满时，列表外的用户可能补入，需要重新选出。
+	 *               同一批的多个用户对依次检查，每次检查后列表仍是当前相似度下的前K个
+	 * @Param: @param w
+	 * @Param: @param v
+	 * @Param: @param k 列表选出时的K
+	 * @Return: int UNCHANGED、UPDATED或RESELECT
+	 */
+	private int updateNeighbour(int w, int v, int k) {
+		if (k == 0) {
+			return UNCHANGED;
+		}
+		int[] ids = neighbourIds.get(w);
+		double[] similarities = neighbourSimilarities.get(w);
+		int size = ids.length;
+		int index = -1;
+		for (int i = 0; i < size; i++) {
+			if (ids[i] == v) {
+				index = i;
+				break;
+			}
+		}
+		double[] stats = pairs.get(w).get(v);
+		if (stats == null) {
+			// 不再有共同评分
+			if (index < 0) {
+				return UNCHANGED;
+			}
+			if (size == k) {
+				return RESELECT;
+			}
+			editNeighbours(w, index, -1, 0.0, k);
+			return UPDATED;
+		}
+		double value = finish(stats, w, v);
+		if (index >= 0) {
+			if (Double.compare(value, similarities[index]) == 0) {
+				return UNCHANGED;
+			}
+			if (size == k && TopKHeap.better(ids[size - 1], similarities[size - 1], v, value)) {
+				return RESELECT;
+			}
+			editNeighbours(w, index, v, value, k);
+			return UPDATED;
+		}
+		// 列表未满时列表外没有其他候选用户；已满时只有排在末位之前才进入
+		if (size == k && !TopKHeap.better(v, value, ids[size - 1], similarities[size - 1])) {
+			return UNCHANGED;
+		}
+		editNeighbours(w, -1, v, value, k);
+		return UPDATED;
+	}
+
+	// 从w的相似用户列表中去掉下标remove（-1表示不去掉），按顺序插入(v, value)（v为-1表示不插入），超过k个时去掉末位，同时更新反向索引
+	private void editNeighbours(int w, int remove, int v, double value, int k) {
+		int[] oldIds = neighbourIds.get(w);
+		double[] oldSimilarities = neighbourSimilarities.get(w);
+		int size = oldIds.length - (remove >= 0 ? 1 : 0) + (v >= 0 ? 1 : 0);
+		int[] ids = new int[Math.min(size, k)];
+		double[] similarities = new double[ids.length];
+		int n = 0;
+		boolean inserted = v < 0;
+		for (int i = 0; i < oldIds.length && n < ids.length; i++) {
+			if (i == remove) {
+				continue;
+			}
+			if (!inserted && TopKHeap.better(v, value, oldIds[i], oldSimilarities[i])) {
+				ids[n] = v;
+				similarities[n++] = value;
+				inserted = true;
+				if (n == ids.length) {
+					break;
+				}
+			}
+			ids[n] = oldIds[i];
+			similarities[n++] = oldSimilarities[i];
+		}
+		if (!inserted && n < ids.length) {
+			ids[n] = v;
+			similarities[n++] = value;
+		}
+		setNeighbours(w, ids, similarities);
+	}
+
+	// 重新选出用户w的相似用户，更新反向索引，返回是否有变化
+	private boolean selectNeighbours(int w, TopKHeap topK) {
+		topK.clear();
+		IdTable row = pairs.get(w);
+		for (int slot = 0; slot < row.capacity(); slot++) {
+			int v = row.key(slot);
+			if (v != IdTable.FREE) {
+				topK.offer(v, finish(row.value(slot), w, v));
+			}
+		}
+		topK.sortDescending();
+		neighbourLimits[w] = topK.capacity();
+		int[] ids = new int[topK.size()];
+		double[] similarities = new double[topK.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = topK.id(i);
+			similarities[i] = topK.value(i);
+		}
+		if (Arrays.equals(ids, neighbourIds.get(w)) && Arrays.equals(similarities, neighbourSimilarities.get(w))) {
+			return false;
+		}
+		setNeighbours(w, ids, similarities);
+		return true;
+	}
+
+	// 替换用户w的相似用户列表，更新反向索引
+	private void setNeighbours(int w, int[] ids, double[] similarities) {
+		for (int v : neighbourIds.get(w)) {
+			followers.get(v).remove(w);
+		}
+		for (int v : ids) {
+			followers.get(v).put(w, null);
+		}
+		neighbourIds.set(w, ids);
+		neighbourSimilarities.set(w, similarities);
+	}
+
+	// 与SimilarityReducer相同，按ID较小的用户在前取两个用户的统计量
+	private double finish(double[] pairStats, int u, int v) {
+		if (metric.userStatistics() == 0) {
+			return metric.finish(pairStats, null, null);
+		}
+		return metric.finish(pairStats, userStats.get(Math.min(u, v)), userStats.get(Math.max(u, v)));
+	}
+
+	/**
+	 *
+	 * @Title：recommend
+	 * @Description: 按当前的相似用户计算一个用户的推荐电影，推荐值与推荐标准同评分关联、推荐作业
+	 * @Param: @param u
+	 * @Return: String 电影名[推荐值]; ...
+	 */
+	String recommend(int u) {
+		int movieCounts = movieNames.size();
+		if (movieRecommendScore.length < movieCounts) {
+			movieRecommendScore = new double[Math.max(movieCounts, movieRecommendScore.length * 2)];
+			rated = new boolean[movieRecommendScore.length];
+		}
+		Arrays.fill(movieRecommendScore, 0, movieCounts, 0.0);
+		Arrays.fill(rated, 0, movieCounts, false);
+		double recommendSum = 0.0;
+		int[] ids = neighbourIds.get(u);
+		double[] similarities = neighbourSimilarities.get(u);
+		for (int n = 0; n < ids.length; n++) {
+			SparseRow row = userRatings.get(ids[n]);
+			for (int i = 0; i < row.size(); i++) {
+				// 与评分关联作业相同，加权后的评分先取float
+				float contribution = (float) (row.value(i) * similarities[n]);
+				movieRecommendScore[row.id(i)] += contribution;
+				recommendSum += contribution;
+			}
+		}
+		SparseRow row = userRatings.get(u);
+		for (int i = 0; i < row.size(); i++) {
+			rated[row.id(i)] = true;
+		}
+		recommendMovies.setLength(0);
+		if (movieCounts > 0) {
+			int recommendCounts = conf.getInt(CollaborativeFilteringByUser.CONF_RECOMMENDATIONS, -1);
+			TopKHeap topN = new TopKHeap(recommendCounts < 0 ? movieCounts : Math.min(recommendCounts, movieCounts));
+			CollaborativeFilteringByUser.selectRecommendations(movieRecommendScore, rated, recommendSum, movieCounts,
+					topN);
+			for (int i = 0; i < topN.size(); i++) {
+				recommendMovies.append(movieNames.get(topN.id(i))).append('[').append(df.format(topN.value(i)))
+						.append("]; ");
+			}
+		}
+		return recommendMovies.toString();
+	}
+
+	/**
+	 *
+	 * @Title：checkpoint
+	 * @Description: 写检查点：读取位置、字典与评分向量，先写临时文件、同步到磁盘后改名
+	 * @Param: @param file
+	 * @Return: void
+	 */
+	public void checkpoint(File file) throws IOException {
+		long start = System.currentTimeMillis();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(tmp);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(offset);
+			writeNames(out, userNames);
+			writeNames(out, movieNames);
+			for (SparseRow row : userRatings) {
+				out.writeInt(row.size());
+				for (int i = 0; i < row.size(); i++) {
+					out.writeInt(row.id(i));
+					out.writeFloat(row.value(i));
+				}
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		metrics.add("stream-checkpoint", StageMetrics.MILLIS, System.currentTimeMillis() - start);
+		LOG.info("checkpoint " + file + ": " + userNames.size() + " users, " + movieNames.size() + " movies, offset "
+				+ offset);
+	}
+
+	private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+		out.writeInt(names.size());
+		for (String name : names) {
+			out.writeUTF(name);
+		}
+	}
+
+	/**
+	 *
+	 * @Title：restore
+	 * @Description: 由检查点恢复评分与读取位置，重新计算用户对统计量、用户统计量与全部用户的相似用户
+	 * @Param: @param file
+	 * @Return: void
+	 */
+	public void restore(File file) throws IOException {
+		long start = System.currentTimeMillis();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("not a streaming checkpoint: " + file);
+			}
+			long position = in.readLong();
+			int users = in.readInt();
+			for (int u = 0; u < users; u++) {
+				userId(in.readUTF());
+			}
+			int movies = in.readInt();
+			for (int m = 0; m < movies; m++) {
+				movieId(in.readUTF());
+			}
+			for (int u = 0; u < users; u++) {
+				SparseRow row = userRatings.get(u);
+				int size = in.readInt();
+				for (int i = 0; i < size; i++) {
+					int m = in.readInt();
+					float score = in.readFloat();
+					row.set(m, score);
+					movieRatings.get(m).set(u, score);
+				}
+			}
+			offset = position;
+		}
+
+		// 由倒排表重新累加用户对统计量
+		for (SparseRow raters : movieRatings) {
+			for (int i = 0; i < raters.size(); i++) {
+				for (int j = i + 1; j < raters.size(); j++) {
+					int u = raters.id(i);
+					int v = raters.id(j);
+					addPair(pairStats(u, v), u, raters.value(i), v, raters.value(j), 1);
+				}
+			}
+		}
+		if (metric.userStatistics() > 0) {
+			for (int u = 0; u < userRatings.size(); u++) {
+				SparseRow row = userRatings.get(u);
+				for (int i = 0; i < row.size(); i++) {
+					metric.accumulateUser(userStats.get(u), row.value(i));
+				}
+			}
+		}
+		conf.setLong(CollaborativeFilteringByUser.CONF_USER_COUNTS, userNames.size());
+		TopKHeap topK = new TopKHeap(CollaborativeFilteringByUser.neighbourCounts(conf));
+		for (int u = 0; u < userNames.size(); u++) {
+			selectNeighbours(u, topK);
+		}
+		metrics.add("stream-restore", StageMetrics.MILLIS, System.currentTimeMillis() - start);
+		LOG.info("restored " + file + ": " + userNames.size() + " users, " + movieNames.size() + " movies, offset "
+				+ offset);
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: IdTable
+	 * </p>
+	 * <p>
+	 * Description: 以用户ID（不小于0）为键的开放寻址哈希表（线性探测），键为int数组，不装箱；
+	 * 		删除时把后面同一探测序列的元素前移，不留删除标记。按capacity、key、value遍历，空位的键为FREE
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static final class IdTable {
+		static final int FREE = -1;
+		private int[] keys = new int[4];
+		private double[][] values = new double[4][];
+		private int size = 0;
+
+		IdTable() {
+			Arrays.fill(keys, FREE);
+		}
+
+		int capacity() {
+			return keys.length;
+		}
+
+		int key(int slot) {
+			return keys[slot];
+		}
+
+		double[] value(int slot) {
+			return values[slot];
+		}
+
+		double[] get(int id) {
+			int slot = slot(keys, id);
+			return keys[slot] == id ? values[slot] : null;
+		}
+
+		// 设置值，容量保持为元素数的2倍以上
+		void put(int id, double[] value) {
+			int slot = slot(keys, id);
+			if (keys[slot] != id) {
+				if (2 * (size + 1) > keys.length) {
+					resize(keys.length * 2);
+					slot = slot(keys, id);
+				}
+				keys[slot] = id;
+				size++;
+			}
+			values[slot] = value;
+		}
+
+		void remove(int id) {
+			int slot = slot(keys, id);
+			if (keys[slot] != id) {
+				return;
+			}
+			int mask = keys.length - 1;
+			int next = slot;
+			while (true) {
+				next = (next + 1) & mask;
+				if (keys[next] == FREE) {
+					break;
+				}
+				// next处的元素的起始位置不在 (slot, next] 内时，前移到slot
+				int home = hash(keys[next]) & mask;
+				if (slot <= next ? (home <= slot || home > next) : (home <= slot && home > next)) {
+					keys[slot] = keys[next];
+					values[slot] = values[next];
+					slot = next;
+				}
+			}
+			keys[slot] = FREE;
+			values[slot] = null;
+			size--;
+		}
+
+		private void resize(int capacity) {
+			int[] oldKeys = keys;
+			double[][] oldValues = values;
+			keys = new int[capacity];
+			values = new double[capacity][];
+			Arrays.fill(keys, FREE);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != FREE) {
+					int slot = slot(keys, oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		// id所在的位置，不存在时为插入的空位
+		private static int slot(int[] keys, int id) {
+			int mask = keys.length - 1;
+			int slot = hash(id) & mask;
+			while (keys[slot] != FREE && keys[slot] != id) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private static int hash(int id) {
+			int hash = id * 0x9E3779B9;
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: UserList
+	 * </p>
+	 * <p>
+	 * Description: 不重复的用户ID列表，用按用户ID的标记数组去重，clear只清理已加入的用户
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static final class UserList {
+		private int[] ids = new int[16];
+		private int size = 0;
+		private boolean[] marked = new boolean[16];
+
+		int size() {
+			return size;
+		}
+
+		int get(int i) {
+			return ids[i];
+		}
+
+		boolean contains(int id) {
+			return id < marked.length && marked[id];
+		}
+
+		void add(int id) {
+			if (id >= marked.length) {
+				marked = Arrays.copyOf(marked, Math.max(id + 1, marked.length * 2));
+			}
+			if (marked[id]) {
+				return;
+			}
+			marked[id] = true;
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+
+		void sort() {
+			Arrays.sort(ids, 0, size);
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				marked[ids[i]] = false;
+			}
+			size = 0;
+		}
+	}
+
+	/**
+	 *
+	 * <p>
+	 * Title: SparseRow
+	 * </p>
+	 * <p>
+	 * Description: 按ID递增排列的稀疏向量，只保存不为0.0的值，查找用二分法
+	 * </p>
+	 *
+	 * @author Gu Yongtao
+	 * @date 2026年10月18日
+	 */
+	private static final class SparseRow {
+		private int size = 0;
+		private int[] ids = new int[4];
+		private float[] values = new float[4];
+
+		int size() {
+			return size;
+		}
+
+		int id(int i) {
+			return ids[i];
+		}
+
+		float value(int i) {
+			return values[i];
+		}
+
+		float get(int id) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			return index < 0 ? 0.0f : values[index];
+		}
+
+		// 设置值，0.0时删除
+		void set(int id, float value) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if (index >= 0) {
+				if (value != 0.0f) {
+					values[index] = value;
+					return;
+				}
+				System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				size--;
+				return;
+			}
+			if (value == 0.0f) {
+				return;
+			}
+			index = -index - 1;
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			System.arraycopy(ids, index, ids, index + 1, size - index);
+			System.arraycopy(values, index, values, index + 1, size - index);
+			ids[index] = id;
+			values[index] = value;
+			size++;
+		}
+	}
+}
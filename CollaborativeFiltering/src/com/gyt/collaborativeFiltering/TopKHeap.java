@@ -0,0 +1,140 @@
+package com.gyt.collaborativeFiltering;
+
+/**
+ * @FileName: TopKHeap.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 定长的基本类型小顶堆，从任意多个 (ID, 值) 中选出值最大的K个
+ *
+ * 堆顶始终是当前K个中最差的一个，新元素只需与堆顶比较，每个元素O(log K)，不创建任何对象。
+ * 排序规则：值大的优先；值相等时ID小的优先，因此结果与输入顺序无关，同一份数据每次选出的K个完全相同。
+ * 调用sortDescending后，id(i)、value(i)按从好到差的顺序读取；clear后可复用于下一个key。
+ *
+ * @Date: 2026年10月18日
+ */
+public class TopKHeap {
+	// ID
+	private final int[] ids;
+	// 值，与ids下标一一对应
+	private final double[] values;
+	// 当前元素个数
+	private int size = 0;
+
+	public TopKHeap(int k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		}
+		ids = new int[k];
+		values = new double[k];
+	}
+
+	/**
+	 *
+	 * @Title：clear
+	 * @Description: 清空堆，数组保留复用
+	 * @Return: void
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	public int capacity() {
+		return ids.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int id(int i) {
+		return ids[i];
+	}
+
+	public double value(int i) {
+		return values[i];
+	}
+
+	/**
+	 *
+	 * @Title：offer
+	 * @Description: 加入一个元素：未满时直接入堆；已满时只有优于堆顶才替换堆顶
+	 * @Param: @param id
+	 * @Param: @param value
+	 * @Return: boolean 是否进入了当前的前K个
+	 */
+	public boolean offer(int id, double value) {
+		if (size < ids.length) {
+			ids[size] = id;
+			values[size] = value;
+			siftUp(size++);
+			return true;
+		}
+		if (size == 0 || !better(id, value, ids[0], values[0])) {
+			return false;
+		}
+		ids[0] = id;
+		values[0] = value;
+		siftDown(0, size);
+		return true;
+	}
+
+	/**
+	 *
+	 * @Title：sortDescending
+	 * @Description: 原地堆排序，完成后下标0为最好的元素；排序后不能再调用offer，需先clear
+	 * @Return: void
+	 */
+	public void sortDescending() {
+		for (int end = size - 1; end > 0; end--) {
+			// 堆顶为最差的元素，依次换到末尾
+			swap(0, end);
+			siftDown(0, end);
+		}
+	}
+
+	// a是否排在b之前：值大的优先，值相等时ID小的优先；StreamingEngine按同样的顺序增量更新相似用户
+	static boolean better(int idA, double valueA, int idB, double valueB) {
+		int c = Double.compare(valueA, valueB);
+		return c > 0 || (c == 0 && idA < idB);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			// 子节点比父节点更差时上移，保证堆顶最差
+			if (!better(ids[parent], values[parent], ids[i], values[i])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int end) {
+		while (true) {
+			int worst = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < end && better(ids[worst], values[worst], ids[left], values[left])) {
+				worst = left;
+			}
+			if (right < end && better(ids[worst], values[worst], ids[right], values[right])) {
+				worst = right;
+			}
+			if (worst == i) {
+				return;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+}
@@ -5,6 +5,7 @@ import java.util.*;
 /**
  * 描述：对电影打星1~5，最低打1星，0代表没打星过。大于平均推荐度代表喜欢。
  * 给目标用户推荐相似度最高用户喜欢的电影
+ * 评分启动时存入堆外的RatingStore，只保存打过星的电影，计算时按用户ID读取
  */
 public class UserCFDemo {
 
@@ -20,6 +21,8 @@ public class UserCFDemo {
             {3,1,4,3,5,0,0},
             {5,2,0,1,0,5,5}
     };
+    //打星数据的堆外存储，每个用户按电影下标升序保存打过星的电影
+    private static RatingStore ratingStore=buildRatingStore();
     //相似用户集合
     private static List<List<Object>> similarityUsers=null;
     //推荐所有电影集合
@@ -62,15 +65,44 @@ public class UserCFDemo {
 
     }
 
+    /**
+     * 把打星数据存入RatingStore，0（没打星）不保存
+     * @return
+     */
+    private static RatingStore buildRatingStore(){
+        RatingStore.Builder builder=new RatingStore.Builder(users.length,movies.length);
+        for (int i=0;i<allUserMovieStarList.length;i++){
+            for (int j=0;j<allUserMovieStarList[i].length;j++){
+                if(allUserMovieStarList[i][j]!=0){
+                    builder.add(i,j,allUserMovieStarList[i][j]);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 用户对电影的打星，没打星返回0
+     * @param user
+     * @param movie
+     * @return
+     */
+    private static float getStar(int user,int movie){
+        for (long i=ratingStore.offset(user);i<ratingStore.offset(user+1);i++){
+            if(ratingStore.movieId(i)==movie){
+                return ratingStore.score(i);
+            }
+        }
+        return 0;
+    }
+
     /**
      * 把推荐列表中用户已经点评过的电影剔除
      */
     private static void handleRecommendMovies(){
         commentedMovies=new ArrayList<>();
-        for (int i=0;i<allUserMovieStarList[targetUserIndex].length;i++){
-            if(allUserMovieStarList[targetUserIndex][i]!=0){
-                commentedMovies.add(movies[i]);
-            }
+        for (long i=ratingStore.offset(targetUserIndex);i<ratingStore.offset(targetUserIndex+1);i++){
+            commentedMovies.add(movies[ratingStore.movieId(i)]);
         }
     }
 
@@ -99,8 +131,8 @@ public class UserCFDemo {
             recommendMovie=new ArrayList<>();
             recommendMovie.add(i);
 
-            recommdRate=allUserMovieStarList[Integer.parseInt(similarityUsers.get(0).get(0).toString())][i]*Double.parseDouble(similarityUsers.get(0).get(1).toString())
-                    +allUserMovieStarList[Integer.parseInt(similarityUsers.get(1).get(0).toString())][i]*Double.parseDouble(similarityUsers.get(1).get(1).toString());
+            recommdRate=getStar(Integer.parseInt(similarityUsers.get(0).get(0).toString()),i)*Double.parseDouble(similarityUsers.get(0).get(1).toString())
+                    +getStar(Integer.parseInt(similarityUsers.get(1).get(0).toString()),i)*Double.parseDouble(similarityUsers.get(1).get(1).toString());
             recommendMovie.add(recommdRate);
             recommendMovies.add(recommendMovie);
             sumRate+=recommdRate;
@@ -127,7 +159,7 @@ public class UserCFDemo {
             }
             List<Object> userSimilarity=new ArrayList<>();
             userSimilarity.add(i);
-            userSimilarity.add(calcTwoUserSimilarity(allUserMovieStarList[i],allUserMovieStarList[targetUserIndex]));	// 根据打分计算相似度
+            userSimilarity.add(calcTwoUserSimilarity(i,targetUserIndex));	// 根据打分计算相似度
             userSimilaritys.add(userSimilarity);
         }
 
@@ -139,14 +171,26 @@ public class UserCFDemo {
 
     /**
      * 根据用户数据，计算用户相似度
-     * @param user1Stars
-     * @param user2Starts
+     * @param user1
+     * @param user2
      * @return
      */
-    private static double calcTwoUserSimilarity(int[] user1Stars,int[] user2Starts){
+    private static double calcTwoUserSimilarity(int user1,int user2){
         float sum=0;
-        for(int i=0;i<7;i++){	// 计算每部电影的打分之差
-            sum += Math.pow(user1Stars[i]-user2Starts[i],2);
+        long i=ratingStore.offset(user1),end1=ratingStore.offset(user1+1);
+        long j=ratingStore.offset(user2),end2=ratingStore.offset(user2+1);
+        while (i<end1 || j<end2){	// 按电影下标归并，计算每部电影的打分之差，一方没打星时按0计
+            int movie1=i<end1?ratingStore.movieId(i):Integer.MAX_VALUE;
+            int movie2=j<end2?ratingStore.movieId(j):Integer.MAX_VALUE;
+            float diff;
+            if(movie1==movie2){
+                diff=ratingStore.score(i++)-ratingStore.score(j++);
+            }else if(movie1<movie2){
+                diff=ratingStore.score(i++);
+            }else{
+                diff=-ratingStore.score(j++);
+            }
+            sum += diff*diff;
         }
         return Math.sqrt(sum);	// 返回所有评分差值的和
     }
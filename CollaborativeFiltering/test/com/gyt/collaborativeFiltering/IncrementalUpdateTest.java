@@ -0,0 +1,188 @@
+package com.gyt.collaborativeFiltering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @FileName: IncrementalUpdateTest.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: 增量更新与完整重新计算的相似用户一致：在小数据上先完整计算，再增量更新，与合并后数据的完整计算比较
+ *
+ * 两次计算的字典ID不同，按用户名比较。相似度相等时两边的先后顺序可能不同（见 IncrementalUpdate 的说明），
+ * 因此逐个比较相似度，相似用户只按相似度分组比较集合，最后一组可能被K截断，只比较个数。
+ *
+ * @Date: 2026年10月18日
+ */
+public class IncrementalUpdateTest {
+	private static final int USERS = 40;
+	private static final int MOVIES = 15;
+	private static final int K = 6;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void incrementalMatchesFullRecompute() throws IOException {
+		Random random = new Random(20261018L);
+		// key=用户名，value=(电影名, 评分)
+		Map<String, Map<String, Float>> base = new TreeMap<>();
+		for (int u = 0; u < USERS; u++) {
+			Map<String, Float> vector = new TreeMap<>();
+			for (int m = 0; m < MOVIES; m++) {
+				if (random.nextInt(2) == 0) {
+					vector.put("movie" + m, score(random));
+				}
+			}
+			base.put("user" + u, vector);
+		}
+		// 增量：修改已有评分、新增评分、新用户、新电影
+		Map<String, Map<String, Float>> delta = new TreeMap<>();
+		for (int i = 0; i < 12; i++) {
+			put(delta, "user" + random.nextInt(USERS), "movie" + random.nextInt(MOVIES), score(random));
+		}
+		for (int m = 0; m < MOVIES; m += 2) {
+			put(delta, "user" + USERS, "movie" + m, score(random));
+		}
+		for (int u = 0; u < USERS; u += 3) {
+			put(delta, "user" + u, "movie" + MOVIES, score(random));
+		}
+		Map<String, Map<String, Float>> merged = new TreeMap<>();
+		for (Entry<String, Map<String, Float>> entry : base.entrySet()) {
+			merged.put(entry.getKey(), new TreeMap<>(entry.getValue()));
+		}
+		for (Entry<String, Map<String, Float>> entry : delta.entrySet()) {
+			for (Entry<String, Float> rating : entry.getValue().entrySet()) {
+				put(merged, entry.getKey(), rating.getKey(), rating.getValue());
+			}
+		}
+
+		File incremental = folder.newFolder("incremental");
+		assertTrue(CollaborativeFilteringByUser.startMapReduce(configuration(), paths(incremental, "base", base)));
+		assertTrue(IncrementalUpdate.startIncremental(configuration(), paths(incremental, "delta", delta)));
+		File full = folder.newFolder("full");
+		assertTrue(CollaborativeFilteringByUser.startMapReduce(configuration(), paths(full, "merged", merged)));
+
+		Map<String, List<Neighbour>> expected = neighbours(full);
+		Map<String, List<Neighbour>> actual = neighbours(incremental);
+		assertEquals(USERS + 1, expected.size());
+		assertEquals(expected.keySet(), actual.keySet());
+		for (String user : expected.keySet()) {
+			assertSameNeighbours(user, expected.get(user), actual.get(user));
+		}
+	}
+
+	private static Configuration configuration() {
+		Configuration configuration = new Configuration();
+		configuration.set("mapreduce.framework.name", "local");
+		configuration.set("fs.defaultFS", "file:///");
+		configuration.set(CollaborativeFilteringByUser.CONF_INPUT_FORMAT, RatingFormat.TRIPLES.name());
+		configuration.set(CollaborativeFilteringByUser.CONF_SIMILARITY_METRIC, SimilarityMetric.COSINE.name());
+		configuration.setInt(CollaborativeFilteringByUser.CONF_NEIGHBOURS, K);
+		return configuration;
+	}
+
+	// 两位小数的评分，减少相似度相等的情况
+	private static float score(Random random) {
+		return (100 + random.nextInt(400)) / 100f;
+	}
+
+	private static void put(Map<String, Map<String, Float>> ratings, String user, String movie, float score) {
+		Map<String, Float> vector = ratings.get(user);
+		if (vector == null) {
+			vector = new TreeMap<>();
+			ratings.put(user, vector);
+		}
+		vector.put(movie, score);
+	}
+
+	// 写出triples格式的输入，返回 输入目录、输出目录、中间结果目录
+	private static String[] paths(File root, String name, Map<String, Map<String, Float>> ratings) throws IOException {
+		File input = new File(root, name);
+		assertTrue(input.mkdirs());
+		try (Writer writer = new OutputStreamWriter(Files.newOutputStream(new File(input, "ratings.txt").toPath()),
+				StandardCharsets.UTF_8)) {
+			for (Entry<String, Map<String, Float>> entry : ratings.entrySet()) {
+				for (Entry<String, Float> rating : entry.getValue().entrySet()) {
+					writer.write(entry.getKey() + "," + rating.getKey() + "," + rating.getValue() + "\n");
+				}
+			}
+		}
+		return new String[] { input.toURI().toString(), new File(root, "output").toURI().toString(),
+				new File(root, "tmp").toURI().toString() };
+	}
+
+	// 从相似用户模型与用户字典读出每个用户名的相似用户
+	private static Map<String, List<Neighbour>> neighbours(File root) throws IOException {
+		File tmp = new File(root, "tmp");
+		NameDictionary users = NameDictionary.load(new File(new File(tmp, CollaborativeFilteringByUser.DICTIONARY_DIR),
+				CollaborativeFilteringByUser.USERS_OUTPUT + "-r-00000"));
+		NeighbourModel model = NeighbourModel.open(new File(tmp, CollaborativeFilteringByUser.MODEL_FILE));
+		Map<String, List<Neighbour>> neighbours = new HashMap<>();
+		for (int userId = 0; userId < users.size(); userId++) {
+			List<Neighbour> list = new ArrayList<>();
+			for (int i = 0; i < model.size(userId); i++) {
+				list.add(new Neighbour(users.name(model.neighbour(userId, i)), model.similarity(userId, i)));
+			}
+			neighbours.put(users.name(userId), list);
+		}
+		return neighbours;
+	}
+
+	private static void assertSameNeighbours(String user, List<Neighbour> expected, List<Neighbour> actual) {
+		assertEquals(user + " " + expected + " " + actual, expected.size(), actual.size());
+		int start = 0;
+		while (start < expected.size()) {
+			double similarity = expected.get(start).similarity;
+			int end = start;
+			Set<String> expectedNames = new HashSet<>();
+			Set<String> actualNames = new HashSet<>();
+			while (end < expected.size() && Math.abs(expected.get(end).similarity - similarity) < 1e-9) {
+				assertEquals(user + " " + expected + " " + actual, similarity, actual.get(end).similarity, 1e-9);
+				expectedNames.add(expected.get(end).name);
+				actualNames.add(actual.get(end).name);
+				end++;
+			}
+			if (end < expected.size()) {
+				assertEquals(user + " " + expected + " " + actual, expectedNames, actualNames);
+			}
+			start = end;
+		}
+	}
+
+	private static class Neighbour {
+		private final String name;
+		private final double similarity;
+
+		Neighbour(String name, double similarity) {
+			this.name = name;
+			this.similarity = similarity;
+		}
+
+		@Override
+		public String toString() {
+			return name + ":" + similarity;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.gyt.collaborativeFiltering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+/**
+ * @FileName: MovieBlockKeyTest.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: MovieBlockKey 的字节比较器与 compareTo 一致：排序比较器比较全部字段，分组比较器、分区只取决于 电影、块1、块2
+ *
+ * 随机生成的key序列化后放在同一个缓冲区的不同位置（起始下标不为0），与map输出缓冲区中的情形相同。
+ *
+ * @Date: 2026年10月18日
+ */
+public class MovieBlockKeyTest {
+	private static final int KEYS = 400;
+
+	@Test
+	public void comparatorsMatchCompareTo() throws IOException {
+		Random random = new Random(20261018L);
+		MovieBlockKey[] keys = new MovieBlockKey[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = randomKey(random);
+		}
+		// 全部key依次序列化到一个缓冲区，前面留一个字节使起始下标不为0
+		DataOutputBuffer buffer = new DataOutputBuffer();
+		buffer.writeByte(0);
+		int[] starts = new int[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			starts[i] = buffer.getLength();
+			keys[i].write(buffer);
+			assertEquals(MovieBlockKey.LENGTH, buffer.getLength() - starts[i]);
+		}
+		byte[] bytes = buffer.getData();
+
+		WritableComparator comparator = new MovieBlockKey.Comparator();
+		MovieBlockKey.GroupComparator groupComparator = new MovieBlockKey.GroupComparator();
+		MovieBlockKey.BlockPartitioner partitioner = new MovieBlockKey.BlockPartitioner();
+		for (int i = 0; i < KEYS; i++) {
+			for (int j = 0; j < KEYS; j++) {
+				String message = keys[i] + " vs " + keys[j];
+				int expected = Integer.signum(keys[i].compareTo(keys[j]));
+				assertEquals(message, expected, Integer.signum(comparator.compare(bytes, starts[i],
+						MovieBlockKey.LENGTH, bytes, starts[j], MovieBlockKey.LENGTH)));
+
+				int expectedGroup = Integer.signum(group(keys[i]).compareTo(group(keys[j])));
+				assertEquals(message, expectedGroup, Integer.signum(groupComparator.compare(bytes, starts[i],
+						MovieBlockKey.LENGTH, bytes, starts[j], MovieBlockKey.LENGTH)));
+				assertEquals(message, expectedGroup, Integer.signum(groupComparator.compare(keys[i], keys[j])));
+				if (expectedGroup == 0) {
+					assertEquals(message, partitioner.getPartition(keys[i], null, 7),
+							partitioner.getPartition(keys[j], null, 7));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void sortOrderMatchesRegisteredComparator() throws IOException {
+		Random random = new Random(1);
+		MovieBlockKey[] keys = new MovieBlockKey[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = randomKey(random);
+		}
+		MovieBlockKey[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		// 同一分组内块1一侧在前，且按用户ID递增
+		for (int i = 1; i < KEYS; i++) {
+			MovieBlockKey previous = sorted[i - 1];
+			MovieBlockKey current = sorted[i];
+			if (group(previous).compareTo(group(current)) == 0 && previous.isSecondSide() == current.isSecondSide()) {
+				assertTrue(previous + " " + current, previous.getUserId() <= current.getUserId());
+			}
+			if (group(previous).compareTo(group(current)) == 0 && previous.isSecondSide()) {
+				assertTrue(previous + " " + current, current.isSecondSide());
+			}
+		}
+		// define注册的比较器即排序比较器
+		assertEquals(MovieBlockKey.Comparator.class, WritableComparator.get(MovieBlockKey.class).getClass());
+	}
+
+	// 电影ID、块号、用户ID取小范围以产生相等的字段，也包括接近上限的值
+	private static MovieBlockKey randomKey(Random random) {
+		MovieBlockKey key = new MovieBlockKey();
+		int movieId = random.nextInt(4) == 0 ? Integer.MAX_VALUE - random.nextInt(3) : random.nextInt(6);
+		int firstBlock = random.nextInt(4) == 0 ? Short.MAX_VALUE - 1 : random.nextInt(3);
+		int secondBlock = firstBlock + (firstBlock == Short.MAX_VALUE - 1 ? random.nextInt(2) : random.nextInt(3));
+		boolean secondSide = firstBlock != secondBlock && random.nextBoolean();
+		int userId = random.nextInt(4) == 0 ? Integer.MAX_VALUE - random.nextInt(3) : random.nextInt(10);
+		key.set(movieId, firstBlock, secondBlock, secondSide, userId);
+		return key;
+	}
+
+	// 只保留 电影、块1、块2 的副本
+	private static MovieBlockKey group(MovieBlockKey key) {
+		MovieBlockKey group = new MovieBlockKey();
+		group.set(key.getMovieId(), key.getFirstBlock(), key.getSecondBlock(), false, 0);
+		return group;
+	}
+}
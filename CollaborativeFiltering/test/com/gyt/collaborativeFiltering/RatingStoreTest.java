@@ -0,0 +1,163 @@
+package com.gyt.collaborativeFiltering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @FileName: RatingStoreTest.java
+ * @Package: com.gyt.collaborativeFiltering
+ * @Author: Gu Yongtao
+ * @Description: RatingStore 的往返测试：write后open、Builder建立，读出的评分与写入的评分向量一致
+ *
+ * 默认分段为1GB，测试用1KB的分段（segmentShift=10），评分与起始下标都跨越多个分段。
+ *
+ * @Date: 2026年10月18日
+ */
+public class RatingStoreTest {
+	private static final int USERS = 500;
+	private static final int MOVIES = 40;
+	// 1KB的分段：每段128条评分、128个起始下标
+	private static final int SMALL_SEGMENT_SHIFT = 10;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writeThenOpen() throws IOException {
+		List<RatingVectorWritable> vectors = vectors(new Random(1));
+		Configuration conf = new Configuration();
+		Path store = new Path(folder.getRoot().toURI().toString(), "ratings.store");
+		RatingStore.write(conf, writeVectors(conf, vectors), USERS, MOVIES, store);
+
+		File file = new File(folder.getRoot(), "ratings.store");
+		assertSame(vectors, RatingStore.open(file));
+		assertSame(vectors, RatingStore.open(file, SMALL_SEGMENT_SHIFT));
+	}
+
+	@Test
+	public void builder() {
+		List<RatingVectorWritable> vectors = vectors(new Random(2));
+		RatingStore.Builder builder = new RatingStore.Builder(USERS, MOVIES);
+		for (RatingVectorWritable vector : vectors) {
+			builder.add(vector);
+		}
+		assertSame(vectors, builder.build());
+	}
+
+	@Test
+	public void builderCrossesSegments() {
+		List<RatingVectorWritable> vectors = vectors(new Random(3));
+		RatingStore.Builder builder = new RatingStore.Builder(USERS, MOVIES, SMALL_SEGMENT_SHIFT);
+		for (RatingVectorWritable vector : vectors) {
+			for (int i = 0; i < vector.size(); i++) {
+				builder.add(vector.getUserId(), vector.movieId(i), vector.score(i));
+			}
+		}
+		RatingStore store = builder.build();
+		// 评分与起始下标都超过一个分段
+		assertTrue(store.ratingCounts() * 8 > 1 << SMALL_SEGMENT_SHIFT);
+		assertTrue((USERS + 1L) * 8 > 1 << SMALL_SEGMENT_SHIFT);
+		assertSame(vectors, store);
+	}
+
+	@Test
+	public void openReplacesStaleLocalCopy() throws IOException {
+		Configuration conf = new Configuration();
+		Path store = new Path(folder.getRoot().toURI().toString(), "ratings.store");
+		File local = new File(folder.newFolder("local"), "ratings.store");
+		List<RatingVectorWritable> first = vectors(new Random(4));
+		RatingStore.write(conf, writeVectors(conf, first), USERS, MOVIES, store);
+		assertSame(first, RatingStore.open(conf, store, local));
+
+		// 评分数相同、评分不同，文件大小不变
+		List<RatingVectorWritable> second = new ArrayList<>();
+		for (RatingVectorWritable vector : first) {
+			RatingVectorWritable changed = new RatingVectorWritable();
+			changed.clear(vector.getUserId());
+			for (int i = 0; i < vector.size(); i++) {
+				changed.add(vector.movieId(i), vector.score(i) + 1.0f);
+			}
+			second.add(changed);
+		}
+		RatingStore.write(conf, writeVectors(conf, second), USERS, MOVIES, store);
+		File remote = new File(folder.getRoot(), "ratings.store");
+		assertTrue(remote.setLastModified(local.lastModified() + 2000));
+		assertEquals(remote.length(), local.length());
+		assertSame(second, RatingStore.open(conf, store, local));
+	}
+
+	// 按用户ID升序的评分向量，约十分之一的用户没有评分
+	private static List<RatingVectorWritable> vectors(Random random) {
+		List<RatingVectorWritable> vectors = new ArrayList<>();
+		for (int u = 0; u < USERS; u++) {
+			if (random.nextInt(10) == 0) {
+				continue;
+			}
+			RatingVectorWritable vector = new RatingVectorWritable();
+			vector.clear(u);
+			for (int m = 0; m < MOVIES; m++) {
+				if (random.nextInt(3) == 0) {
+					vector.add(m, (10 + random.nextInt(41)) / 10.0f);
+				}
+			}
+			vectors.add(vector);
+		}
+		return vectors;
+	}
+
+	// 与评分向量作业的输出相同：两个文件，各自按用户ID升序，用户交替分到两个文件
+	private Path writeVectors(Configuration conf, List<RatingVectorWritable> vectors) throws IOException {
+		File directory = folder.newFolder();
+		SequenceFile.Writer[] writers = new SequenceFile.Writer[2];
+		for (int i = 0; i < writers.length; i++) {
+			writers[i] = SequenceFile.createWriter(conf,
+					SequenceFile.Writer.file(new Path(new File(directory, "part-r-0000" + i).toURI().toString())),
+					SequenceFile.Writer.keyClass(IntWritable.class),
+					SequenceFile.Writer.valueClass(RatingVectorWritable.class));
+		}
+		IntWritable key = new IntWritable();
+		for (RatingVectorWritable vector : vectors) {
+			key.set(vector.getUserId());
+			writers[vector.getUserId() % writers.length].append(key, vector);
+		}
+		for (SequenceFile.Writer writer : writers) {
+			writer.close();
+		}
+		return new Path(directory.toURI().toString(), CollaborativeFilteringByUser.PARTS);
+	}
+
+	private static void assertSame(List<RatingVectorWritable> vectors, RatingStore store) {
+		assertEquals(USERS, store.userCounts());
+		assertEquals(MOVIES, store.movieCounts());
+		long ratingCounts = 0;
+		int next = 0;
+		for (int u = 0; u < USERS; u++) {
+			RatingVectorWritable vector = next < vectors.size() && vectors.get(next).getUserId() == u
+					? vectors.get(next++) : null;
+			int size = vector == null ? 0 : vector.size();
+			assertEquals("user " + u, ratingCounts, store.offset(u));
+			assertEquals("user " + u, size, store.size(u));
+			for (int i = 0; i < size; i++) {
+				assertEquals("user " + u, vector.movieId(i), store.movieId(ratingCounts + i));
+				assertEquals("user " + u, vector.score(i), store.score(ratingCounts + i), 0.0f);
+			}
+			ratingCounts += size;
+		}
+		assertEquals(ratingCounts, store.offset(USERS));
+		assertEquals(ratingCounts, store.ratingCounts());
+	}
+}